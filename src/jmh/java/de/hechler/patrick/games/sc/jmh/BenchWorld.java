@@ -0,0 +1,121 @@
+// This file is part of the Square Conquerer Project
+// DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+// Copyright (C) 2023 Patrick Hechler
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Affero General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Affero General Public License for more details.
+//
+// You should have received a copy of the GNU Affero General Public License
+// along with this program. If not, see <https://www.gnu.org/licenses/>.
+package de.hechler.patrick.games.sc.jmh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import de.hechler.patrick.games.sc.turn.Turn;
+import de.hechler.patrick.games.sc.ui.players.User;
+import de.hechler.patrick.games.sc.world.CompleteWorld;
+import de.hechler.patrick.games.sc.world.World;
+import de.hechler.patrick.games.sc.world.init.DefaultUserPlacer;
+import de.hechler.patrick.games.sc.world.tile.Tile;
+import de.hechler.patrick.utils.objects.ACORNRandom;
+
+/**
+ * a started {@link CompleteWorld} created with {@link CompleteWorld.Builder#fillRandom()}
+ * <p>
+ * all random values are created from fixed seeds, so every trial uses the same world
+ * 
+ * @author Patrick Hechler
+ */
+@State(Scope.Benchmark)
+public class BenchWorld {
+	
+	/** the x-len and y-len of the world */
+	@Param({ "64", "256", "512" })
+	public int size;
+	
+	/** the number of users (without the root) */
+	@Param({ "2", "8" })
+	public int users;
+	
+	/** how often the default start entities are placed for each user */
+	@Param({ "1", "4" })
+	public int density;
+	
+	/** the world */
+	public CompleteWorld world;
+	/** the root user of the world */
+	public User          root;
+	/** the users of the world sorted by their name */
+	public List<User>    userList;
+	
+	private static final long[] BUILD_SEED = { 0x9E3779B97F4A7C15L, 0xBF58476D1CE4E5B9L, 0x94D049BB133111EBL, 0x2545F4914F6CDD1DL };
+	
+	/**
+	 * creates and starts the world
+	 */
+	@Setup(Level.Trial)
+	public void setup() {
+		this.root     = User.createUser("root", "root".toCharArray());
+		this.userList = new ArrayList<>();
+		for (int i = 0; i < this.users; i++) {
+			this.userList.add(this.root.addUser(String.format("user%03d", Integer.valueOf(i)), ("pw" + i).toCharArray()));
+		}
+		CompleteWorld.Builder b = new CompleteWorld.Builder(this.root, this.size, this.size, new ACORNRandom(BUILD_SEED, true));
+		b.fillRandom();
+		Tile[][] tiles = new Tile[this.size][this.size];
+		for (int x = 0; x < this.size; x++) {
+			for (int y = 0; y < this.size; y++) {
+				tiles[x][y] = b.tile(x, y);
+			}
+		}
+		DefaultUserPlacer defs   = (DefaultUserPlacer) DefaultUserPlacer.createWithDefaults();
+		DefaultUserPlacer placer = new DefaultUserPlacer(defs.starts.size() * this.density);
+		for (int i = 0; i < this.density; i++) {
+			placer.starts.addAll(defs.starts);
+		}
+		this.world = CompleteWorld.Builder.create(this.root, tiles, placer);
+		byte[] seed = new byte[16 * 15];
+		for (int i = 0; i < seed.length; i++) {
+			seed[i] = (byte) (i * 31 + 7);
+		}
+		this.world.startGame(seed);
+	}
+	
+	/**
+	 * returns the world of the given user
+	 * 
+	 * @param usr the user
+	 * 
+	 * @return the world of the user
+	 */
+	public World of(User usr) {
+		return this.world.of(usr, 0);
+	}
+	
+	/**
+	 * submits an empty turn for every user and waits until the world executed one turn of every user
+	 */
+	public void round() {
+		CompletableFuture<?>[] done = new CompletableFuture<?>[this.userList.size()];
+		for (int i = 0; i < done.length; i++) {
+			done[i] = this.world.submit(new Turn(of(this.userList.get(i))));
+		}
+		CompletableFuture.allOf(done).join();
+	}
+	
+}
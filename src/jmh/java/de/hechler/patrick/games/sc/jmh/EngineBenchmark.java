@@ -0,0 +1,111 @@
+// This file is part of the Square Conquerer Project
+// DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+// Copyright (C) 2023 Patrick Hechler
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Affero General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Affero General Public License for more details.
+//
+// You should have received a copy of the GNU Affero General Public License
+// along with this program. If not, see <https://www.gnu.org/licenses/>.
+package de.hechler.patrick.games.sc.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.hechler.patrick.games.sc.world.CompleteWorld;
+import de.hechler.patrick.games.sc.world.WorldThing;
+import de.hechler.patrick.games.sc.world.tile.ActiveTiles;
+import de.hechler.patrick.games.sc.world.tile.Tile;
+
+/**
+ * benchmarks for the execution of turns
+ * <p>
+ * run with <code>java --enable-preview -jar target/benchmarks.jar -prof gc</code> to also see the allocations of each hot path
+ * 
+ * @author Patrick Hechler
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class EngineBenchmark {
+	
+	/**
+	 * finishes one (empty) turn for every user, which executes one round of turns (including the world hash, the snapshot and the notification of all
+	 * things which need it)
+	 * 
+	 * @param w the world
+	 */
+	@Benchmark
+	public void finishRound(BenchWorld w) {
+		w.round();
+	}
+	
+	/**
+	 * calculates the hash of the complete game
+	 * 
+	 * @param w the world
+	 * 
+	 * @return the hash
+	 */
+	@Benchmark
+	public byte[] worldHash(BenchWorld w) {
+		return w.world.worldHash();
+	}
+	
+	/**
+	 * the old way of notifying things after a turn: visit every tile and stream over all of its things.<br>
+	 * compare with {@link #activeSweep(BenchWorld, Blackhole)}
+	 * 
+	 * @param w  the world
+	 * @param bh the black hole
+	 */
+	@Benchmark
+	public void fullSweep(BenchWorld w, Blackhole bh) {
+		int pc = w.users;
+		for (int x = 0; x < w.size; x++) {
+			for (int y = 0; y < w.size; y++) {
+				Tile t = w.world.tile(x, y);
+				bh.consume(t.ground().nextTurnNotify(pc));
+				WorldThing<?, ?> b = t.build();
+				if (b != null) bh.consume(b.nextTurnNotify(pc));
+				t.resourcesStream().forEach(r -> bh.consume(r.nextTurnNotify(pc)));
+				t.unitsStream().forEach(u -> bh.consume(u.nextTurnNotify(pc)));
+			}
+		}
+	}
+	
+	/**
+	 * the way the world notifies its things after a turn: only the tiles in the {@link CompleteWorld#activeTiles() active tiles} are visited and on
+	 * them only the things which declare that they need it
+	 * 
+	 * @param w  the world
+	 * @param bh the black hole
+	 */
+	@Benchmark
+	public void activeSweep(BenchWorld w, Blackhole bh) {
+		int         pc   = w.users;
+		ActiveTiles at   = w.world.activeTiles();
+		int         ylen = w.size;
+		for (int i = at.next(0); i >= 0; i = at.next(i + 1)) {
+			w.world.tile(i / ylen, i % ylen).forEachActive(t -> bh.consume(t.nextTurnNotify(pc)));
+		}
+	}
+	
+}
@@ -0,0 +1,155 @@
+// This file is part of the Square Conquerer Project
+// DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+// Copyright (C) 2023 Patrick Hechler
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Affero General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Affero General Public License for more details.
+//
+// You should have received a copy of the GNU Affero General Public License
+// along with this program. If not, see <https://www.gnu.org/licenses/>.
+package de.hechler.patrick.games.sc.jmh;
+
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.hechler.patrick.games.sc.connect.Connection;
+import de.hechler.patrick.games.sc.ui.players.User;
+import de.hechler.patrick.games.sc.world.UserWorld;
+import de.hechler.patrick.games.sc.world.WorldThing;
+import de.hechler.patrick.games.sc.world.entity.Entity;
+
+/**
+ * benchmarks for reading the world
+ * <p>
+ * run with <code>java --enable-preview -jar target/benchmarks.jar -prof gc</code> to also see the allocations of each hot path
+ * 
+ * @author Patrick Hechler
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class ReadBenchmark {
+	
+	/**
+	 * the values needed by the read benchmarks
+	 * 
+	 * @author Patrick Hechler
+	 */
+	@State(Scope.Benchmark)
+	public static class Targets {
+		
+		/** the UUID of an existing entity */
+		public UUID       existing;
+		/** an UUID which is not used in the world */
+		public UUID       missing;
+		/** the first user */
+		public User       user;
+		/** a connection which discards all data */
+		public Connection nullConn;
+		
+		/**
+		 * initializes the targets
+		 * 
+		 * @param w the world
+		 */
+		@Setup(Level.Trial)
+		public void setup(BenchWorld w) {
+			Map<User, List<Entity<?, ?>>> es = w.world.entities();
+			this.user     = w.userList.get(0);
+			List<Entity<?, ?>> l = es.get(w.userList.get(w.userList.size() - 1));
+			this.existing = l.get(l.size() - 1).uuid;
+			this.missing  = new UUID(0L, 1L);
+			this.nullConn = Connection.createUnsecure(w.root, OutputStream.nullOutputStream(), w.world);
+		}
+		
+	}
+	
+	/**
+	 * collects all entities of the world
+	 * 
+	 * @param w the world
+	 * 
+	 * @return all entities of the world
+	 */
+	@Benchmark
+	public Map<User, List<Entity<?, ?>>> entities(BenchWorld w) {
+		return w.world.entities();
+	}
+	
+	/**
+	 * searches an existing entity
+	 * 
+	 * @param w the world
+	 * @param t the targets
+	 * 
+	 * @return the entity
+	 */
+	@Benchmark
+	public WorldThing<?, ?> getExisting(BenchWorld w, Targets t) {
+		return w.world.get(t.existing);
+	}
+	
+	/**
+	 * searches an UUID which is not used (the worst case)
+	 * 
+	 * @param w the world
+	 * @param t the targets
+	 * 
+	 * @return <code>null</code>
+	 */
+	@Benchmark
+	public WorldThing<?, ?> getMissing(BenchWorld w, Targets t) {
+		return w.world.get(t.missing);
+	}
+	
+	/**
+	 * creates the world of a user from scratch (this is what a user world does after each turn)
+	 * 
+	 * @param w the world
+	 * @param t the targets
+	 * 
+	 * @return the entities seen by the user
+	 */
+	@Benchmark
+	public Map<User, List<Entity<?, ?>>> userWorldUpdate(BenchWorld w, Targets t) {
+		return UserWorld.usrOf(w.world, t.user, 0).entities();
+	}
+	
+	/**
+	 * saves everything from the last snapshot
+	 * 
+	 * @param w the world
+	 * @param t the targets
+	 * 
+	 * @throws Exception if an error occurs
+	 */
+	@Benchmark
+	public void saveEverything(BenchWorld w, Targets t) throws Exception {
+		w.world.saveEverything(t.nullConn);
+	}
+	
+}
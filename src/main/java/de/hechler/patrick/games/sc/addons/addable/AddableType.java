@@ -57,6 +57,19 @@ public abstract sealed class AddableType<M extends AddableType<M, A>, A extends
 	
 	public abstract A withRandomValues(World w, ACORNRandom r, int x, int y);
 	
+	/**
+	 * returns <code>true</code> if the things of this type may override {@link WorldThing#nextTurnNotify(int)}.
+	 * <p>
+	 * only things of types which return <code>true</code> are notified after a turn. the default implementation returns <code>true</code>, so existing
+	 * types are still notified, types whose things do not override {@link WorldThing#nextTurnNotify(int)} should return <code>false</code>, so the
+	 * world does not have to visit their tiles after every turn
+	 * 
+	 * @return <code>true</code> if the things of this type need to be notified after each turn
+	 */
+	public boolean needsNextTurnNotify() {
+		return true;
+	}
+	
 	public ValueSpec spec(String name) {
 		ValueSpec spec = this.values.get(name);
 		if (spec == null) {
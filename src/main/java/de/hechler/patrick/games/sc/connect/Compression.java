@@ -0,0 +1,188 @@
+// This file is part of the Square Conquerer Project
+// DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+// Copyright (C) 2023 Patrick Hechler
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Affero General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Affero General Public License for more details.
+//
+// You should have received a copy of the GNU Affero General Public License
+// along with this program. If not, see <https://www.gnu.org/licenses/>.
+package de.hechler.patrick.games.sc.connect;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import de.hechler.patrick.games.sc.addons.Addon;
+import de.hechler.patrick.games.sc.addons.Addons;
+import de.hechler.patrick.games.sc.addons.addable.AddableType;
+
+/**
+ * the optional compression of a {@link Connection}, which is placed between the connection and its cipher streams.
+ * <p>
+ * the data is compressed with raw deflate. remote connections use a preset dictionary, which contains the names of all types and values of the
+ * loaded {@link Addons}. since both sides need the same dictionary, its {@link #dictionaryId(byte[]) id} is exchanged during the handshake and the
+ * dictionary is only used if both ids are equal
+ * 
+ * @author Patrick Hechler
+ */
+final class Compression {
+	
+	private static final int MAX_DICT_LEN = 32 * 1024;
+	private static final int BUF_LEN      = 4096;
+	
+	private Compression() {}
+	
+	/**
+	 * returns the preset dictionary, which is build from the names of all types and values of the loaded {@link Addons}
+	 * 
+	 * @return the preset dictionary
+	 */
+	static byte[] dictionary() {
+		NavigableSet<String> names = new TreeSet<>();
+		for (Addon a : Addons.addons().values()) {
+			for (AddableType<?, ?> type : a.add.values()) {
+				names.add(type.name);
+				names.addAll(type.values.keySet());
+			}
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (String name : names) {
+			out.writeBytes(name.getBytes(StandardCharsets.UTF_8));
+		}
+		byte[] dict = out.toByteArray();
+		// deflate only uses the last 32 KiB
+		return dict.length <= MAX_DICT_LEN ? dict : Arrays.copyOfRange(dict, dict.length - MAX_DICT_LEN, dict.length);
+	}
+	
+	/**
+	 * returns the id of the given dictionary
+	 * 
+	 * @param dict the dictionary
+	 * 
+	 * @return the id of the given dictionary
+	 */
+	static int dictionaryId(byte[] dict) {
+		CRC32 crc = new CRC32();
+		crc.update(dict);
+		return (int) crc.getValue();
+	}
+	
+	/**
+	 * creates a compressing stream
+	 * 
+	 * @param out  the stream which receives the compressed data
+	 * @param dict the preset dictionary or <code>null</code>
+	 * 
+	 * @return the compressing stream
+	 */
+	static CompressOutputStream compress(OutputStream out, byte[] dict) {
+		Deflater def = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		if (dict != null) def.setDictionary(dict);
+		return new CompressOutputStream(out, def);
+	}
+	
+	/**
+	 * creates a decompressing stream
+	 * 
+	 * @param in    the stream which provides the compressed data
+	 * @param dict  the preset dictionary or <code>null</code>
+	 * @param flush the stream which is flushed before data is read or <code>null</code>
+	 * 
+	 * @return the decompressing stream
+	 */
+	static InputStream decompress(InputStream in, byte[] dict, CompressOutputStream flush) {
+		Inflater inf = new Inflater(true);
+		if (dict != null) inf.setDictionary(dict);
+		return new DecompressInputStream(in, inf, flush);
+	}
+	
+	/**
+	 * a compressing stream, which only does a sync flush if something was written since the last flush
+	 * 
+	 * @author Patrick Hechler
+	 */
+	static final class CompressOutputStream extends DeflaterOutputStream {
+		
+		private boolean dirty;
+		
+		private CompressOutputStream(OutputStream out, Deflater def) {
+			super(out, def, BUF_LEN, true);
+		}
+		
+		/** {@inheritDoc} */
+		@Override
+		public synchronized void write(byte[] b, int off, int len) throws IOException {
+			this.dirty = true;
+			super.write(b, off, len);
+		}
+		
+		/** {@inheritDoc} */
+		@Override
+		public synchronized void flush() throws IOException {
+			if (!this.dirty) return;
+			this.dirty = false;
+			super.flush();
+		}
+		
+		/** {@inheritDoc} */
+		@Override
+		public synchronized void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				this.def.end();
+			}
+		}
+		
+	}
+	
+	/*
+	 * all pending output is flushed before reading, because the other side may need it before it answers
+	 */
+	private static final class DecompressInputStream extends InflaterInputStream {
+		
+		private final CompressOutputStream flush;
+		
+		private DecompressInputStream(InputStream in, Inflater inf, CompressOutputStream flush) {
+			super(in, inf, BUF_LEN);
+			this.flush = flush;
+		}
+		
+		/** {@inheritDoc} */
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (this.flush != null) this.flush.flush();
+			return super.read(b, off, len);
+		}
+		
+		/** {@inheritDoc} */
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				this.inf.end();
+			}
+		}
+		
+	}
+	
+}
@@ -31,6 +31,7 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.CharBuffer;
 import java.nio.channels.ClosedByInterruptException;
 import java.nio.charset.StandardCharsets;
@@ -45,6 +46,7 @@ import java.util.function.IntFunction;
 import javax.crypto.CipherInputStream;
 import javax.crypto.CipherOutputStream;
 
+import de.hechler.patrick.games.sc.connect.Compression.CompressOutputStream;
 import de.hechler.patrick.games.sc.ui.players.User;
 import de.hechler.patrick.games.sc.world.CompleteWorld;
 import de.hechler.patrick.games.sc.world.OpenWorld;
@@ -148,6 +150,26 @@ public class Connection implements WrongInputHandler, Closeable {
 	 */
 	public static final int CON_LOG_OUT = 0x50DDC7F1;
 	
+	/**
+	 * the name of the system property, which can be set to <code>false</code> to disable the compression of new connections and saves
+	 * <p>
+	 * without compression a client can also connect to servers, which do not support compression and saves can also be read by older versions
+	 * 
+	 * @see #defaultCompress()
+	 */
+	public static final String COMPRESS_PROPERTY = "squareconquerer.connect.compress";
+	
+	/**
+	 * returns <code>false</code> if the {@link #COMPRESS_PROPERTY} is set to <code>false</code> and <code>true</code> otherwise
+	 * <p>
+	 * this value is used by all methods, which do not explicitly get told if they should compress the data
+	 * 
+	 * @return <code>true</code> if new connections and saves are compressed by default
+	 */
+	public static boolean defaultCompress() {
+		return !"false".equalsIgnoreCase(System.getProperty(COMPRESS_PROPERTY));
+	}
+	
 	/**
 	 * the user which belongs to this connection
 	 */
@@ -156,24 +178,49 @@ public class Connection implements WrongInputHandler, Closeable {
 	private final OutputStream         out;
 	private final IntConsumer          setTimeout;
 	private final int                  modCnt;
+	private final boolean              compressed;
+	private final Thread               hook;
+	private final boolean              buffered;
+	private final ByteBuffer           wbuf;
+	private final ByteBuffer           rbuf;
 	private volatile boolean           closed;
 	private volatile WrongInputHandler wih;
 	private World                      world;
 	
+	/**
+	 * the size of the read and write buffers of {@link #buffered() buffered} connections
+	 */
+	public static final int BUFFER_LEN = 1 << 13;
+	
 	private Connection(User usr, InputStream in, OutputStream out, IntConsumer setTimeout, int modCnt, World world) {
+		this(usr, in, out, setTimeout, modCnt, world, false, true);
+	}
+	
+	private Connection(User usr, InputStream in, OutputStream out, IntConsumer setTimeout, int modCnt, World world, boolean compressed) {
+		this(usr, in, out, setTimeout, modCnt, world, compressed, true);
+	}
+	
+	private Connection(User usr, InputStream in, OutputStream out, IntConsumer setTimeout, int modCnt, World world, boolean compressed,
+		boolean buffered) {
 		this.usr        = usr;
 		this.in         = in;
 		this.out        = out;
 		this.setTimeout = setTimeout;
 		this.modCnt     = modCnt;
+		this.compressed = compressed;
+		this.buffered   = buffered;
+		// unbuffered connections only use the buffers for the primitive values, so nothing is allocated for them
+		this.wbuf       = ByteBuffer.allocate(buffered ? BUFFER_LEN : 16).order(ByteOrder.LITTLE_ENDIAN);
+		this.rbuf       = ByteBuffer.allocate(buffered ? BUFFER_LEN : 16).order(ByteOrder.LITTLE_ENDIAN).flip();
 		this.world      = world;
-		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+		this.hook       = new Thread(() -> {
 			try {
 				close();
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
-		}));
+		});
+		Runtime.getRuntime().addShutdownHook(this.hook);
 	}
 	
 	/**
@@ -295,7 +342,7 @@ public class Connection implements WrongInputHandler, Closeable {
 		if (usr == null) throw new NullPointerException("usr");
 		if (in == null) throw new NullPointerException("input stream");
 		if (out == null) throw new NullPointerException("output stream");
-		return new Connection(usr, in, out, setTimeout, usr.modifyCount(), world);
+		return new Connection(usr, in, out, setTimeout, usr.modifyCount(), world, false, false);
 	}
 	
 	/**
@@ -331,7 +378,9 @@ public class Connection implements WrongInputHandler, Closeable {
 					cin = usr.decrypt(in, salt, initVec);
 					mc  = usr.modifyCount();
 				}
-				readInt(DEFAULT_WRONG_INPUT, cin, ClientConnect.FS_CONECT);
+				if (readInt(DEFAULT_WRONG_INPUT, cin, ClientConnect.FS_CONECT, ClientConnect.FS_CONECT_Z) == ClientConnect.FS_CONECT_Z) {
+					return new Connection(usr, Compression.decompress(cin, null, null), InvalidOutputStream.INSTANCE, null, mc, world, true);
+				}
 				return new Connection(usr, cin, InvalidOutputStream.INSTANCE, null, mc, world);
 			} catch (Throwable t) {
 				if (cin != null) {
@@ -343,6 +392,9 @@ public class Connection implements WrongInputHandler, Closeable {
 		
 		/**
 		 * creates a write only connection from the given stream
+		 * <p>
+		 * this method is like <code>{@link #acceptWriteOnly(OutputStream, User, World, boolean) acceptWriteOnly}(out, usr, world,
+		 * {@link Connection#defaultCompress() defaultCompress()})</code>
 		 * 
 		 * @param out   the output stream
 		 * @param usr   the user
@@ -353,6 +405,25 @@ public class Connection implements WrongInputHandler, Closeable {
 		 * @throws IOException if an IO error occurs
 		 */
 		public static Connection acceptWriteOnly(OutputStream out, User usr, World world) throws IOException {
+			return acceptWriteOnly(out, usr, world, defaultCompress());
+		}
+		
+		/**
+		 * creates a write only connection from the given stream
+		 * <p>
+		 * if <code>compress</code> is <code>true</code> the header of the stream is flagged and the data is compressed, {@link #acceptReadOnly(InputStream,
+		 * User, World)} accepts both variants
+		 * 
+		 * @param out      the output stream
+		 * @param usr      the user
+		 * @param world    the {@link #world()} of the connection
+		 * @param compress if the data should be compressed
+		 * 
+		 * @return the write only connection
+		 * 
+		 * @throws IOException if an IO error occurs
+		 */
+		public static Connection acceptWriteOnly(OutputStream out, User usr, World world, boolean compress) throws IOException {
 			writeInt(out, ClientConnect.S_CONECT);
 			byte[] salt = new byte[64];
 			User.fillRandom(salt);
@@ -367,6 +438,10 @@ public class Connection implements WrongInputHandler, Closeable {
 					cout = usr.encrypt(out, salt, initVec);
 					mc   = usr.modifyCount();
 				}
+				if (compress) {
+					writeInt(cout, ClientConnect.FS_CONECT_Z);
+					return new Connection(usr, InvalidInputStream.INSTANCE, Compression.compress(cout, null), null, mc, world, true);
+				}
 				writeInt(cout, ClientConnect.FS_CONECT);
 				return new Connection(usr, InvalidInputStream.INSTANCE, cout, null, mc, world);
 			} catch (Throwable t) {
@@ -541,8 +616,7 @@ public class Connection implements WrongInputHandler, Closeable {
 					mc   = usr.modifyCount();
 				}
 				writeInt(cout, ClientConnect.FS_CONECT);
-				readInt(DEFAULT_WRONG_INPUT, cin, ClientConnect.FC_CONECT);
-				return new Connection(usr, cin, cout, setTimeout, mc, null);
+				return acceptCompression(usr, cin, cout, setTimeout, mc);
 			} catch (Throwable t) {
 				if (cin != null) {
 					cin.close();
@@ -609,8 +683,7 @@ public class Connection implements WrongInputHandler, Closeable {
 				String name = readString(DEFAULT_WRONG_INPUT, cin);
 				User   usr  = root.addUser(name, pw);
 				writeInt(cout, ClientConnect.FS_CONECT);
-				readInt(DEFAULT_WRONG_INPUT, cin, ClientConnect.FC_CONECT);
-				return new Connection(usr, cin, cout, setTimeout, 0, null);
+				return acceptCompression(usr, cin, cout, setTimeout, 0);
 			} catch (Throwable t) {
 				cin.close();
 				cout.close();
@@ -649,6 +722,22 @@ public class Connection implements WrongInputHandler, Closeable {
 		private static final int FS_CONECT = 0x7549D188;
 		private static final int FC_CONECT = 0x23698F96;
 		
+		/**
+		 * <ol>
+		 * <li>Server: {@link #FS_CONECT}</li>
+		 * <li>Client: {@link #FC_CONECT_Z}</li>
+		 * <li>Client: the {@link Compression#dictionaryId(byte[]) id} of its compression dictionary</li>
+		 * <li>Server: {@link #FS_COMPRESS}</li>
+		 * <li>Server: <code>1</code> if the dictionary is used and <code>0</code> if not</li>
+		 * <li>Both: compress connection</li>
+		 * </ol>
+		 * a client which does not want compression sends {@link #FC_CONECT} instead.<br>
+		 * saves flag the compression by using {@link #FS_CONECT_Z} instead of {@link #FS_CONECT} (saves never use the dictionary)
+		 */
+		private static final int FC_CONECT_Z = 0x1D6E80B5;
+		private static final int FS_COMPRESS = 0x64A2F0C3;
+		private static final int FS_CONECT_Z = 0x52B7C91E;
+		
 		/**
 		 * <ol>
 		 * <li>Client: {@link #C_NEW}</li>
@@ -748,6 +837,27 @@ public class Connection implements WrongInputHandler, Closeable {
 		 * @throws IOException if an IO error occurs
 		 */
 		public static Connection connectNew(InputStream in, OutputStream out, IntConsumer setTimeout, User usr, char[] serverPW) throws IOException {
+			return connectNew(in, out, setTimeout, usr, serverPW, defaultCompress());
+		}
+		
+		/**
+		 * connects to a remote connection with the given streams and creates a new remote user
+		 * <p>
+		 * if <code>compress</code> is <code>false</code> the connection is not compressed, this also works with servers, which do not support compression
+		 * 
+		 * @param in         the input stream
+		 * @param out        the output stream
+		 * @param setTimeout the {@link Connection#setTimeout(int) setTimeout} method
+		 * @param usr        the user to create
+		 * @param serverPW   the server password
+		 * @param compress   if the connection should be compressed
+		 * 
+		 * @return the opened connection
+		 * 
+		 * @throws IOException if an IO error occurs
+		 */
+		public static Connection connectNew(InputStream in, OutputStream out, IntConsumer setTimeout, User usr, char[] serverPW, boolean compress)
+			throws IOException {
 			if (serverPW == null) throw new NullPointerException("server password");
 			writeInt(out, C_NEW);
 			readInt(DEFAULT_WRONG_INPUT, in, S_NEW);
@@ -818,8 +928,7 @@ public class Connection implements WrongInputHandler, Closeable {
 				writeInt(cout, SUB_NEW);
 				writeString(cout, usr.name());
 				readInt(DEFAULT_WRONG_INPUT, cin, FS_CONECT);
-				writeInt(cout, FC_CONECT);
-				Connection conn = new Connection(usr, cin, cout, setTimeout, mc, null);
+				Connection conn = offerCompression(usr, cin, cout, setTimeout, mc, compress);
 				conn.initWorld(new RemoteWorld(conn));
 				return conn;
 			} catch (Throwable t) {
@@ -896,6 +1005,25 @@ public class Connection implements WrongInputHandler, Closeable {
 		 * @throws IOException if an IO error occurs
 		 */
 		public static Connection connect(InputStream in, OutputStream out, IntConsumer setTimeout, User usr) throws IOException {
+			return connect(in, out, setTimeout, usr, defaultCompress());
+		}
+		
+		/**
+		 * connects to a remote connection with the streams and remote user
+		 * <p>
+		 * if <code>compress</code> is <code>false</code> the connection is not compressed, this also works with servers, which do not support compression
+		 * 
+		 * @param in         the input stream
+		 * @param out        the output stream
+		 * @param setTimeout the {@link Connection#setTimeout(int) setTimeout} method
+		 * @param usr        the user
+		 * @param compress   if the connection should be compressed
+		 * 
+		 * @return the opened connection
+		 * 
+		 * @throws IOException if an IO error occurs
+		 */
+		public static Connection connect(InputStream in, OutputStream out, IntConsumer setTimeout, User usr, boolean compress) throws IOException {
 			writeInt(out, C_CONECT);
 			readInt(DEFAULT_WRONG_INPUT, in, S_CONECT);
 			byte[] salt     = new byte[64];
@@ -925,8 +1053,7 @@ public class Connection implements WrongInputHandler, Closeable {
 					mc   = usr.modifyCount();
 				}
 				readInt(DEFAULT_WRONG_INPUT, cin, FS_CONECT);
-				writeInt(cout, FC_CONECT);
-				Connection conn = new Connection(usr, cin, cout, setTimeout, mc, null);
+				Connection conn = offerCompression(usr, cin, cout, setTimeout, mc, compress);
 				conn.initWorld(new RemoteWorld(conn));
 				return conn;
 			} catch (Throwable t) {
@@ -942,6 +1069,144 @@ public class Connection implements WrongInputHandler, Closeable {
 		
 	}
 	
+	/*
+	 * the client decides if the connection is compressed, the server only decides if the dictionary can be used
+	 */
+	private static Connection acceptCompression(User usr, InputStream cin, OutputStream cout, IntConsumer setTimeout, int mc) throws IOException {
+		if (readInt(DEFAULT_WRONG_INPUT, cin, ClientConnect.FC_CONECT, ClientConnect.FC_CONECT_Z) == ClientConnect.FC_CONECT) {
+			return new Connection(usr, cin, cout, setTimeout, mc, null);
+		}
+		byte[]  dict    = Compression.dictionary();
+		boolean useDict = readInt(DEFAULT_WRONG_INPUT, cin) == Compression.dictionaryId(dict);
+		writeInt(cout, ClientConnect.FS_COMPRESS);
+		cout.write(useDict ? 1 : 0);
+		return compressed(usr, cin, cout, setTimeout, mc, useDict ? dict : null);
+	}
+	
+	/*
+	 * a client which does not compress sends the same value as clients, which do not support compression
+	 */
+	private static Connection offerCompression(User usr, InputStream cin, OutputStream cout, IntConsumer setTimeout, int mc, boolean compress)
+		throws IOException {
+		if (!compress) {
+			writeInt(cout, ClientConnect.FC_CONECT);
+			return new Connection(usr, cin, cout, setTimeout, mc, null);
+		}
+		byte[] dict = Compression.dictionary();
+		writeInt(cout, ClientConnect.FC_CONECT_Z);
+		writeInt(cout, Compression.dictionaryId(dict));
+		readInt(DEFAULT_WRONG_INPUT, cin, ClientConnect.FS_COMPRESS);
+		boolean useDict = readByte(DEFAULT_WRONG_INPUT, cin) != 0;
+		return compressed(usr, cin, cout, setTimeout, mc, useDict ? dict : null);
+	}
+	
+	private static Connection compressed(User usr, InputStream cin, OutputStream cout, IntConsumer setTimeout, int mc, byte[] dict) {
+		CompressOutputStream zout = Compression.compress(cout, dict);
+		return new Connection(usr, Compression.decompress(cin, dict, zout), zout, setTimeout, mc, null, true);
+	}
+	
+	/**
+	 * returns <code>true</code> if the data of this connection is compressed
+	 * 
+	 * @return <code>true</code> if the data of this connection is compressed
+	 */
+	public boolean compressed() {
+		return this.compressed;
+	}
+	
+	/**
+	 * returns <code>true</code> if this connection buffers the data
+	 * <p>
+	 * all connections except for the {@link #createUnsecure(User, InputStream, OutputStream, IntConsumer, World) unsecure} connections buffer the data,
+	 * so the primitive values are not passed one by one to the cipher and the socket.<br>
+	 * a buffered connection may read more data from its stream than requested
+	 * 
+	 * @return <code>true</code> if this connection buffers the data
+	 */
+	public boolean buffered() {
+		return this.buffered;
+	}
+	
+	/**
+	 * flushes the written data, this is only needed for {@link #buffered() buffered} and {@link #compressed() compressed} connections
+	 * <p>
+	 * this is done automatically before data is read and at the end of {@link #blocked(int, Executable, Executable) blocked} code, so the
+	 * {@link OpenWorld#STOP_BLOCK} of a block is always flushed
+	 * 
+	 * @throws IOException if an IO error occurs
+	 */
+	public void flush() throws IOException {
+		drain();
+		if (this.buffered || this.compressed) this.out.flush();
+	}
+	
+	/* writes the buffered data to the stream */
+	private void drain() throws IOException {
+		ByteBuffer b = this.wbuf;
+		if (b.position() == 0) return;
+		this.out.write(b.array(), 0, b.position());
+		b.clear();
+	}
+	
+	/* returns the write buffer with at least len free bytes */
+	private ByteBuffer wbuf(int len) throws IOException {
+		ByteBuffer b = this.wbuf;
+		if (b.remaining() < len) drain();
+		return b;
+	}
+	
+	/*
+	 * flushes the written data before this thread blocks on a read
+	 * a reader thread of a multiplexed connection does not own the block, so it waits until the writing thread leaves its block
+	 */
+	private void flushPending() throws IOException {
+		if (this.wbuf.position() == 0) return;
+		synchronized (this) {
+			flush();
+		}
+	}
+	
+	/* unbuffered connections write the primitive values directly */
+	private void written() throws IOException {
+		if (!this.buffered) drain();
+	}
+	
+	/*
+	 * returns the read buffer with at least len remaining bytes or null on EOF (the read bytes stay in the buffer)
+	 * the written data is flushed before blocking, because the other side may wait for it
+	 */
+	private ByteBuffer rbuf(int len) throws IOException {
+		ByteBuffer b = this.rbuf;
+		if (b.remaining() >= len) return b;
+		flushPending();
+		b.compact();
+		try {
+			int max = this.buffered ? b.capacity() : len;
+			while (b.position() < len) {
+				int r = this.in.read(b.array(), b.position(), max - b.position());
+				if (r == -1) return null;
+				b.position(b.position() + r);
+			}
+			return b;
+		} finally {
+			b.flip();
+		}
+	}
+	
+	/* returns the read buffer with at least len remaining bytes */
+	private ByteBuffer rbufEOF(int len) throws IOException {
+		ByteBuffer b = rbuf(len);
+		if (b != null) return b;
+		wrongInputEOF(len, len - this.rbuf.remaining());
+		throw new AssertionError("eof handler returned normally!");
+	}
+	
+	/* reads a byte or -1 on EOF */
+	private int read() throws IOException {
+		ByteBuffer b = rbuf(1);
+		return b == null ? -1 : 0xFF & b.get();
+	}
+	
 	/**
 	 * replaces the {@link WrongInputHandler} of this connection
 	 * <p>
@@ -1145,6 +1410,7 @@ public class Connection implements WrongInputHandler, Closeable {
 			setTimeout(timeout);
 			try {
 				exec.execute();
+				if (this.buffered || this.compressed) flushBlocked();
 			} catch (Throwable t) {
 				if (!(t instanceof SocketTimeoutException)) throw t;
 				timeoutHandler.execute();
@@ -1152,6 +1418,15 @@ public class Connection implements WrongInputHandler, Closeable {
 		}
 	}
 	
+	/* the exec can not throw an IOException, so an error is used */
+	private void flushBlocked() {
+		try {
+			flush();
+		} catch (IOException e) {
+			throw new IOError(e);
+		}
+	}
+	
 	/**
 	 * returns the modify count of the user when this connection was created
 	 * 
@@ -1184,7 +1459,7 @@ public class Connection implements WrongInputHandler, Closeable {
 	 * @throws IOException if an IO error occurs
 	 */
 	public int readInt() throws IOException {
-		return readInt(this, this.in);
+		return rbufEOF(4).getInt();
 	}
 	
 	/**
@@ -1195,7 +1470,9 @@ public class Connection implements WrongInputHandler, Closeable {
 	 * @throws IOException if an IO-error occurs
 	 */
 	public int readPos() throws IOException {
-		return readPos(this, this.in);
+		int val = readInt();
+		if (val >= 0) return val;
+		return wrongInputPositive(val, false);
 	}
 	
 	/**
@@ -1206,7 +1483,9 @@ public class Connection implements WrongInputHandler, Closeable {
 	 * @throws IOException if an IO-error occurs
 	 */
 	public int readStrictPos() throws IOException {
-		return readStrictPos(this, this.in);
+		int val = readInt();
+		if (val > 0) return val;
+		return wrongInputPositive(val, true);
 	}
 	
 	/**
@@ -1217,7 +1496,7 @@ public class Connection implements WrongInputHandler, Closeable {
 	 * @throws IOException if an IO error occurs
 	 */
 	public int readByte() throws IOException {
-		return readByte(this, this.in);
+		return 0xFF & rbufEOF(1).get();
 	}
 	
 	/**
@@ -1233,7 +1512,10 @@ public class Connection implements WrongInputHandler, Closeable {
 	 * @throws IOException if an IO error occurs
 	 */
 	public int readByte(int a, int b) throws IOException {
-		return readByte(this, this.in, a, b);
+		int val = read();
+		if (val == a || val == b) return val;
+		if (val == -1) wrongInputEOF(1, 1);
+		return wrongInputByte(val, a, b);
 	}
 	
 	/**
@@ -1251,7 +1533,10 @@ public class Connection implements WrongInputHandler, Closeable {
 	 * @throws IOException if an IO error occurs
 	 */
 	public int readByte(int a, int b, int c, int d) throws IOException {
-		return readByte(this, this.in, a, b, c, d);
+		int val = read();
+		if (val == a || val == b || val == c || val == d) return val;
+		if (val == -1) wrongInputEOF(1, 1);
+		return wrongInputByte(val, new int[] { a, b, c, d });
 	}
 	
 	/**
@@ -1265,7 +1550,8 @@ public class Connection implements WrongInputHandler, Closeable {
 	 * @throws IOException if an IO error occurs
 	 */
 	public long readInt0() throws IOException {
-		return readInt0(this, this.in);
+		if (rbuf(1) == null) return -1L;
+		return Integer.toUnsignedLong(rbufEOF(4).getInt());
 	}
 	
 	/**
@@ -1281,7 +1567,16 @@ public class Connection implements WrongInputHandler, Closeable {
 	 * @throws IOException if an IO error occurs
 	 */
 	public String readString() throws IOException {
-		return readString(this, this.in);
+		int len = readPos();
+		if (len <= this.rbuf.capacity()) {
+			ByteBuffer b   = rbufEOF(len);
+			String     str = new String(b.array(), b.position(), len, StandardCharsets.UTF_8);
+			b.position(b.position() + len);
+			return str;
+		}
+		byte[] arr = new byte[len];
+		readArr(arr);
+		return new String(arr, StandardCharsets.UTF_8);
 	}
 	
 	/**
@@ -1292,7 +1587,7 @@ public class Connection implements WrongInputHandler, Closeable {
 	 * @throws IOException if an IO error occurs
 	 */
 	public long readLong() throws IOException {
-		return readLong(this, this.in);
+		return rbufEOF(8).getLong();
 	}
 	
 	/**
@@ -1303,8 +1598,9 @@ public class Connection implements WrongInputHandler, Closeable {
 	 * @throws IOException if an IO error occurs
 	 */
 	public UUID readUUID() throws IOException {
-		long low  = readLong(this, this.in);
-		long high = readLong(this, this.in);
+		ByteBuffer b    = rbufEOF(16);
+		long       low  = b.getLong();
+		long       high = b.getLong();
 		return new UUID(high, low);
 	}
 	
@@ -1316,7 +1612,9 @@ public class Connection implements WrongInputHandler, Closeable {
 	 * @throws IOException if an IO error occurs
 	 */
 	public void readInt(int val) throws IOException {
-		readInt(this, this.in, val);
+		int reat = readInt();
+		if (reat == val) return;
+		wrongInputInt(reat, val);
 	}
 	
 	/**
@@ -1330,7 +1628,9 @@ public class Connection implements WrongInputHandler, Closeable {
 	 * @throws IOException if an IO error occurs
 	 */
 	public int readInt(int a, int b) throws IOException {
-		return readInt(this, this.in, a, b);
+		int reat = readInt();
+		if (reat == a || reat == b) return reat;
+		return wrongInputInt(reat, a, b);
 	}
 	
 	/**
@@ -1343,7 +1643,7 @@ public class Connection implements WrongInputHandler, Closeable {
 	 * @throws IOException if an IO error occurs
 	 */
 	public int readInt(int... vals) throws IOException {
-		int reat = readInt(this, this.in);
+		int reat = readInt();
 		for (int val : vals) {
 			if (reat == val) { return val; }
 		}
@@ -1362,7 +1662,7 @@ public class Connection implements WrongInputHandler, Closeable {
 	 * @throws IOException if an IO error occurs
 	 */
 	public int readInt(IntFunction<String> msg, int a, int b) throws IOException {
-		int reat = readInt(this, this.in);
+		int reat = readInt();
 		if (a == reat || b == reat) return reat;
 		return wrongInputInt(reat, new int[] { a, b }, msg);
 	}
@@ -1378,7 +1678,7 @@ public class Connection implements WrongInputHandler, Closeable {
 	 * @throws IOException if an IO error occurs
 	 */
 	public int readInt(IntFunction<String> msg, int... vals) throws IOException {
-		int reat = readInt(this, this.in);
+		int reat = readInt();
 		for (int val : vals) {
 			if (reat == val) return val;
 		}
@@ -1435,11 +1735,11 @@ public class Connection implements WrongInputHandler, Closeable {
 		Module mod = cls.getModule();
 		if (mod.isNamed()) {
 			writeInt(CLS_NAMED);
-			writeString(this.out, mod.getName());
+			writeString(mod.getName());
 		} else {
 			writeInt(CLS_UNNAMED);
 		}
-		writeString(this.out, cls.getName());
+		writeString(cls.getName());
 	}
 	
 	/**
@@ -1450,7 +1750,21 @@ public class Connection implements WrongInputHandler, Closeable {
 	 * @throws IOException if an IO error occurs
 	 */
 	public void readArr(byte[] arr) throws IOException {
-		readArr(this, this.in, arr);
+		ByteBuffer b   = this.rbuf;
+		int        off = Math.min(arr.length, b.remaining());
+		b.get(arr, 0, off);
+		if (off == arr.length) return;
+		if (arr.length - off < b.capacity() >>> 1) {
+			b = rbufEOF(arr.length - off);
+			b.get(arr, off, arr.length - off);
+			return;
+		}
+		flushPending();
+		while (off < arr.length) { // large arrays are read directly
+			int r = this.in.read(arr, off, arr.length - off);
+			if (r == -1) wrongInputEOF(arr.length, arr.length - off);
+			off += r;
+		}
 	}
 	
 	/**
@@ -1461,7 +1775,8 @@ public class Connection implements WrongInputHandler, Closeable {
 	 * @throws IOException if an IO error occurs
 	 */
 	public void writeInt(int val) throws IOException {
-		writeInt(this.out, val);
+		wbuf(4).putInt(val);
+		written();
 	}
 	
 	/**
@@ -1472,7 +1787,8 @@ public class Connection implements WrongInputHandler, Closeable {
 	 * @throws IOException if an IO error occurs
 	 */
 	public void writeLong(long val) throws IOException {
-		writeLong(this.out, val);
+		wbuf(8).putLong(val);
+		written();
 	}
 	
 	/**
@@ -1483,8 +1799,8 @@ public class Connection implements WrongInputHandler, Closeable {
 	 * @throws IOException if an IO error occurs
 	 */
 	public void writeUUID(UUID val) throws IOException {
-		writeLong(this.out, val.getLeastSignificantBits());
-		writeLong(this.out, val.getMostSignificantBits());
+		wbuf(16).putLong(val.getLeastSignificantBits()).putLong(val.getMostSignificantBits());
+		written();
 	}
 	
 	/**
@@ -1496,7 +1812,8 @@ public class Connection implements WrongInputHandler, Closeable {
 	 */
 	public void writeByte(int val) throws IOException {
 		if ((val & 0xFF) != val) throw new IllegalArgumentException(String.format("value out of the byte bounds %X", Integer.valueOf(val)));
-		this.out.write(val);
+		wbuf(1).put((byte) val);
+		written();
 	}
 	
 	/**
@@ -1513,7 +1830,9 @@ public class Connection implements WrongInputHandler, Closeable {
 	 * @see #readString()
 	 */
 	public void writeString(String str) throws IOException {
-		writeString(this.out, str);
+		byte[] arr = str.getBytes(StandardCharsets.UTF_8);
+		writeInt(arr.length);
+		writeArr(arr, 0, arr.length);
 	}
 	
 	/**
@@ -1524,7 +1843,7 @@ public class Connection implements WrongInputHandler, Closeable {
 	 * @throws IOException if an IO error occurs
 	 */
 	public void writeArr(byte[] arr) throws IOException {
-		this.out.write(arr);
+		writeArr(arr, 0, arr.length);
 	}
 	
 	/**
@@ -1537,6 +1856,12 @@ public class Connection implements WrongInputHandler, Closeable {
 	 * @throws IOException if an IO error occurs
 	 */
 	public void writeArr(byte[] arr, int off, int len) throws IOException {
+		ByteBuffer b = this.wbuf;
+		if (this.buffered && len < b.capacity() >>> 1) {
+			wbuf(len).put(arr, off, len);
+			return;
+		}
+		drain(); // large arrays are written directly
 		this.out.write(arr, off, len);
 	}
 	
@@ -1563,10 +1888,19 @@ public class Connection implements WrongInputHandler, Closeable {
 	public void close() throws IOException {
 		if (this.closed) return;
 		this.closed = true;
+		if (Thread.currentThread() != this.hook) {
+			try { // short lived connections (like saves) should not accumulate hooks
+				Runtime.getRuntime().removeShutdownHook(this.hook);
+			} catch (IllegalStateException e) {/* the shutdown is already in progress */}
+		}
 		try {
-			this.in.close();
+			drain();
 		} finally {
-			this.out.close();
+			try {
+				this.in.close();
+			} finally {
+				this.out.close();
+			}
 		}
 	}
 	
@@ -1589,11 +1923,6 @@ public class Connection implements WrongInputHandler, Closeable {
 		out.write(new byte[] { (byte) value, (byte) (value >>> 8), (byte) (value >>> 16), (byte) (value >>> 24) });
 	}
 	
-	private static void writeLong(OutputStream out, long value) throws IOException {
-		out.write(new byte[] { (byte) value, (byte) (value >>> 8), (byte) (value >>> 16), (byte) (value >>> 24), (byte) (value >>> 32), (byte) (value >>> 40),
-			(byte) (value >>> 48), (byte) (value >>> 56) });
-	}
-	
 	private static int readByte(WrongInputHandler wih, InputStream in) throws IOException {
 		int val = in.read();
 		if (val != -1) return val;
@@ -1601,34 +1930,6 @@ public class Connection implements WrongInputHandler, Closeable {
 		throw new AssertionError("eof handler returned normally!");
 	}
 	
-	private static int readByte(WrongInputHandler wih, InputStream in, int a, int b) throws IOException {
-		int val = in.read();
-		if (val == a || val == b) return val;
-		if (val == -1) wih.wrongInputEOF(1, 1);
-		return wih.wrongInputByte(val, a, b);
-	}
-	
-	private static int readByte(WrongInputHandler wih, InputStream in, int a, int b, int c, int d) throws IOException {
-		int val = in.read();
-		if (val == a || val == b || val == c || val == d) return val;
-		if (val == -1) wih.wrongInputEOF(1, 1);
-		return wih.wrongInputByte(val, new int[] { a, b, c, d });
-	}
-	
-	private static long readLong(WrongInputHandler wih, InputStream in) throws IOException {
-		byte[] arr = new byte[8];
-		readArr(wih, in, arr);
-		long val = 0xFFL & arr[0];
-		val |= (0xFFL & arr[1]) << 8;
-		val |= (0xFFL & arr[2]) << 16;
-		val |= (0xFFL & arr[3]) << 24;
-		val |= (0xFFL & arr[4]) << 32;
-		val |= (0xFFL & arr[5]) << 40;
-		val |= (0xFFL & arr[6]) << 48;
-		val |= (0xFFL & arr[7]) << 56;
-		return val;
-	}
-	
 	private static int readInt(WrongInputHandler wih, InputStream in) throws IOException {
 		byte[] arr = new byte[4];
 		readArr(wih, in, arr);
@@ -1639,18 +1940,6 @@ public class Connection implements WrongInputHandler, Closeable {
 		return val;
 	}
 	
-	@SuppressWarnings("cast")
-	private static long readInt0(WrongInputHandler wih, InputStream in) throws IOException {
-		int val = in.read();
-		if (val == -1) return -1L;
-		byte[] arr = new byte[3];
-		readArr(wih, in, arr);
-		val |= (0xFF & arr[0]) << 8;
-		val |= (0xFF & arr[1]) << 16;
-		val |= (0xFF & arr[2]) << 24;
-		return (long) val;
-	}
-	
 	private static void readArr(WrongInputHandler wih, InputStream in, byte[] arr) throws IOException {
 		int i = 0;
 		while (i < arr.length) {
@@ -1673,12 +1962,6 @@ public class Connection implements WrongInputHandler, Closeable {
 		return wih.wrongInputPositive(val, false);
 	}
 	
-	private static int readStrictPos(WrongInputHandler wih, InputStream in) throws IOException {
-		int val = readInt(wih, in);
-		if (val > 0) return val;
-		return wih.wrongInputPositive(val, true);
-	}
-	
 	private static void readInt(WrongInputHandler wih, InputStream in, int value) throws IOException {
 		int reat = readInt(wih, in);
 		if (reat == value) return;
@@ -0,0 +1,161 @@
+// This file is part of the Square Conquerer Project
+// DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+// Copyright (C) 2023 Patrick Hechler
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Affero General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Affero General Public License for more details.
+//
+// You should have received a copy of the GNU Affero General Public License
+// along with this program. If not, see <https://www.gnu.org/licenses/>.
+package de.hechler.patrick.games.sc.turn;
+
+import static de.hechler.patrick.games.sc.Settings.threadStart;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+
+/**
+ * this class delivers the notifications of a {@link NextTurnListener} asynchronously
+ * <p>
+ * the notifications are stored in a bounded queue, which is drained on a virtual thread, so {@link #nextTurn(int, byte[], byte[])} never blocks.<br>
+ * if the listener falls behind and the queue is full, the oldest pending notification is dropped (coalesced), so the listener always receives the newest
+ * state
+ * 
+ * @author Patrick Hechler
+ */
+public final class NextTurnQueue implements NextTurnListener {
+	
+	/**
+	 * the default maximum number of pending notifications
+	 */
+	public static final int DEFAULT_CAPACITY = 8;
+	
+	/**
+	 * the lag of a listener
+	 * 
+	 * @author Patrick Hechler
+	 * 
+	 * @param pending     the number of pending notifications
+	 * @param delivered   the number of delivered notifications
+	 * @param coalesced   the number of dropped notifications
+	 * @param lastLatency the time in nanoseconds from the last delivered notification was queued until its delivery finished
+	 * @param maxLatency  the maximum of all <code>lastLatency</code> values
+	 */
+	public record Lag(int pending, long delivered, long coalesced, long lastLatency, long maxLatency) {}
+	
+	private record Notification(int turn, byte[] worldHash, byte[] turnHash, long queued) {}
+	
+	private final NextTurnListener         listener;
+	private final int                      capacity;
+	private final ArrayDeque<Notification> queue;
+	private boolean                        running;
+	private boolean                        closed;
+	private long                           delivered;
+	private long                           coalesced;
+	private long                           lastLatency;
+	private long                           maxLatency;
+	
+	/**
+	 * creates a new queue for the given listener with the {@link #DEFAULT_CAPACITY}
+	 * 
+	 * @param listener the listener
+	 */
+	public NextTurnQueue(NextTurnListener listener) {
+		this(listener, DEFAULT_CAPACITY);
+	}
+	
+	/**
+	 * creates a new queue for the given listener
+	 * 
+	 * @param listener the listener
+	 * @param capacity the maximum number of pending notifications
+	 */
+	public NextTurnQueue(NextTurnListener listener, int capacity) {
+		if (capacity <= 0) throw new IllegalArgumentException("capacity <= 0: " + capacity);
+		this.listener = Objects.requireNonNull(listener, "listener");
+		this.capacity = capacity;
+		this.queue    = new ArrayDeque<>(capacity);
+	}
+	
+	/**
+	 * returns the listener which receives the notifications of this queue
+	 * 
+	 * @return the listener which receives the notifications of this queue
+	 */
+	public NextTurnListener listener() {
+		return this.listener;
+	}
+	
+	/**
+	 * queues the notification and returns immediately
+	 * <p>
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void nextTurn(int turn, byte[] worldHash, byte[] turnHash) {
+		Notification n = new Notification(turn, worldHash, turnHash, System.nanoTime());
+		synchronized (this) {
+			if (this.closed) return;
+			if (this.queue.size() >= this.capacity) {
+				this.queue.removeFirst();
+				this.coalesced++;
+			}
+			this.queue.addLast(n);
+			if (this.running) return;
+			this.running = true;
+		}
+		threadStart(this::drain);
+	}
+	
+	private void drain() {
+		while (true) {
+			Notification n;
+			synchronized (this) {
+				n = this.queue.pollFirst();
+				if (n == null || this.closed) {
+					this.running = false;
+					return;
+				}
+			}
+			try {
+				this.listener.nextTurn(n.turn, n.worldHash, n.turnHash);
+			} catch (Throwable t) {
+				System.err.println(String.format("error while notifying the listener %s:", this.listener));
+				t.printStackTrace();
+			}
+			long latency = System.nanoTime() - n.queued;
+			synchronized (this) {
+				this.delivered++;
+				this.lastLatency = latency;
+				if (latency > this.maxLatency) {
+					this.maxLatency = latency;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * returns the current lag of the listener
+	 * 
+	 * @return the current lag of the listener
+	 */
+	public synchronized Lag lag() {
+		return new Lag(this.queue.size(), this.delivered, this.coalesced, this.lastLatency, this.maxLatency);
+	}
+	
+	/**
+	 * drops all pending notifications and ignores all future notifications
+	 */
+	public synchronized void close() {
+		this.closed = true;
+		this.queue.clear();
+	}
+	
+}
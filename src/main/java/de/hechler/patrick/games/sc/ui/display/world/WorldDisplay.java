@@ -43,11 +43,15 @@ import java.awt.image.BufferedImage;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOError;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -130,9 +134,12 @@ import de.hechler.patrick.games.sc.values.spec.TypeSpec;
 import de.hechler.patrick.games.sc.values.spec.UserSpec;
 import de.hechler.patrick.games.sc.values.spec.ValueSpec;
 import de.hechler.patrick.games.sc.values.spec.WorldThingSpec;
+import de.hechler.patrick.games.sc.world.AutoSave;
+import de.hechler.patrick.games.sc.world.ChunkedWorldFile;
 import de.hechler.patrick.games.sc.world.CompleteWorld;
 import de.hechler.patrick.games.sc.world.CompleteWorld.Builder;
 import de.hechler.patrick.games.sc.world.OpenWorld;
+import de.hechler.patrick.games.sc.world.TurnJournal;
 import de.hechler.patrick.games.sc.world.World;
 import de.hechler.patrick.games.sc.world.WorldThing;
 import de.hechler.patrick.games.sc.world.entity.Build;
@@ -146,9 +153,13 @@ import de.hechler.patrick.utils.objects.ACORNRandom;
 
 public class WorldDisplay implements ButtonGridListener {
 	
+	private static final Duration AUTO_SAVE_INTERVAL = Duration.ofMinutes(5L);
+	
 	private Thread                serverThread;
 	private Map<User, Connection> connects;
 	private World                 world;
+	private Path                  saveFile;
+	private AutoSave              autoSave;
 	private ButtonGrid            grid;
 	private ScrollPane            scroll;
 	private Frame                 frame;
@@ -1939,6 +1950,11 @@ public class WorldDisplay implements ButtonGridListener {
 	private void doQuit() {
 		int c = JOptionPane.showConfirmDialog(this.frame, "Quit Square Conquerer?", "quit", JOptionPane.OK_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE);
 		if (c == JOptionPane.OK_OPTION) {
+			try {
+				closeSaves();
+			} catch (IOException e1) {
+				e1.printStackTrace();
+			}
 			if (this.world instanceof Closeable clos) {
 				try {
 					clos.close();
@@ -1996,8 +2012,13 @@ public class WorldDisplay implements ButtonGridListener {
 				case JOptionPane.YES_OPTION:
 					File file = new File("./complete-saves/");
 					file = pickFile(file, false);
-					try (Connection conn = Connection.OneWayAccept.acceptReadOnly(new FileInputStream(file), this.world.user(), this.world)) {
-						cw.saveEverything(conn);
+					if (file == null) return;
+					AutoSave as = this.autoSave;
+					if (as != null && as.file().equals(file.toPath())) {
+						// also removes the saved turns from the journal
+						as.save();
+					} else {
+						cw.saveEverything(new FileOutputStream(file));
 					}
 					return;
 				case JOptionPane.NO_OPTION:
@@ -2010,9 +2031,9 @@ public class WorldDisplay implements ButtonGridListener {
 				}
 			}
 			File file = pickFile(new File("./saves/"), false);
-			try (Connection conn = Connection.OneWayAccept.acceptReadOnly(new FileInputStream(file), this.world.user(), this.world)) {
-				OpenWorld.saveWorld(this.world, conn);
-			}
+			if (file == null) return;
+			// the chunked format can be opened without reading the complete file
+			ChunkedWorldFile.save(file.toPath(), this.world);
 		} catch (IOException ioe) {
 			JOptionPane.showMessageDialog(this.frame, ioe.toString(), "io error on save", JOptionPane.ERROR_MESSAGE);
 		}
@@ -2036,17 +2057,22 @@ public class WorldDisplay implements ButtonGridListener {
 					root = usr.rootClone();
 				}
 				try {
-					try (Connection conn = Connection.OneWayAccept.acceptReadOnly(new FileInputStream(file), usr, null)) {
-						cw = CompleteWorld.loadEverything(conn);
-					}
+					cw = CompleteWorld.loadEverything(new FileInputStream(file), usr);
 				} catch (Throwable t) {
 					if (!wasRoot) {
 						root.close();
 					}
 					throw t;
 				}
+				closeSaves();
 				this.world = cw;
+				this.saveFile = file.toPath();
 				usr.close();
+				Path journal = TurnJournal.journalFile(this.saveFile);
+				if (cw.turn() >= 0 && Files.exists(journal)) {
+					// replays the turns after the save (the server crashed or was stopped without a final save)
+					TurnJournal.attach(journal, cw);
+				}
 				return;
 			case JOptionPane.CANCEL_OPTION, JOptionPane.CLOSED_OPTION:
 				return;
@@ -2064,8 +2090,14 @@ public class WorldDisplay implements ButtonGridListener {
 				root = usr.rootClone();
 			}
 			try {
-				try (Connection conn = Connection.OneWayAccept.acceptReadOnly(new FileInputStream(file), this.world.user(), this.world)) {
-					ts = OpenWorld.loadWorld(null, conn);
+				if (ChunkedWorldFile.isChunkedWorldFile(file.toPath())) {
+					try (ChunkedWorldFile cwf = ChunkedWorldFile.open(file.toPath(), root)) {
+						ts = cwf.loadAll();
+					}
+				} else {
+					try (Connection conn = Connection.OneWayAccept.acceptReadOnly(new FileInputStream(file), this.world.user(), this.world)) {
+						ts = OpenWorld.loadWorld(null, conn);
+					}
 				}
 			} catch (Throwable t) {
 				if (!wasRoot) {
@@ -2074,6 +2106,7 @@ public class WorldDisplay implements ButtonGridListener {
 				throw t;
 			}
 			usr.close();
+			closeSaves();
 			this.world = CompleteWorld.Builder.create(root, ts);
 			JOptionPane.showMessageDialog(this.frame, "loaded world (world is now in build mode)", "finish load", JOptionPane.INFORMATION_MESSAGE);
 		} catch (IOException ioe) {
@@ -2195,6 +2228,11 @@ public class WorldDisplay implements ButtonGridListener {
 					JOptionPane.showMessageDialog(d, "error: " + err.toString(), "error while closing the old world", JOptionPane.WARNING_MESSAGE);
 				}
 			}
+			try {
+				closeSaves();
+			} catch (IOException err) {
+				JOptionPane.showMessageDialog(d, "error: " + err.toString(), "error while saving the old world", JOptionPane.WARNING_MESSAGE);
+			}
 			d.dispose();
 			this.world = conn.world();
 			rebuildFrame(false);
@@ -2220,6 +2258,11 @@ public class WorldDisplay implements ButtonGridListener {
 				}
 			}
 		}
+		try {
+			stopAutoSave();
+		} catch (IOException err) {
+			JOptionPane.showMessageDialog(this.frame, "error: " + err.toString(), "error on the final save", JOptionPane.ERROR_MESSAGE);
+		}
 		if (st.isAlive()) {
 			JOptionPane.showMessageDialog(this.frame, "I told the server to stop", "server still running", JOptionPane.WARNING_MESSAGE);
 		} else {
@@ -2260,8 +2303,11 @@ public class WorldDisplay implements ButtonGridListener {
 		
 		start.addActionListener(oe -> {
 			try {
-				int          port = portDoc.getNumber();
-				ServerSocket ss   = new ServerSocket(port);
+				int port = portDoc.getNumber();
+				if (this.world instanceof CompleteWorld cw && !startAutoSave(dialog, cw)) {
+					return;
+				}
+				ServerSocket ss = new ServerSocket(port);
 				synchronized (WorldDisplay.this) {
 					final Map<User, Connection> cs = new HashMap<>();
 					this.connects = cs;
@@ -2319,6 +2365,64 @@ public class WorldDisplay implements ButtonGridListener {
 		PageDisplay.initDialog(dialog, this.frame);
 	}
 	
+	/*
+	 * attaches a journal to the world and starts the auto save, so no turn is lost when the server crashes
+	 * returns false if the server should not be started
+	 */
+	private boolean startAutoSave(JDialog parent, CompleteWorld cw) throws IOException {
+		if (this.autoSave != null || cw.turn() < 0) return true;
+		Path save = this.saveFile;
+		if (save == null) {
+			int c = JOptionPane.showConfirmDialog(parent, "choose a save file for the server?\n(without a save file the game is lost when the server stops)",
+					"auto save", JOptionPane.YES_NO_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE);
+			if (c == JOptionPane.NO_OPTION) return true;
+			if (c != JOptionPane.YES_OPTION) return false;
+			File file = pickFile(new File("./complete-saves/"), false);
+			if (file == null) return false;
+			save = file.toPath();
+		}
+		if (cw.journal() == null) {
+			// the world does not come from this save, so an old journal of the save would not belong to it
+			Path journal = TurnJournal.journalFile(save);
+			Files.deleteIfExists(journal);
+			TurnJournal.attach(journal, cw);
+		}
+		AutoSave as = AutoSave.start(cw, save, AUTO_SAVE_INTERVAL);
+		this.autoSave = as;
+		this.saveFile = save;
+		as.save();
+		return true;
+	}
+	
+	/*
+	 * saves the last turn and stops the auto save, the journal stays attached
+	 */
+	private void stopAutoSave() throws IOException {
+		AutoSave as = this.autoSave;
+		if (as == null) return;
+		this.autoSave = null;
+		try {
+			as.save();
+		} finally {
+			as.close();
+		}
+	}
+	
+	/*
+	 * called before the world is replaced
+	 */
+	private void closeSaves() throws IOException {
+		try {
+			stopAutoSave();
+		} finally {
+			this.saveFile = null;
+			if (this.world instanceof CompleteWorld cw) {
+				TurnJournal j = cw.journal();
+				if (j != null) j.close();
+			}
+		}
+	}
+	
 	private Menu menuBuild() {
 		Menu m = new Menu("Build");
 		if (this.world instanceof CompleteWorld.Builder) {
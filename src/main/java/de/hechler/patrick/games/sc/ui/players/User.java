@@ -32,6 +32,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.TreeMap;
 
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
@@ -410,13 +411,14 @@ public class User implements Closeable {
 	public void save(Connection conn) throws IOException {
 		conn.writeInt(SEND_USR);
 		conn.writeString(this.s.name);
-		if (this.parent != null) {
+		if (this.parent == null) { // only the root has sub users
 			conn.writeInt(SEND_USR_SUB0);
-			for (User u : this.childs.values()) {
+			// sorted, so equal users are always saved equally (the users are part of the world hash)
+			for (User u : new TreeMap<>(this.childs).values()) {
 				conn.writeInt(SEND_USR_SUB1);
-				conn.writeInt(u.s._pw.length);
 				ByteBuffer bb  = StandardCharsets.UTF_8.encode(CharBuffer.wrap(u.s._pw));
 				int        len = bb.limit();
+				conn.writeInt(len); // load reads the length of the encoded password
 				if (bb.hasArray()) {
 					byte[] arr = bb.array();
 					int    off = bb.arrayOffset();
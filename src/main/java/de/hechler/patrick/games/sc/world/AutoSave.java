@@ -0,0 +1,248 @@
+// This file is part of the Square Conquerer Project
+// DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+// Copyright (C) 2023 Patrick Hechler
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Affero General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Affero General Public License for more details.
+//
+// You should have received a copy of the GNU Affero General Public License
+// along with this program. If not, see <https://www.gnu.org/licenses/>.
+package de.hechler.patrick.games.sc.world;
+
+import static de.hechler.patrick.games.sc.Settings.threadStart;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOError;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+
+/**
+ * saves a {@link CompleteWorld} periodically in the background
+ * <p>
+ * every save uses the {@link CompleteWorld#snapshot() snapshot} of the last completed turn, so the world is never locked while it is saved and the
+ * execution of turns is not delayed.<br>
+ * the save is first written to a temporary file (the save file with the {@link #TEMP_SUFFIX} appended) which is forced to the disk and then atomically
+ * moved to the save file, so the save file always contains a complete save. after the move the directory is forced to the disk, so the move is also
+ * durable.
+ * <p>
+ * a failed save in the background is passed to the {@link Thread#getUncaughtExceptionHandler() uncaught exception handler} of the saving thread and
+ * the next save is tried after the interval. the last failure is returned by {@link #failure()} and thrown by {@link #close()} until a save succeeds
+ * <p>
+ * if no turn was completed since the last save, nothing is saved.<br>
+ * if the world has a {@link TurnJournal journal}, the saved turns are removed from the journal after every save
+ * 
+ * @author Patrick Hechler
+ */
+public final class AutoSave implements Closeable {
+	
+	/**
+	 * the suffix which is appended to the file name of the save file to get the name of the temporary file
+	 */
+	public static final String TEMP_SUFFIX = ".tmp";
+	
+	private final CompleteWorld    world;
+	private final Path             file;
+	private final Path             temp;
+	private final long             interval;
+	private final Thread           thread;
+	private volatile WorldSnapshot saved;
+	private volatile Throwable     failure;
+	private volatile boolean       closed;
+	
+	private AutoSave(CompleteWorld world, Path file, Duration interval) {
+		this.world    = world;
+		this.file     = file;
+		this.temp     = file.resolveSibling(file.getFileName() + TEMP_SUFFIX);
+		this.interval = interval.toMillis();
+		this.thread   = threadStart(this::run);
+	}
+	
+	/**
+	 * starts to save the given world periodically to the given file
+	 * 
+	 * @param world    the world to save
+	 * @param file     the save file
+	 * @param interval the time between two saves
+	 * 
+	 * @return the started auto save
+	 * 
+	 * @throws IllegalArgumentException if the interval is not positive
+	 */
+	public static AutoSave start(CompleteWorld world, Path file, Duration interval) throws IllegalArgumentException {
+		if (interval.toMillis() <= 0L) throw new IllegalArgumentException("the interval is not positive: " + interval);
+		return new AutoSave(world, file, interval);
+	}
+	
+	/**
+	 * returns the save file
+	 * 
+	 * @return the save file
+	 */
+	public Path file() {
+		return this.file;
+	}
+	
+	/**
+	 * returns the turn of the last save or <code>-1</code> if nothing was saved yet
+	 * 
+	 * @return the turn of the last save or <code>-1</code>
+	 */
+	public int savedTurn() {
+		WorldSnapshot s = this.saved;
+		return s == null ? -1 : s.turn();
+	}
+	
+	/**
+	 * returns the failure of the last save or <code>null</code> if the last save succeeded or nothing was saved yet
+	 * 
+	 * @return the failure of the last save or <code>null</code>
+	 */
+	public Throwable failure() {
+		return this.failure;
+	}
+	
+	private void run() {
+		while (true) {
+			synchronized (this) {
+				long end = System.currentTimeMillis() + this.interval;
+				for (long remain = this.interval; !this.closed && remain > 0L; remain = end - System.currentTimeMillis()) {
+					try {
+						wait(remain);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+				if (this.closed) return;
+			}
+			try {
+				save();
+			} catch (IOException | IOError | RuntimeException e) {
+				Thread t = Thread.currentThread();
+				t.getUncaughtExceptionHandler().uncaughtException(t, new IOException("failed to auto save the world to " + this.file, e));
+			}
+		}
+	}
+	
+	/**
+	 * saves the snapshot of the last completed turn now, unless it is already saved
+	 * <p>
+	 * this method does not wait for the execution of a turn
+	 * 
+	 * @return <code>true</code> if the world was saved and <code>false</code> if the game did not yet start or there is no new turn
+	 * 
+	 * @throws IOException if an IO error occurs
+	 */
+	public synchronized boolean save() throws IOException {
+		try {
+			return save0();
+		} catch (IOException | IOError | RuntimeException e) {
+			this.failure = e;
+			throw e;
+		}
+	}
+	
+	private boolean save0() throws IOException {
+		WorldSnapshot snap = this.world.snapshot();
+		if (snap == null || snap == this.saved) return false;
+		FileChannel fc = FileChannel.open(this.temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			snap = this.world.saveEverything(new SyncOutputStream(fc), snap);
+		} finally {
+			fc.close();
+		}
+		Files.move(this.temp, this.file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		syncDirectory(this.file);
+		this.saved   = snap;
+		this.failure = null;
+		TurnJournal j = this.world.journal();
+		if (j != null) j.checkpoint(snap);
+		return true;
+	}
+	
+	/**
+	 * stops the auto save, a save which is currently written is finished before this method returns
+	 * <p>
+	 * the world is not saved by this method, use {@link #save()} to save the last turn
+	 * 
+	 * @throws IOException if the last save failed
+	 */
+	@Override
+	public void close() throws IOException {
+		this.closed = true;
+		synchronized (this) {
+			notifyAll();
+		}
+		try {
+			this.thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+		Throwable f = this.failure;
+		if (f != null) throw new IOException("the last auto save of " + this.file + " failed", f);
+	}
+	
+	/**
+	 * forces the directory of the given file to the disk, so a previous move of the file is durable
+	 * <p>
+	 * some systems (for example windows) can not open directories, there the move can not be forced and this method does nothing
+	 * 
+	 * @param file the moved file
+	 */
+	static void syncDirectory(Path file) {
+		Path dir = file.toAbsolutePath().getParent();
+		if (dir == null) return;
+		try (FileChannel fc = FileChannel.open(dir, StandardOpenOption.READ)) {
+			fc.force(true);
+		} catch (IOException e) {
+			// the system does not support forcing directories
+		}
+	}
+	
+	/*
+	 * forces the file to the disk when the connection is closed, so the save is durable before it is moved
+	 */
+	private static final class SyncOutputStream extends FilterOutputStream {
+		
+		private final FileChannel fc;
+		
+		private SyncOutputStream(FileChannel fc) {
+			super(new BufferedOutputStream(Channels.newOutputStream(fc), 1 << 16));
+			this.fc = fc;
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+		}
+		
+		@Override
+		public void close() throws IOException {
+			if (!this.fc.isOpen()) return;
+			try {
+				this.out.flush();
+				this.fc.force(true);
+			} finally {
+				this.out.close();
+			}
+		}
+		
+	}
+	
+}
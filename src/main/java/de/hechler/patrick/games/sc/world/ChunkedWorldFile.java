@@ -0,0 +1,472 @@
+// This file is part of the Square Conquerer Project
+// DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+// Copyright (C) 2023 Patrick Hechler
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Affero General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Affero General Public License for more details.
+//
+// You should have received a copy of the GNU Affero General Public License
+// along with this program. If not, see <https://www.gnu.org/licenses/>.
+package de.hechler.patrick.games.sc.world;
+
+import java.io.Closeable;
+import java.io.IOError;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import de.hechler.patrick.games.sc.ui.players.User;
+import de.hechler.patrick.games.sc.world.CompactWorldFormat.TileSource;
+import de.hechler.patrick.games.sc.world.tile.Tile;
+
+/**
+ * a save file, which stores the world in independent chunks of {@value #CHUNK_LEN}x{@value #CHUNK_LEN} tiles.
+ * <p>
+ * the file starts with a header, followed by the chunk directory, which contains the offset, length and capacity of every chunk:
+ * <ol>
+ * <li>{@link #MAGIC}</li>
+ * <li>{@link #CHUNK_LEN}</li>
+ * <li>x-len and y-len</li>
+ * <li>for every chunk (x-major): long offset, int length and int capacity</li>
+ * <li>the chunks, each {@link CompactWorldFormat#encode(int, int, TileSource, boolean) encoded} with check sums</li>
+ * </ol>
+ * opening a file only reads the header and the directory, the chunks are {@link FileChannel#map(MapMode, long, long) mapped} and decoded when
+ * they are needed.
+ * <p>
+ * a modified chunk is never written over its old data: it is written to free space of the file, which is forced to the disk before the directory
+ * entry is switched to the new data, so a crash leaves either the old or the new chunk. the space of the old data is reused by later writes and free
+ * space at the end of the file is cut off.<br>
+ * {@link #save(Path, World) saving} a complete world writes a temporary file (the file with the {@link AutoSave#TEMP_SUFFIX} appended) and atomically
+ * moves it to the file.
+ * <p>
+ * {@link de.hechler.patrick.games.sc.values.WorldThingValue world thing values} are only resolved, when they refer to a thing in the same chunk, all
+ * other world thing values only know the uuid and type of their thing
+ * 
+ * @author Patrick Hechler
+ */
+public final class ChunkedWorldFile implements Closeable {
+	
+	/**
+	 * the first int of every chunked world file
+	 */
+	public static final int MAGIC     = 0x7C0A4E19;
+	/**
+	 * the width and height of a chunk
+	 */
+	public static final int CHUNK_LEN = 64;
+	
+	private static final int HEADER_LEN = 16;
+	private static final int ENTRY_LEN  = 16;
+	
+	private final FileChannel              channel;
+	private final boolean                  writable;
+	private final User                     usr;
+	private final int                      xlen;
+	private final int                      ylen;
+	private final long[]                   offsets;
+	private final int[]                    lengths;
+	private final int[]                    capacities;
+	private final Tile[][]                 tiles;
+	private final boolean[]                loaded;
+	private final NavigableMap<Long, Long> free; // the unused regions before end (offset to length)
+	private long                           end;
+	
+	private ChunkedWorldFile(FileChannel channel, boolean writable, User usr, int xlen, int ylen) {
+		this.channel    = channel;
+		this.writable   = writable;
+		this.usr        = usr;
+		this.xlen       = xlen;
+		this.ylen       = ylen;
+		int cnt = chunks(xlen) * chunks(ylen);
+		this.offsets    = new long[cnt];
+		this.lengths    = new int[cnt];
+		this.capacities = new int[cnt];
+		this.tiles      = new Tile[xlen][ylen];
+		this.loaded     = new boolean[cnt];
+		this.free       = new TreeMap<>();
+	}
+	
+	/**
+	 * checks if the given file starts with the {@link #MAGIC} of a chunked world file
+	 * 
+	 * @param file the file to check
+	 * 
+	 * @return <code>true</code> if the file is a chunked world file
+	 * 
+	 * @throws IOException if an IO error occurs
+	 */
+	public static boolean isChunkedWorldFile(Path file) throws IOException {
+		try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer head = ByteBuffer.allocate(4);
+			while (head.hasRemaining()) {
+				if (fc.read(head) < 0) return false;
+			}
+			return head.getInt(0) == MAGIC;
+		}
+	}
+	
+	/**
+	 * saves the given world in a new chunked world file
+	 * 
+	 * @param file  the file to create or overwrite
+	 * @param world the world to save
+	 * 
+	 * @throws IOException if an IO error occurs
+	 */
+	public static void save(Path file, World world) throws IOException {
+		save(file, world.xlen(), world.ylen(), world::tile);
+	}
+	
+	/**
+	 * saves the world of the given snapshot in a new chunked world file
+	 * 
+	 * @param file the file to create or overwrite
+	 * @param snap the snapshot to save
+	 * 
+	 * @throws IOException if an IO error occurs
+	 */
+	public static void save(Path file, WorldSnapshot snap) throws IOException {
+		save(file, snap.xlen(), snap.ylen(), snap::tile);
+	}
+	
+	private static void save(Path file, int xlen, int ylen, TileSource src) throws IOException {
+		int  cxs  = chunks(xlen);
+		int  cys  = chunks(ylen);
+		Path temp = file.resolveSibling(file.getFileName() + AutoSave.TEMP_SUFFIX);
+		try (FileChannel fc = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer dir = ByteBuffer.allocate(HEADER_LEN + cxs * cys * ENTRY_LEN);
+			dir.putInt(MAGIC).putInt(CHUNK_LEN).putInt(xlen).putInt(ylen);
+			long off = dir.capacity();
+			for (int cx = 0; cx < cxs; cx++) {
+				for (int cy = 0; cy < cys; cy++) {
+					byte[] data = encode(cx, cy, xlen, ylen, src);
+					dir.putLong(off).putInt(data.length).putInt(data.length);
+					writeFully(fc, ByteBuffer.wrap(data), off);
+					off += data.length;
+				}
+			}
+			writeFully(fc, dir.flip(), 0L);
+			fc.force(true);
+		}
+		Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		AutoSave.syncDirectory(file);
+	}
+	
+	/**
+	 * opens the given chunked world file for reading, this only reads the header and the chunk directory
+	 * 
+	 * @param file the file to open
+	 * @param usr  the user used to look up the owners of the entities
+	 * 
+	 * @return the opened file
+	 * 
+	 * @throws IOException if an IO error occurs or the file is no chunked world file
+	 */
+	public static ChunkedWorldFile open(Path file, User usr) throws IOException {
+		return open(file, usr, false);
+	}
+	
+	/**
+	 * opens the given chunked world file, this only reads the header and the chunk directory
+	 * 
+	 * @param file     the file to open
+	 * @param usr      the user used to look up the owners of the entities
+	 * @param writable if the chunks of the file can be {@link #writeRegion(World, int, int, int, int) written}
+	 * 
+	 * @return the opened file
+	 * 
+	 * @throws IOException if an IO error occurs or the file is no chunked world file
+	 */
+	public static ChunkedWorldFile open(Path file, User usr, boolean writable) throws IOException {
+		FileChannel fc = writable ? FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)
+			: FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			MappedByteBuffer head = fc.map(MapMode.READ_ONLY, 0L, Math.min(HEADER_LEN, fc.size()));
+			if (head.capacity() < HEADER_LEN || head.getInt() != MAGIC) {
+				throw new StreamCorruptedException("this is no chunked world file");
+			}
+			if (head.getInt() != CHUNK_LEN) {
+				throw new StreamCorruptedException("unsupported chunk size");
+			}
+			int xlen = head.getInt();
+			int ylen = head.getInt();
+			if (xlen <= 0 || ylen <= 0) {
+				throw new StreamCorruptedException("invalid world size");
+			}
+			ChunkedWorldFile res = new ChunkedWorldFile(fc, writable, usr, xlen, ylen);
+			long             len = (long) res.offsets.length * ENTRY_LEN;
+			if (HEADER_LEN + len > fc.size()) {
+				throw new StreamCorruptedException("the chunk directory is truncated");
+			}
+			MappedByteBuffer dir = fc.map(MapMode.READ_ONLY, HEADER_LEN, len);
+			for (int i = 0; i < res.offsets.length; i++) {
+				res.offsets[i]    = dir.getLong();
+				res.lengths[i]    = dir.getInt();
+				res.capacities[i] = dir.getInt();
+				if (res.offsets[i] < HEADER_LEN + len || res.lengths[i] < 0 || res.lengths[i] > res.capacities[i]
+					|| res.offsets[i] + res.lengths[i] > fc.size()) {
+					throw new StreamCorruptedException("invalid chunk directory entry");
+				}
+			}
+			res.initFree(HEADER_LEN + len);
+			return res;
+		} catch (Throwable t) {
+			fc.close();
+			throw t;
+		}
+	}
+	
+	/**
+	 * returns the x-len of the world
+	 * 
+	 * @return the x-len of the world
+	 */
+	public int xlen() {
+		return this.xlen;
+	}
+	
+	/**
+	 * returns the y-len of the world
+	 * 
+	 * @return the y-len of the world
+	 */
+	public int ylen() {
+		return this.ylen;
+	}
+	
+	/**
+	 * returns the tile at the given position, if needed the chunk of the tile is loaded
+	 * 
+	 * @param x the x coordinate
+	 * @param y the y coordinate
+	 * 
+	 * @return the tile at the given position
+	 * 
+	 * @throws IOError if the chunk could not be loaded
+	 */
+	public synchronized Tile tile(int x, int y) throws IOError {
+		try {
+			load(x / CHUNK_LEN, y / CHUNK_LEN);
+		} catch (IOException e) {
+			throw new IOError(e);
+		}
+		return this.tiles[x][y];
+	}
+	
+	/**
+	 * loads all chunks, which intersect with the given region
+	 * 
+	 * @param x the x coordinate of the region
+	 * @param y the y coordinate of the region
+	 * @param w the width of the region
+	 * @param h the height of the region
+	 * 
+	 * @throws IOException if an IO error occurs or a chunk is corrupt
+	 */
+	public synchronized void loadRegion(int x, int y, int w, int h) throws IOException {
+		int ex = Math.min(this.xlen, x + w);
+		int ey = Math.min(this.ylen, y + h);
+		for (int cx = Math.max(0, x) / CHUNK_LEN; cx * CHUNK_LEN < ex; cx++) {
+			for (int cy = Math.max(0, y) / CHUNK_LEN; cy * CHUNK_LEN < ey; cy++) {
+				load(cx, cy);
+			}
+		}
+	}
+	
+	/**
+	 * loads all chunks and returns the tiles of the world
+	 * <p>
+	 * the returned array is used by this file, when a chunk is written back its tiles are also replaced in the array
+	 * 
+	 * @return the tiles of the world
+	 * 
+	 * @throws IOException if an IO error occurs or a chunk is corrupt
+	 */
+	public synchronized Tile[][] loadAll() throws IOException {
+		loadRegion(0, 0, this.xlen, this.ylen);
+		return this.tiles;
+	}
+	
+	/**
+	 * writes all chunks, which intersect with the given region, back to the file
+	 * 
+	 * @param world the world which contains the modified tiles
+	 * @param x     the x coordinate of the modified region
+	 * @param y     the y coordinate of the modified region
+	 * @param w     the width of the modified region
+	 * @param h     the height of the modified region
+	 * 
+	 * @throws IOException           if an IO error occurs
+	 * @throws IllegalStateException if the file was not opened writable
+	 */
+	public synchronized void writeRegion(World world, int x, int y, int w, int h) throws IOException, IllegalStateException {
+		if (!this.writable) {
+			throw new IllegalStateException("the file was opened read only");
+		}
+		if (world.xlen() != this.xlen || world.ylen() != this.ylen) {
+			throw new IllegalArgumentException("the world has a different size");
+		}
+		int ex = Math.min(this.xlen, x + w);
+		int ey = Math.min(this.ylen, y + h);
+		if (ex <= Math.max(0, x) || ey <= Math.max(0, y)) return;
+		writeChunks(Math.max(0, x), Math.max(0, y), ex, ey, world::tile);
+	}
+	
+	/*
+	 * the caller must hold the monitor
+	 * first all chunks are written to free space and forced, then the directory entries are switched and forced, only then the old space is reused
+	 */
+	private void writeChunks(int sx, int sy, int ex, int ey, TileSource src) throws IOException {
+		int        cys     = chunks(this.ylen);
+		int        ccx     = (ex - 1) / CHUNK_LEN - sx / CHUNK_LEN + 1;
+		int        ccy     = (ey - 1) / CHUNK_LEN - sy / CHUNK_LEN + 1;
+		ByteBuffer entries = ByteBuffer.allocate(ccx * ccy * ENTRY_LEN);
+		for (int cx = sx / CHUNK_LEN; cx * CHUNK_LEN < ex; cx++) {
+			for (int cy = sy / CHUNK_LEN; cy * CHUNK_LEN < ey; cy++) {
+				byte[] data = encode(cx, cy, this.xlen, this.ylen, src);
+				int    cap  = data.length + (data.length >>> 2);
+				long   off  = allocate(cap);
+				writeFully(this.channel, ByteBuffer.wrap(data), off);
+				entries.putLong(off).putInt(data.length).putInt(cap);
+			}
+		}
+		this.channel.force(false);
+		entries.flip();
+		for (int cx = sx / CHUNK_LEN; cx * CHUNK_LEN < ex; cx++) {
+			for (int cy = sy / CHUNK_LEN; cy * CHUNK_LEN < ey; cy++) {
+				int idx = cx * cys + cy;
+				// an entry never crosses a disk sector, so it is either switched completely or not at all
+				writeFully(this.channel, entries.slice(entries.position(), ENTRY_LEN), HEADER_LEN + (long) idx * ENTRY_LEN);
+				long oldOff = this.offsets[idx];
+				int  oldCap = this.capacities[idx];
+				this.offsets[idx]    = entries.getLong();
+				this.lengths[idx]    = entries.getInt();
+				this.capacities[idx] = entries.getInt();
+				release(oldOff, oldCap);
+				for (int x = cx * CHUNK_LEN, mx = Math.min(this.xlen, x + CHUNK_LEN); x < mx; x++) {
+					for (int y = cy * CHUNK_LEN, my = Math.min(this.ylen, y + CHUNK_LEN); y < my; y++) {
+						this.tiles[x][y] = src.tile(x, y);
+					}
+				}
+				this.loaded[idx] = true;
+			}
+		}
+		this.channel.force(false);
+		if (this.channel.size() > this.end) {
+			this.channel.truncate(this.end);
+		}
+	}
+	
+	/* collects the space between the chunks, which is not used */
+	private void initFree(long dirEnd) throws StreamCorruptedException {
+		Integer[] order = new Integer[this.offsets.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = Integer.valueOf(i);
+		}
+		Arrays.sort(order, Comparator.comparingLong(i -> this.offsets[i.intValue()]));
+		long pos = dirEnd;
+		for (Integer i : order) {
+			long off = this.offsets[i.intValue()];
+			if (off < pos) throw new StreamCorruptedException("the chunks overlap");
+			if (off > pos) this.free.put(Long.valueOf(pos), Long.valueOf(off - pos));
+			pos = off + this.capacities[i.intValue()];
+		}
+		this.end = pos;
+	}
+	
+	/* returns the offset of a free region with the given length, the first free region which is large enough is used */
+	private long allocate(int len) {
+		for (Entry<Long, Long> e : this.free.entrySet()) {
+			long flen = e.getValue().longValue();
+			if (flen < len) continue;
+			long off = e.getKey().longValue();
+			this.free.remove(e.getKey());
+			if (flen > len) this.free.put(Long.valueOf(off + len), Long.valueOf(flen - len));
+			return off;
+		}
+		long off = this.end;
+		this.end += len;
+		return off;
+	}
+	
+	/* marks the given region as free and merges it with its free neighbors, free space at the end of the file is removed */
+	private void release(long off, long len) {
+		Entry<Long, Long> next = this.free.ceilingEntry(Long.valueOf(off));
+		if (next != null && next.getKey().longValue() == off + len) {
+			this.free.remove(next.getKey());
+			len += next.getValue().longValue();
+		}
+		Entry<Long, Long> prev = this.free.floorEntry(Long.valueOf(off));
+		if (prev != null && prev.getKey().longValue() + prev.getValue().longValue() == off) {
+			this.free.remove(prev.getKey());
+			off  = prev.getKey().longValue();
+			len += prev.getValue().longValue();
+		}
+		if (off + len == this.end) {
+			this.end = off;
+		} else {
+			this.free.put(Long.valueOf(off), Long.valueOf(len));
+		}
+	}
+	
+	/* the caller must hold the monitor */
+	private void load(int cx, int cy) throws IOException {
+		int idx = cx * chunks(this.ylen) + cy;
+		if (this.loaded[idx]) return;
+		MappedByteBuffer buf = this.channel.map(MapMode.READ_ONLY, this.offsets[idx], this.lengths[idx]);
+		Tile[][]         ts  = CompactWorldFormat.decode(buf, this.usr, uuid -> null);
+		int              sx  = cx * CHUNK_LEN;
+		int              sy  = cy * CHUNK_LEN;
+		if (ts.length != Math.min(CHUNK_LEN, this.xlen - sx) || ts[0].length != Math.min(CHUNK_LEN, this.ylen - sy)) {
+			throw new StreamCorruptedException("the chunk has an invalid size");
+		}
+		for (int x = 0; x < ts.length; x++) {
+			System.arraycopy(ts[x], 0, this.tiles[sx + x], sy, ts[x].length);
+		}
+		this.loaded[idx] = true;
+	}
+	
+	private static byte[] encode(int cx, int cy, int xlen, int ylen, TileSource src) {
+		int sx = cx * CHUNK_LEN;
+		int sy = cy * CHUNK_LEN;
+		int w  = Math.min(CHUNK_LEN, xlen - sx);
+		int h  = Math.min(CHUNK_LEN, ylen - sy);
+		return CompactWorldFormat.encode(w, h, (x, y) -> src.tile(sx + x, sy + y), true);
+	}
+	
+	private static void writeFully(FileChannel fc, ByteBuffer buf, long pos) throws IOException {
+		while (buf.hasRemaining()) {
+			pos += fc.write(buf, pos);
+		}
+	}
+	
+	private static int chunks(int len) {
+		return (len + CHUNK_LEN - 1) / CHUNK_LEN;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+	
+}
@@ -0,0 +1,1026 @@
+// This file is part of the Square Conquerer Project
+// DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+// Copyright (C) 2023 Patrick Hechler
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Affero General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Affero General Public License for more details.
+//
+// You should have received a copy of the GNU Affero General Public License
+// along with this program. If not, see <https://www.gnu.org/licenses/>.
+package de.hechler.patrick.games.sc.world;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+import de.hechler.patrick.games.sc.addons.Addons;
+import de.hechler.patrick.games.sc.addons.addable.AddableType;
+import de.hechler.patrick.games.sc.addons.addable.EntityType;
+import de.hechler.patrick.games.sc.addons.addable.GroundType;
+import de.hechler.patrick.games.sc.addons.addable.ResourceType;
+import de.hechler.patrick.games.sc.connect.Connection;
+import de.hechler.patrick.games.sc.error.TurnExecutionException;
+import de.hechler.patrick.games.sc.ui.players.User;
+import de.hechler.patrick.games.sc.values.BooleanValue;
+import de.hechler.patrick.games.sc.values.DoubleValue;
+import de.hechler.patrick.games.sc.values.EnumValue;
+import de.hechler.patrick.games.sc.values.IntValue;
+import de.hechler.patrick.games.sc.values.JustAValue;
+import de.hechler.patrick.games.sc.values.ListValue;
+import de.hechler.patrick.games.sc.values.LongValue;
+import de.hechler.patrick.games.sc.values.MapValue;
+import de.hechler.patrick.games.sc.values.StringValue;
+import de.hechler.patrick.games.sc.values.TypeValue;
+import de.hechler.patrick.games.sc.values.UserValue;
+import de.hechler.patrick.games.sc.values.Value;
+import de.hechler.patrick.games.sc.values.WorldThingValue;
+import de.hechler.patrick.games.sc.world.entity.Build;
+import de.hechler.patrick.games.sc.world.entity.Entity;
+import de.hechler.patrick.games.sc.world.entity.Unit;
+import de.hechler.patrick.games.sc.world.ground.Ground;
+import de.hechler.patrick.games.sc.world.resource.Resource;
+import de.hechler.patrick.games.sc.world.tile.Tile;
+
+/**
+ * the version 2 format of {@link OpenWorld#saveWorld(World, Connection)}
+ * <ol>
+ * <li>{@link #MAGIC}</li>
+ * <li>flags ({@link #FLAG_CHECKS})</li>
+ * <li>x-len and y-len</li>
+ * <li>the dictionary section: all strings (type names, value names, user names, ...)</li>
+ * <li>the ground section: the grounds as runs of identical grounds (type, values and last seen) followed by the uuids of all grounds</li>
+ * <li>one content section for every {@value #BLOCK_LEN} columns: the resources, units and build of each tile</li>
+ * </ol>
+ * every section starts with its length and, if {@link #FLAG_CHECKS} is set, ends with a {@link CRC32} of its content.<br>
+ * all numbers inside a section are varints, all strings are indices in the dictionary
+ * 
+ * @author Patrick Hechler
+ */
+final class CompactWorldFormat {
+	
+	/**
+	 * the magic int, which is written instead of the version 1 start
+	 */
+	static final int MAGIC       = 0x3C5A19E2;
+	/**
+	 * if this flag is set every section ends with a check sum
+	 */
+	static final int FLAG_CHECKS = 1;
+	/**
+	 * the number of columns in a content section
+	 */
+	static final int BLOCK_LEN   = 16;
+	
+	private static final int MAX_SECTION_LEN = 1 << 28;
+	private static final int SECTION_STEP    = 1 << 16;
+	
+	private static final Set<String> ENTITY_IGNORE   = Set.of(Entity.OWNER, Entity.X, Entity.Y);
+	private static final Set<String> RESOURCE_IGNORE = Set.of(Resource.AMOUNT);
+	
+	private static final int BOOLEAN_VALUE     = 0;
+	private static final int DOUBLE_VALUE      = 1;
+	private static final int ENUM_VALUE        = 2;
+	private static final int INT_VALUE         = 3;
+	private static final int JUST_A_VALUE      = 4;
+	private static final int LONG_VALUE        = 5;
+	private static final int MAP_VALUE         = 6;
+	private static final int STRING_VALUE      = 7;
+	private static final int TYPE_VALUE        = 8;
+	private static final int LIST_VALUE        = 9;
+	private static final int USER_VALUE        = 10;
+	private static final int WORLD_THING_VALUE = 11;
+	
+	private CompactWorldFormat() {}
+	
+	/**
+	 * provides the tiles of the world to save
+	 * 
+	 * @author Patrick Hechler
+	 */
+	@FunctionalInterface
+	interface TileSource {
+		
+		/**
+		 * returns the tile at the given position
+		 * 
+		 * @param x the x coordinate
+		 * @param y the y coordinate
+		 * 
+		 * @return the tile at the given position
+		 */
+		Tile tile(int x, int y);
+		
+	}
+	
+	/**
+	 * writes the given world, including the {@link #MAGIC}
+	 * 
+	 * @param conn   the connection
+	 * @param xlen   the x-len of the world
+	 * @param ylen   the y-len of the world
+	 * @param src    the tiles of the world
+	 * @param checks if every section should end with a check sum
+	 * 
+	 * @throws IOException if an IO error occurs
+	 */
+	static void write(Connection conn, int xlen, int ylen, TileSource src, boolean checks) throws IOException {
+		Out out = encode0(xlen, ylen, src, checks);
+		conn.writeInt(MAGIC);
+		conn.writeArr(out.buf(), 0, out.size());
+	}
+	
+	/**
+	 * encodes the given world without the {@link #MAGIC}
+	 * 
+	 * @param xlen   the x-len of the world
+	 * @param ylen   the y-len of the world
+	 * @param src    the tiles of the world
+	 * @param checks if every section should end with a check sum
+	 * 
+	 * @return the encoded world
+	 */
+	static byte[] encode(int xlen, int ylen, TileSource src, boolean checks) {
+		return encode0(xlen, ylen, src, checks).toByteArray();
+	}
+	
+	private static Out encode0(int xlen, int ylen, TileSource src, boolean checks) {
+		Dict dict    = new Dict();
+		Out  grounds = new Out();
+		writeGrounds(grounds, dict, xlen, ylen, src);
+		List<Out> blocks = new ArrayList<>();
+		for (int sx = 0; sx < xlen; sx += BLOCK_LEN) {
+			Out block = new Out();
+			for (int x = sx, ex = Math.min(sx + BLOCK_LEN, xlen); x < ex; x++) {
+				for (int y = 0; y < ylen; y++) {
+					writeContent(block, dict, src.tile(x, y));
+				}
+			}
+			blocks.add(block);
+		}
+		Out dictOut = new Out();
+		dictOut.writeVarInt(dict.list.size());
+		for (String s : dict.list) {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			dictOut.writeVarInt(bytes.length);
+			dictOut.writeBytes(bytes);
+		}
+		Out out = new Out();
+		out.write(checks ? FLAG_CHECKS : 0);
+		out.writeInt(xlen);
+		out.writeInt(ylen);
+		writeSection(out, dictOut, checks);
+		writeSection(out, grounds, checks);
+		for (Out block : blocks) {
+			writeSection(out, block, checks);
+		}
+		return out;
+	}
+	
+	private static void writeSection(Out out, Out section, boolean checks) {
+		out.writeInt(section.size());
+		out.write(section.buf(), 0, section.size());
+		if (checks) {
+			CRC32 crc = new CRC32();
+			crc.update(section.buf(), 0, section.size());
+			out.writeInt((int) crc.getValue());
+		}
+	}
+	
+	private static void writeGrounds(Out out, Dict dict, int xlen, int ylen, TileSource src) {
+		Map<ByteBuffer, Integer> shapes    = new HashMap<>();
+		Out                      shapesOut = new Out();
+		Out                      shape     = new Out();
+		Out                      runs      = new Out();
+		int                      runCount  = 0;
+		int                      runShape  = -1;
+		int                      runSeen   = 0;
+		int                      runLen    = 0;
+		for (int x = 0; x < xlen; x++) {
+			for (int y = 0; y < ylen; y++) {
+				Tile   t = src.tile(x, y);
+				Ground g = t.ground();
+				shape.reset();
+				shape.writeVarInt(dict.of(g.type().name));
+				writeValues(shape, dict, g.values(), Set.of());
+				ByteBuffer key = ByteBuffer.wrap(shape.toByteArray());
+				Integer    idx = shapes.get(key);
+				if (idx == null) {
+					idx = Integer.valueOf(shapes.size());
+					shapes.put(key, idx);
+					shapesOut.write(key.array(), 0, key.capacity());
+				}
+				int seen = t.lastTimeSeen0();
+				if (runLen != 0 && runShape == idx.intValue() && runSeen == seen) {
+					runLen++;
+					continue;
+				}
+				if (runLen != 0) {
+					writeRun(runs, runShape, runSeen, runLen);
+					runCount++;
+				}
+				runShape = idx.intValue();
+				runSeen  = seen;
+				runLen   = 1;
+			}
+		}
+		writeRun(runs, runShape, runSeen, runLen);
+		runCount++;
+		out.writeVarInt(shapes.size());
+		out.write(shapesOut.buf(), 0, shapesOut.size());
+		out.writeVarInt(runCount);
+		out.write(runs.buf(), 0, runs.size());
+		for (int x = 0; x < xlen; x++) {
+			for (int y = 0; y < ylen; y++) {
+				out.writeUUID(src.tile(x, y).ground().uuid);
+			}
+		}
+	}
+	
+	private static void writeRun(Out runs, int shape, int seen, int len) {
+		runs.writeVarInt(shape);
+		runs.writeVarInt(zigzag(seen));
+		runs.writeVarInt(len);
+	}
+	
+	private static void writeContent(Out out, Dict dict, Tile t) {
+		int cnt = t.resourceCount();
+		out.writeVarInt(cnt);
+		while (cnt-- > 0) {
+			writeThing(out, dict, t.resource(cnt));
+		}
+		cnt = t.unitCount();
+		out.writeVarInt(cnt);
+		while (cnt-- > 0) {
+			writeThing(out, dict, t.unit(cnt));
+		}
+		Build b = t.build();
+		if (b == null) {
+			out.write(0);
+		} else {
+			out.write(1);
+			writeThing(out, dict, b);
+		}
+	}
+	
+	private static void writeThing(Out out, Dict dict, WorldThing<?, ?> wt) {
+		out.writeUUID(wt.uuid);
+		out.writeVarInt(dict.of(wt.type().name));
+		Set<String> ignore;
+		switch (wt) {
+		case @SuppressWarnings("preview") Resource r -> {
+			ignore = RESOURCE_IGNORE;
+			out.writeVarInt(r.amount());
+		}
+		case @SuppressWarnings("preview") Entity<?, ?> e -> {
+			ignore = ENTITY_IGNORE;
+			out.writeVarInt(e.x());
+			out.writeVarInt(e.y());
+			out.writeVarInt(dict.of(e.owner().name()));
+		}
+		case @SuppressWarnings("preview") Ground g -> //
+			ignore = Set.of();
+		}
+		writeValues(out, dict, wt.values(), ignore);
+	}
+	
+	private static void writeValues(Out out, Dict dict, Map<String, Value> values, Set<String> ignore) {
+		int cnt = 0;
+		for (String name : values.keySet()) {
+			if (!ignore.contains(name)) cnt++;
+		}
+		out.writeVarInt(cnt);
+		for (Value val : values.values()) {
+			if (ignore.contains(val.name())) continue;
+			writeValue(out, dict, val);
+		}
+	}
+	
+	private static void writeValue(Out out, Dict dict, Value val) {
+		out.writeVarInt(dict.of(val.name()));
+		switch (val) {
+		case @SuppressWarnings("preview") BooleanValue v -> {
+			out.write(BOOLEAN_VALUE);
+			out.write(v.value() ? 1 : 0);
+		}
+		case @SuppressWarnings("preview") DoubleValue v -> {
+			out.write(DOUBLE_VALUE);
+			out.writeLong(Double.doubleToRawLongBits(v.value()));
+		}
+		case @SuppressWarnings("preview") EnumValue<?> v -> {
+			out.write(ENUM_VALUE);
+			Class<?> cls = v.value().getDeclaringClass();
+			Module   mod = cls.getModule();
+			out.writeVarInt(dict.of(mod.isNamed() ? mod.getName() + '/' + cls.getName() : cls.getName()));
+			out.writeVarInt(v.value().ordinal());
+		}
+		case @SuppressWarnings("preview") IntValue v -> {
+			out.write(INT_VALUE);
+			out.writeVarInt(zigzag(v.value()));
+		}
+		case @SuppressWarnings("preview") JustAValue v -> out.write(JUST_A_VALUE);
+		case @SuppressWarnings("preview") LongValue v -> {
+			out.write(LONG_VALUE);
+			out.writeVarLong((v.value() << 1) ^ (v.value() >> 63));
+		}
+		case @SuppressWarnings("preview") MapValue<?> v -> {
+			out.write(MAP_VALUE);
+			out.writeVarInt(v.value().size());
+			for (Entry<String, ? extends Value> e : v.value().entrySet()) {
+				out.writeVarInt(dict.of(e.getKey()));
+				writeValue(out, dict, e.getValue());
+			}
+		}
+		case @SuppressWarnings("preview") StringValue v -> {
+			out.write(STRING_VALUE);
+			out.writeVarInt(dict.of(v.value()));
+		}
+		case @SuppressWarnings("preview") TypeValue<?> v -> {
+			out.write(TYPE_VALUE);
+			out.writeVarInt(dict.of(v.value().name));
+		}
+		case @SuppressWarnings("preview") ListValue v -> {
+			out.write(LIST_VALUE);
+			out.writeVarInt(v.value().size());
+			for (Value e : v.value()) {
+				writeValue(out, dict, e);
+			}
+		}
+		case @SuppressWarnings("preview") UserValue v -> {
+			out.write(USER_VALUE);
+			if (v.hasValue()) {
+				out.write(1);
+				out.writeVarInt(dict.of(v.value().name()));
+			} else {
+				out.write(0);
+			}
+		}
+		case @SuppressWarnings("preview") WorldThingValue v -> {
+			out.write(WORLD_THING_VALUE);
+			if (v.knownType() && v.knownUUID()) {
+				out.write(3);
+				out.writeVarInt(dict.of(v.type().name));
+				out.writeUUID(v.uuid());
+			} else if (v.knownType()) {
+				out.write(2);
+				out.writeVarInt(dict.of(v.value().type().name));
+			} else if (v.knownUUID()) {
+				out.write(1);
+				out.writeUUID(v.uuid());
+			} else {
+				out.write(0);
+			}
+		}
+		}
+	}
+	
+	private static int zigzag(int val) {
+		return (val << 1) ^ (val >> 31);
+	}
+	
+	private static int unzigzag(int val) {
+		return (val >>> 1) ^ -(val & 1);
+	}
+	
+	/**
+	 * reads a world, which was written by {@link #write(Connection, int, int, TileSource, boolean)}, the {@link #MAGIC} was already read
+	 * 
+	 * @param tiles the array to fill or <code>null</code>
+	 * @param conn  the connection
+	 * 
+	 * @return the tiles of the world
+	 * 
+	 * @throws IOException if an IO error occurs or a section is corrupt
+	 */
+	static Tile[][] read(Tile[][] tiles, Connection conn) throws IOException {
+		return readLater(tiles, conn).tiles();
+	}
+	
+	/**
+	 * reads the sections of a world, which was written by {@link #write(Connection, int, int, TileSource, boolean)}, the {@link #MAGIC} was already read.
+	 * <p>
+	 * only the reading is done in the current thread, the sections are decoded on the {@link ForkJoinPool#commonPool() common pool}.<br>
+	 * {@link WorldThingValue world thing values} are resolved by the thread which calls {@link Decoding#tiles()}, first with the things of the decoded
+	 * tiles and then with the {@link Connection#world() world} of the connection (if it has a world)
+	 * 
+	 * @param tiles the array to fill or <code>null</code>
+	 * @param conn  the connection
+	 * 
+	 * @return the decoding of the world
+	 * 
+	 * @throws IOException if an IO error occurs or a section is corrupt
+	 */
+	static Decoding readLater(Tile[][] tiles, Connection conn) throws IOException {
+		boolean checks = (conn.readByte() & FLAG_CHECKS) != 0;
+		int     xlen   = conn.readStrictPos();
+		int     ylen   = conn.readStrictPos();
+		In[]    secs   = new In[2 + (xlen + BLOCK_LEN - 1) / BLOCK_LEN];
+		for (int i = 0; i < secs.length; i++) {
+			secs[i] = readSection(conn, checks);
+		}
+		// the world of the connection is not used by the decoding tasks, it may be modified by the current thread
+		Decoding d = new Decoding(tiles, xlen, ylen, secs, conn.usr, uuid -> conn.hasWorld() ? conn.world().get(uuid) : null);
+		ForkJoinPool.commonPool().execute(d);
+		return d;
+	}
+	
+	/**
+	 * decodes a world, which was {@link #encode(int, int, TileSource, boolean) encoded}
+	 * <p>
+	 * {@link WorldThingValue world thing values} are resolved after the world is decoded, first with the things of the decoded tiles and then with
+	 * <code>things</code>
+	 * 
+	 * @param buf    the buffer which contains the encoded world, its position is set to the end of the encoded world
+	 * @param usr    the user used to look up the owners of the entities
+	 * @param things used to resolve world thing values, which refer to things outside of the decoded tiles, returns <code>null</code> if the thing
+	 *                   is unknown
+	 * 
+	 * @return the tiles of the world
+	 * 
+	 * @throws StreamCorruptedException if the data is corrupt
+	 */
+	static Tile[][] decode(ByteBuffer buf, User usr, Function<UUID, WorldThing<?, ?>> things) throws StreamCorruptedException {
+		try {
+			boolean checks = (buf.get() & FLAG_CHECKS) != 0;
+			int     xlen   = buf.getInt();
+			int     ylen   = buf.getInt();
+			if (xlen <= 0 || ylen <= 0) throw new StreamCorruptedException("invalid world size");
+			In[] secs = new In[2 + (xlen + BLOCK_LEN - 1) / BLOCK_LEN];
+			for (int i = 0; i < secs.length; i++) {
+				secs[i] = sliceSection(buf, checks);
+			}
+			Decoding d = new Decoding(null, xlen, ylen, secs, usr, things);
+			d.quietlyInvoke();
+			return d.tiles();
+		} catch (StreamCorruptedException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		} catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+			throw corrupt(e);
+		}
+	}
+	
+	private static StreamCorruptedException corrupt(RuntimeException e) {
+		StreamCorruptedException sce = new StreamCorruptedException("the encoded world is corrupt");
+		sce.initCause(e);
+		return sce;
+	}
+	
+	/*
+	 * resolves the world thing values of the resources, units and builds, which only know the uuid and type of their thing
+	 * this is done after all tiles are decoded, so a value can also refer to a thing of a later tile
+	 */
+	private static void resolve(Tile[][] tiles, Function<UUID, WorldThing<?, ?>> things) {
+		Map<UUID, WorldThing<?, ?>> known = new HashMap<>();
+		List<WorldThing<?, ?>>      refs  = new ArrayList<>();
+		for (Tile[] col : tiles) {
+			for (Tile t : col) {
+				known.put(t.ground().uuid, t.ground());
+				Build b = t.build();
+				if (b != null) {
+					known.put(b.uuid, b);
+					refs.add(b);
+				}
+				t.resourcesStream().forEach(r -> {
+					known.put(r.uuid, r);
+					refs.add(r);
+				});
+				t.unitsStream().forEach(u -> {
+					known.put(u.uuid, u);
+					refs.add(u);
+				});
+			}
+		}
+		Function<UUID, WorldThing<?, ?>> lookup = uuid -> {
+			WorldThing<?, ?> wt = known.get(uuid);
+			return wt != null ? wt : things.apply(uuid);
+		};
+		for (WorldThing<?, ?> wt : refs) {
+			for (Value val : List.copyOf(wt.values().values())) {
+				Value res = resolve(val, lookup);
+				if (res != val) wt.value(res);
+			}
+		}
+	}
+	
+	/* returns the given value if nothing was resolved */
+	private static Value resolve(Value val, Function<UUID, WorldThing<?, ?>> lookup) {
+		switch (val) {
+		case @SuppressWarnings("preview") WorldThingValue v when !v.hasValue() && v.knownUUID() && v.knownType() -> {
+			WorldThing<?, ?> wt = lookup.apply(v.uuid());
+			if (wt == null) return val;
+			if (wt.type() != v.type()) {
+				throw new AssertionError();
+			}
+			return new WorldThingValue(v.name(), wt);
+		}
+		case @SuppressWarnings("preview") MapValue<?> v -> {
+			Map<String, Value> map     = HashMap.newHashMap(v.value().size());
+			boolean            changed = false;
+			for (Entry<String, ? extends Value> e : v.value().entrySet()) {
+				Value res = resolve(e.getValue(), lookup);
+				changed |= res != e.getValue();
+				map.put(e.getKey(), res);
+			}
+			return changed ? new MapValue<>(v.name(), map) : val;
+		}
+		case @SuppressWarnings("preview") ListValue v -> {
+			List<Value> list    = new ArrayList<>(v.value().size());
+			boolean     changed = false;
+			for (Value e : v.value()) {
+				Value res = resolve(e, lookup);
+				changed |= res != e;
+				list.add(res);
+			}
+			return changed ? new ListValue(v.name(), list) : val;
+		}
+		default -> {
+			return val;
+		}
+		}
+	}
+	
+	/**
+	 * the decoding of a world, the dictionary and the ground runs are decoded first, then every content section is decoded in its own task.<br>
+	 * every task only fills its own columns, so the result does not depend on the order of the tasks
+	 * 
+	 * @author Patrick Hechler
+	 */
+	static final class Decoding extends RecursiveAction {
+		
+		private static final long serialVersionUID = -3019867472734615842L;
+		
+		private final Tile[][]                         tiles;
+		private final int                              xlen;
+		private final int                              ylen;
+		private final In[]                             secs;
+		private final User                             usr;
+		private final Function<UUID, WorldThing<?, ?>> things;
+		private IOException                            err;
+		private boolean                                resolved;
+		
+		private Decoding(Tile[][] tiles, int xlen, int ylen, In[] secs, User usr, Function<UUID, WorldThing<?, ?>> things) {
+			if (tiles == null || xlen != tiles.length || ylen != tiles[0].length) {
+				tiles = new Tile[xlen][ylen];
+			}
+			this.tiles  = tiles;
+			this.xlen   = xlen;
+			this.ylen   = ylen;
+			this.secs   = secs;
+			this.usr    = usr;
+			this.things = things;
+		}
+		
+		/**
+		 * creates an already completed decoding
+		 * 
+		 * @param tiles the decoded tiles
+		 * 
+		 * @return the completed decoding
+		 */
+		static Decoding of(Tile[][] tiles) {
+			Decoding d = new Decoding(tiles, tiles.length, tiles[0].length, null, null, null);
+			d.complete(null);
+			return d;
+		}
+		
+		/**
+		 * waits until the world is decoded and returns its tiles
+		 * <p>
+		 * the first call resolves the {@link WorldThingValue world thing values} of the tiles in the current thread
+		 * <p>
+		 * corrupt sections can also let the decoding tasks fail with a {@link RuntimeException} (for example an invalid dictionary index), such an exception
+		 * is thrown as a {@link StreamCorruptedException}
+		 * 
+		 * @return the decoded tiles
+		 * 
+		 * @throws IOException if a section is corrupt
+		 */
+		Tile[][] tiles() throws IOException {
+			try {
+				join();
+			} catch (RuntimeException e) {
+				throw corrupt(e);
+			}
+			if (this.err != null) throw this.err;
+			if (!this.resolved) {
+				this.resolved = true;
+				if (this.things != null) resolve(this.tiles, this.things);
+			}
+			return this.tiles;
+		}
+		
+		/** {@inheritDoc} */
+		@Override
+		protected void compute() {
+			try {
+				decode();
+			} catch (IOException e) {
+				this.err = e;
+			}
+		}
+		
+		private void decode() throws IOException {
+			In       dictIn = this.secs[0];
+			String[] dict   = new String[dictIn.readVarInt()];
+			for (int i = 0; i < dict.length; i++) {
+				dict[i] = dictIn.readString();
+			}
+			In       grnd   = this.secs[1];
+			Ground[] shapes = new Ground[grnd.readVarInt()];
+			for (int i = 0; i < shapes.length; i++) {
+				GroundType         type = (GroundType) Addons.type(dict[grnd.readVarInt()]);
+				Map<String, Value> vals = readValues(grnd, dict, this.usr, new HashMap<>());
+				shapes[i] = withValues(type, vals, new UUID(0L, 0L));
+			}
+			int[][]    seen    = new int[this.xlen][this.ylen];
+			Ground[][] grounds = new Ground[this.xlen][this.ylen];
+			int        x       = 0;
+			int        y       = 0;
+			for (int runs = grnd.readVarInt(); runs > 0; runs--) {
+				Ground shape = shapes[grnd.readVarInt()];
+				int    s     = unzigzag(grnd.readVarInt());
+				for (int len = grnd.readVarInt(); len > 0; len--) {
+					if (x >= this.xlen) throw new StreamCorruptedException("too many grounds");
+					grounds[x][y] = shape;
+					seen[x][y]    = s;
+					if (++y == this.ylen) {
+						y = 0;
+						x++;
+					}
+				}
+			}
+			if (x != this.xlen) throw new StreamCorruptedException("too few grounds");
+			if (grnd.remaining() != this.xlen * 16L * this.ylen) throw new StreamCorruptedException("invalid number of ground uuids");
+			Block[] blocks = new Block[this.secs.length - 2];
+			for (int i = 0; i < blocks.length; i++) {
+				blocks[i] = new Block(this, i * BLOCK_LEN, dict, grnd, grounds, seen);
+			}
+			invokeAll(blocks);
+			for (Block b : blocks) {
+				if (b.err != null) throw b.err;
+			}
+		}
+		
+	}
+	
+	private static final class Block extends RecursiveAction {
+		
+		private static final long serialVersionUID = 6200469137551530254L;
+		
+		private final Decoding   d;
+		private final int        sx;
+		private final String[]   dict;
+		private final In         grnd;
+		private final Ground[][] grounds;
+		private final int[][]    seen;
+		private IOException      err;
+		
+		Block(Decoding d, int sx, String[] dict, In grnd, Ground[][] grounds, int[][] seen) {
+			this.d       = d;
+			this.sx      = sx;
+			this.dict    = dict;
+			this.grnd    = grnd;
+			this.grounds = grounds;
+			this.seen    = seen;
+		}
+		
+		/** {@inheritDoc} */
+		@Override
+		protected void compute() {
+			try {
+				In  block = this.d.secs[2 + this.sx / BLOCK_LEN];
+				int ylen  = this.d.ylen;
+				for (int x = this.sx, ex = Math.min(this.sx + BLOCK_LEN, this.d.xlen); x < ex; x++) {
+					for (int y = 0; y < ylen; y++) {
+						Ground shape = this.grounds[x][y];
+						Ground g     = withValues(shape.type(), shape.values(), this.grnd.uuidAt((x * ylen + y) * 16));
+						this.d.tiles[x][y] = readContent(block, this.dict, this.d.usr, g, this.seen[x][y]);
+					}
+				}
+			} catch (IOException e) {
+				this.err = e;
+			}
+		}
+		
+	}
+	
+	private static In readSection(Connection conn, boolean checks) throws IOException {
+		int len = conn.readPos();
+		if (len > MAX_SECTION_LEN) throw new StreamCorruptedException("the world section is too large: " + len);
+		// the array only grows with the received data, so a wrong length does not allocate much memory
+		byte[] data = new byte[Math.min(len, SECTION_STEP)];
+		conn.readArr(data);
+		for (int off = data.length; off < len;) {
+			byte[] part = new byte[Math.min(len - off, off)];
+			conn.readArr(part);
+			data = Arrays.copyOf(data, off + part.length);
+			System.arraycopy(part, 0, data, off, part.length);
+			off += part.length;
+		}
+		if (checks) {
+			CRC32 crc = new CRC32();
+			crc.update(data);
+			if (conn.readInt() != (int) crc.getValue()) {
+				throw new StreamCorruptedException("the check sum of a world section does not match");
+			}
+		}
+		return new In(ByteBuffer.wrap(data));
+	}
+	
+	private static In sliceSection(ByteBuffer buf, boolean checks) throws StreamCorruptedException {
+		int len = buf.getInt();
+		if (len < 0) throw new StreamCorruptedException("negative section length");
+		ByteBuffer data = buf.slice(buf.position(), len);
+		buf.position(buf.position() + len);
+		if (checks) {
+			CRC32 crc = new CRC32();
+			crc.update(data.duplicate());
+			if (buf.getInt() != (int) crc.getValue()) {
+				throw new StreamCorruptedException("the check sum of a world section does not match");
+			}
+		}
+		return new In(data);
+	}
+	
+	private static Tile readContent(In in, String[] dict, User usr, Ground g, int seen) throws IOException {
+		int                         cnt = in.readVarInt();
+		Map<ResourceType, Resource> r   = HashMap.newHashMap(cnt);
+		while (cnt-- > 0) {
+			Resource res = (Resource) readThing(in, dict, usr);
+			r.put(res.type(), res);
+		}
+		cnt = in.readVarInt();
+		List<Unit> u = new ArrayList<>(cnt);
+		while (cnt-- > 0) {
+			u.add((Unit) readThing(in, dict, usr));
+		}
+		Build b = null;
+		if (in.read() != 0) {
+			b = (Build) readThing(in, dict, usr);
+		}
+		return new Tile(g, r, b, u, seen);
+	}
+	
+	private static WorldThing<?, ?> readThing(In in, String[] dict, User usr) throws IOException {
+		UUID               uuid   = in.readUUID();
+		AddableType<?, ?>  type   = Addons.type(dict[in.readVarInt()]);
+		Map<String, Value> values = new HashMap<>();
+		switch (type) {
+		case @SuppressWarnings("preview") ResourceType r -> values.put(Resource.AMOUNT, new IntValue(Resource.AMOUNT, in.readVarInt()));
+		case @SuppressWarnings("preview") EntityType<?, ?> e -> {
+			values.put(Entity.X, new IntValue(Entity.X, in.readVarInt()));
+			values.put(Entity.Y, new IntValue(Entity.Y, in.readVarInt()));
+			values.put(Entity.OWNER, new UserValue(Entity.OWNER, usr.get(dict[in.readVarInt()])));
+		}
+		case @SuppressWarnings("preview") GroundType g -> {/**/}
+		}
+		return withValues(type, readValues(in, dict, usr, values), uuid);
+	}
+	
+	private static <M extends AddableType<M, A>, A extends WorldThing<M, A>> A withValues(AddableType<M, A> type, Map<String, Value> values, UUID uuid) {
+		try {
+			return type.withValues(values, uuid);
+		} catch (TurnExecutionException e) {
+			throw new AssertionError(e);
+		}
+	}
+	
+	private static Map<String, Value> readValues(In in, String[] dict, User usr, Map<String, Value> values) throws IOException {
+		for (int cnt = in.readVarInt(); cnt > 0; cnt--) {
+			Value val = readValue(in, dict, usr);
+			values.put(val.name(), val);
+		}
+		return values;
+	}
+	
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static Value readValue(In in, String[] dict, User usr) throws IOException {
+		String name = dict[in.readVarInt()];
+		switch (in.read()) {
+		case BOOLEAN_VALUE:
+			return new BooleanValue(name, in.read() != 0);
+		case DOUBLE_VALUE:
+			return new DoubleValue(name, Double.longBitsToDouble(in.readLong()));
+		case ENUM_VALUE: {
+			String   clsName = dict[in.readVarInt()];
+			int      slash   = clsName.indexOf('/');
+			Class<?> cls;
+			if (slash < 0) {
+				try {
+					cls = Class.forName(clsName);
+				} catch (ClassNotFoundException e) {
+					throw new NoClassDefFoundError(e.toString());
+				}
+			} else {
+				Module mod = ModuleLayer.boot().findModule(clsName.substring(0, slash))
+					.orElseThrow(() -> new NoClassDefFoundError(String.format("could not find the module of %s", clsName)));
+				cls = Class.forName(mod, clsName.substring(slash + 1));
+				if (cls == null) throw new NoClassDefFoundError(clsName);
+			}
+			return new EnumValue(name, (Enum) cls.getEnumConstants()[in.readVarInt()]);
+		}
+		case INT_VALUE:
+			return new IntValue(name, unzigzag(in.readVarInt()));
+		case JUST_A_VALUE:
+			return new JustAValue(name);
+		case LONG_VALUE: {
+			long val = in.readVarLong();
+			return new LongValue(name, (val >>> 1) ^ -(val & 1));
+		}
+		case MAP_VALUE: {
+			int                cnt = in.readVarInt();
+			Map<String, Value> map = HashMap.newHashMap(cnt);
+			while (cnt-- > 0) {
+				String k = dict[in.readVarInt()];
+				map.put(k, readValue(in, dict, usr));
+			}
+			return new MapValue<Value>(name, map);
+		}
+		case STRING_VALUE:
+			return new StringValue(name, dict[in.readVarInt()]);
+		case TYPE_VALUE:
+			return new TypeValue(name, Addons.type(dict[in.readVarInt()]));
+		case LIST_VALUE: {
+			int         cnt  = in.readVarInt();
+			List<Value> list = new ArrayList<>(cnt);
+			while (cnt-- > 0) {
+				list.add(readValue(in, dict, usr));
+			}
+			return new ListValue(name, list);
+		}
+		case USER_VALUE: {
+			if (in.read() == 0) return new UserValue(name, null);
+			return new UserValue(name, usr.get(dict[in.readVarInt()]));
+		}
+		case WORLD_THING_VALUE:
+			switch (in.read()) {
+			case 3: {
+				AddableType<?, ?> type = Addons.type(dict[in.readVarInt()]);
+				// resolved after all tiles are decoded
+				return new WorldThingValue(name, in.readUUID(), type);
+			}
+			case 2:
+				return new WorldThingValue(name, null, Addons.type(dict[in.readVarInt()]));
+			case 1:
+				return new WorldThingValue(name, in.readUUID(), null);
+			case 0:
+				return new WorldThingValue(name, (WorldThing<?, ?>) null);
+			default:
+				throw new StreamCorruptedException("invalid world thing value");
+			}
+		default:
+			throw new StreamCorruptedException("invalid value type");
+		}
+	}
+	
+	private static final class Dict {
+		
+		private final Map<String, Integer> indices = new HashMap<>();
+		private final List<String>         list    = new ArrayList<>();
+		
+		int of(String s) {
+			Integer i = this.indices.get(s);
+			if (i == null) {
+				i = Integer.valueOf(this.list.size());
+				this.indices.put(s, i);
+				this.list.add(s);
+			}
+			return i.intValue();
+		}
+		
+	}
+	
+	private static final class Out extends ByteArrayOutputStream {
+		
+		Out() {
+			super(256);
+		}
+		
+		byte[] buf() {
+			return this.buf;
+		}
+		
+		void writeVarInt(int val) {
+			while ((val & ~0x7F) != 0) {
+				write((val & 0x7F) | 0x80);
+				val >>>= 7;
+			}
+			write(val);
+		}
+		
+		void writeVarLong(long val) {
+			while ((val & ~0x7FL) != 0L) {
+				write((int) (val & 0x7F) | 0x80);
+				val >>>= 7;
+			}
+			write((int) val);
+		}
+		
+		void writeInt(int val) {
+			write(val >>> 24);
+			write(val >>> 16);
+			write(val >>> 8);
+			write(val);
+		}
+		
+		void writeLong(long val) {
+			for (int i = 56; i >= 0; i -= 8) {
+				write((int) (val >>> i));
+			}
+		}
+		
+		void writeUUID(UUID uuid) {
+			writeLong(uuid.getMostSignificantBits());
+			writeLong(uuid.getLeastSignificantBits());
+		}
+		
+	}
+	
+	private static final class In {
+		
+		private final ByteBuffer data;
+		
+		In(ByteBuffer data) {
+			this.data = data;
+		}
+		
+		int read() throws StreamCorruptedException {
+			if (!this.data.hasRemaining()) throw new StreamCorruptedException("unexpected end of a world section");
+			return this.data.get() & 0xFF;
+		}
+		
+		int readVarInt() throws StreamCorruptedException {
+			int val   = 0;
+			int shift = 0;
+			while (true) {
+				int b = read();
+				val |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) return val;
+				shift += 7;
+			}
+		}
+		
+		long readVarLong() throws StreamCorruptedException {
+			long val   = 0L;
+			int  shift = 0;
+			while (true) {
+				int b = read();
+				val |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) return val;
+				shift += 7;
+			}
+		}
+		
+		long readLong() throws StreamCorruptedException {
+			if (this.data.remaining() < 8) throw new StreamCorruptedException("unexpected end of a world section");
+			return this.data.getLong();
+		}
+		
+		UUID readUUID() throws StreamCorruptedException {
+			return new UUID(readLong(), readLong());
+		}
+		
+		int remaining() {
+			return this.data.remaining();
+		}
+		
+		/* reads the uuid at the given offset from the current position without changing the position, so it can be used concurrently */
+		UUID uuidAt(int off) {
+			int pos = this.data.position() + off;
+			return new UUID(this.data.getLong(pos), this.data.getLong(pos + 8));
+		}
+		
+		String readString() throws StreamCorruptedException {
+			int len = readVarInt();
+			if (len < 0 || len > this.data.remaining()) throw new StreamCorruptedException("unexpected end of a world section");
+			byte[] bytes = new byte[len];
+			this.data.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+		
+	}
+	
+}
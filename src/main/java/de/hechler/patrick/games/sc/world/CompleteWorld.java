@@ -16,28 +16,42 @@
 // along with this program. If not, see <https://www.gnu.org/licenses/>.
 package de.hechler.patrick.games.sc.world;
 
-import static de.hechler.patrick.games.sc.Settings.threadStart;
-
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOError;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import de.hechler.patrick.games.sc.addons.Addon;
 import de.hechler.patrick.games.sc.addons.Addons;
@@ -55,6 +69,7 @@ import de.hechler.patrick.games.sc.turn.MineTurn;
 import de.hechler.patrick.games.sc.turn.MoveAct;
 import de.hechler.patrick.games.sc.turn.MoveTurn;
 import de.hechler.patrick.games.sc.turn.NextTurnListener;
+import de.hechler.patrick.games.sc.turn.NextTurnQueue;
 import de.hechler.patrick.games.sc.turn.StoreTurn;
 import de.hechler.patrick.games.sc.turn.Turn;
 import de.hechler.patrick.games.sc.turn.WorkTurn;
@@ -66,10 +81,14 @@ import de.hechler.patrick.games.sc.world.ground.Ground;
 import de.hechler.patrick.games.sc.world.init.DefaultUserPlacer;
 import de.hechler.patrick.games.sc.world.init.UserPlacer;
 import de.hechler.patrick.games.sc.world.resource.Resource;
+import de.hechler.patrick.games.sc.world.stats.TurnStats;
+import de.hechler.patrick.games.sc.world.stats.TurnStats.Phase;
+import de.hechler.patrick.games.sc.world.tile.ActiveTiles;
 import de.hechler.patrick.games.sc.world.tile.NeigbourTiles;
 import de.hechler.patrick.games.sc.world.tile.Tile;
 import de.hechler.patrick.utils.objects.DefUnmodPos;
 import de.hechler.patrick.utils.objects.ACORNRandom;
+import de.hechler.patrick.utils.objects.FastHash256;
 
 /**
  * the complete world knows everything
@@ -80,17 +99,46 @@ import de.hechler.patrick.utils.objects.ACORNRandom;
  */
 public class CompleteWorld extends World implements Iterable<CompleteWorld> {
 	
-	private final User                   root;
-	private final Tile[][]               tiles;
-	private final UserPlacer             placer;
-	private final Map<User, UserWorld>   subWorlds;
-	private final List<NextTurnListener> nextTurnListeneres;
-	private final Map<User, Turn>        userTurns;
-	private final List<Map<User, Turn>>  allTurns;
-	private volatile boolean             allowRootTurns;
-	private volatile Tile[][]            starttiles;
-	private volatile byte[]              seed;
-	private volatile ACORNRandom         rnd;
+	private final User                                 root;
+	private final Tile[][]                             tiles;
+	private final UserPlacer                           placer;
+	private final Map<User, UserWorld>                 subWorlds;
+	private final List<NextTurnQueue>                  nextTurnListeneres;
+	private final Map<User, PreparedTurn>              userTurns;
+	private final TurnHistory                          allTurns;
+	private volatile boolean                           allowRootTurns;
+	private volatile boolean                           simultaneousRounds;
+	private volatile WorldSnapshot                     start;
+	private volatile byte[]                            seed;
+	private volatile ACORNRandom                       rnd;
+	private volatile String                            hashAlgorithm;
+	private WorldHashTree                              hashTree;
+	private byte[]                                     startHash;
+	private byte[]                                     historyHash;
+	private ActiveTiles                                activeTiles;
+	private BitSet                                     dirtyChunks;
+	private volatile WorldSnapshot                     snapshot;
+	private volatile int                               keyframeInterval;
+	private final NavigableMap<Integer, WorldSnapshot> keyframes;
+	private final TurnStats.Probe                      probe;
+	private final Queue<Submission>                    submissions;
+	private final AtomicBoolean                        engineRunning;
+	private final Map<User, CompletableFuture<Void>>   pendingTurns;
+	private volatile TurnJournal                       journal;
+	private Map<UUID, Entity<?, ?>>                    entityIndex;
+	private int                                        indexTurn;
+	
+	// users are not comparable, sort them by their name
+	private static final Comparator<User> USER_ORDER = (a, b) -> a.name().compareTo(b.name());
+	
+	/**
+	 * the name of the system property, which can be set to <code>true</code> to compare the incremental world hash with a full recompute after every turn
+	 * <p>
+	 * this is only a debug check, it lets every turn hash the complete world again and only reports a difference on {@link System#err}
+	 */
+	public static final String VERIFY_HASH_PROPERTY = "squareconquerer.world.verify-hash";
+	
+	private static final boolean VERIFY_HASH = Boolean.getBoolean(VERIFY_HASH_PROPERTY);
 	
 	private CompleteWorld(User root, Tile[][] tiles, UserPlacer placer) {
 		this.root               = root;
@@ -98,9 +146,16 @@ public class CompleteWorld extends World implements Iterable<CompleteWorld> {
 		this.placer             = placer == null ? DefaultUserPlacer.createWithDefaults() : placer;
 		this.subWorlds          = new HashMap<>();
 		this.nextTurnListeneres = new ArrayList<>();
-		this.userTurns          = new TreeMap<>();
-		this.allTurns           = new ArrayList<>();
+		this.userTurns          = new TreeMap<>(USER_ORDER);
+		this.allTurns           = new TurnHistory();
 		this.allowRootTurns     = false;
+		this.hashAlgorithm      = WorldHashTree.DEFAULT_ALGORITHM;
+		this.keyframeInterval   = DEFAULT_KEYFRAME_INTERVAL;
+		this.keyframes          = new TreeMap<>();
+		this.probe              = TurnStats.instance().probe();
+		this.submissions        = new ConcurrentLinkedQueue<>();
+		this.engineRunning      = new AtomicBoolean();
+		this.pendingTurns       = new HashMap<>();
 	}
 	
 	private CompleteWorld(CompleteWorld rw, UserPlacer placer) {
@@ -111,10 +166,18 @@ public class CompleteWorld extends World implements Iterable<CompleteWorld> {
 		this.nextTurnListeneres = rw.nextTurnListeneres;
 		this.userTurns          = rw.userTurns;
 		this.allowRootTurns     = rw.allowRootTurns;
+		this.simultaneousRounds = rw.simultaneousRounds;
 		this.allTurns           = rw.allTurns;
-		this.starttiles         = rw.starttiles;
+		this.start              = rw.start;
 		this.seed               = rw.seed;
 		this.rnd                = rw.rnd;
+		this.hashAlgorithm      = rw.hashAlgorithm;
+		this.keyframeInterval   = rw.keyframeInterval;
+		this.keyframes          = rw.keyframes;
+		this.probe              = TurnStats.instance().probe();
+		this.submissions        = rw.submissions;
+		this.engineRunning      = rw.engineRunning;
+		this.pendingTurns       = rw.pendingTurns;
 		if (placer == null || !this.nextTurnListeneres.isEmpty()) throw new AssertionError();
 	}
 	
@@ -139,6 +202,147 @@ public class CompleteWorld extends World implements Iterable<CompleteWorld> {
 		this.allowRootTurns = allowRootTurns;
 	}
 	
+	/**
+	 * returns <code>true</code> if all users make their turns simultaneously and <code>false</code> if the users make their turns one after the other
+	 * <p>
+	 * in the simultaneous mode every {@link #turn()} is a round: all users finish their turn for the round concurrently and when all turns are finished
+	 * their entity turns are executed together in random order.<br>
+	 * the {@link NextTurnListener listeners} are notified once per round
+	 * 
+	 * @return <code>true</code> if all users make their turns simultaneously
+	 */
+	public boolean simultaneousRounds() {
+		return this.simultaneousRounds;
+	}
+	
+	/**
+	 * sets the {@link #simultaneousRounds() simultaneousRounds} value
+	 * 
+	 * @param simultaneousRounds the new {@link #simultaneousRounds() simultaneousRounds} value
+	 * 
+	 * @throws IllegalStateException if the game already started
+	 */
+	public void simultaneousRounds(boolean simultaneousRounds) throws IllegalStateException {
+		if (this.rnd != null) throw new IllegalStateException("the game already started");
+		this.simultaneousRounds = simultaneousRounds;
+	}
+	
+	/**
+	 * returns the name of the hash algorithm, which is used to calculate the world and turn hashes
+	 * 
+	 * @return the name of the hash algorithm
+	 * 
+	 * @see #hashAlgorithm(String)
+	 */
+	public String hashAlgorithm() {
+		return this.hashAlgorithm;
+	}
+	
+	/**
+	 * sets the hash algorithm, which is used to calculate the world and turn hashes
+	 * <p>
+	 * by default <code>SHA-256</code> is used, for trusted games the faster non cryptographic {@link FastHash256#NAME} can be used.<br>
+	 * all other algorithms supported by {@link MessageDigest#getInstance(String)}, which generate 32 byte hashes can also be used
+	 * <p>
+	 * if the game already started all hashes are recalculated with the new algorithm (for example after a world was
+	 * {@link #loadEverything(Connection) loaded})
+	 * 
+	 * @param hashAlgorithm the name of the new hash algorithm
+	 * 
+	 * @throws IllegalArgumentException if the algorithm is not supported
+	 */
+	public synchronized void hashAlgorithm(String hashAlgorithm) throws IllegalArgumentException {
+		WorldHashTree.digest(hashAlgorithm);
+		this.hashAlgorithm = hashAlgorithm;
+		if (this.hashTree != null) {
+			initHashes();
+		}
+	}
+	
+	/**
+	 * the default value of {@link #keyframeInterval()}
+	 */
+	public static final int DEFAULT_KEYFRAME_INTERVAL = 64;
+	
+	/**
+	 * returns the number of turns between two keyframes
+	 * <p>
+	 * every keyframe is the {@link #snapshot() snapshot} of its turn, it is used by {@link #at(int)} to seek to a turn without replaying the complete game
+	 * 
+	 * @return the number of turns between two keyframes
+	 */
+	public int keyframeInterval() {
+		return this.keyframeInterval;
+	}
+	
+	/**
+	 * sets the {@link #keyframeInterval() keyframeInterval} value, this only affects keyframes of future turns
+	 * 
+	 * @param keyframeInterval the new {@link #keyframeInterval() keyframeInterval} value
+	 * 
+	 * @throws IllegalArgumentException if <code>keyframeInterval</code> is not strict positive
+	 */
+	public void keyframeInterval(int keyframeInterval) throws IllegalArgumentException {
+		if (keyframeInterval <= 0) throw new IllegalArgumentException("keyframeInterval <= 0: " + keyframeInterval);
+		this.keyframeInterval = keyframeInterval;
+	}
+	
+	/**
+	 * returns a new world, which is in the state of the given turn
+	 * <p>
+	 * the world is created from the nearest keyframe before the turn, so at most {@link #keyframeInterval()} turns need to be executed again.<br>
+	 * the returned world is independent of this world (later turns of this world do not modify the returned world and the other way around)
+	 * 
+	 * @param turn the turn
+	 * 
+	 * @return a new world in the state of the given turn
+	 * 
+	 * @throws IllegalStateException    if the game did not yet start
+	 * @throws IllegalArgumentException if the turn is negative or after the current turn
+	 */
+	public CompleteWorld at(int turn) throws IllegalStateException, IllegalArgumentException {
+		if (this.rnd == null) throw new IllegalStateException("the game did not yet start");
+		WorldSnapshot    kf;
+		byte[]           kfHistory;
+		List<TurnRecord> turns;
+		synchronized (this) {
+			if (turn < 0 || turn > turn()) throw new IllegalArgumentException("invalid turn: " + turn + " (current turn: " + turn() + ")");
+			Entry<Integer, WorldSnapshot> e = this.keyframes.floorEntry(Integer.valueOf(turn));
+			kf        = e == null ? null : e.getValue();
+			kfHistory = kf == null ? null : this.allTurns.chained(kf.turn());
+			turns     = this.allTurns.view();
+		}
+		CompleteWorld w;
+		if (kf == null) { // a loaded world only knows the current state, so start from the beginning
+			w = new CompleteWorld(this.root, this.start.copyTiles(), this.placer);
+			w.hashAlgorithm = this.hashAlgorithm;
+			w.startGame0(this.seed, false);
+		} else {
+			w = fromKeyframe(kf, kfHistory);
+		}
+		w.allowRootTurns     = this.allowRootTurns;
+		w.simultaneousRounds = this.simultaneousRounds;
+		while (w.turn() < turn) {
+			w.replay(turns.get(w.turn()));
+		}
+		return w;
+	}
+	
+	/* history is the cached hash chain over the turns of the keyframe, so the history does not need to be hashed again */
+	private CompleteWorld fromKeyframe(WorldSnapshot kf, byte[] history) {
+		CompleteWorld w = new CompleteWorld(this.root, kf.copyTiles(), this.placer);
+		w.hashAlgorithm = this.hashAlgorithm;
+		w.start         = this.start;
+		w.seed          = this.seed;
+		w.rnd           = new ACORNRandom(kf.rndState(), true);
+		w.allTurns.addAll(kf.turns());
+		if (history != null) w.allTurns.chained(kf.turn(), history);
+		w.initActiveTiles();
+		w.initHashes();
+		w.updateSnapshot(w.calcHash());
+		return w;
+	}
+	
 	/** {@inheritDoc} */
 	@Override
 	public User user() {
@@ -168,60 +372,188 @@ public class CompleteWorld extends World implements Iterable<CompleteWorld> {
 		return this.tiles[x][y];
 	}
 	
-	private byte[] calcHash() {
-		MessageDigest digest;
-		try {
-			digest = MessageDigest.getInstance("SHA-256"); //$NON-NLS-1$
-		} catch (NoSuchAlgorithmException e) {
-			throw new AssertionError(String.format("SHA-256 was not found: %s", e), e);
+	/**
+	 * returns the tiles which contain things that need to be notified after a turn or <code>null</code> if the game did not yet start
+	 * 
+	 * @return the active tiles of this world or <code>null</code>
+	 */
+	public ActiveTiles activeTiles() {
+		return this.activeTiles;
+	}
+	
+	private void initActiveTiles() {
+		ActiveTiles at = new ActiveTiles(this.tiles.length, this.tiles[0].length);
+		for (int x = 0; x < this.tiles.length; x++) {
+			for (int y = 0; y < this.tiles[x].length; y++) {
+				this.tiles[x][y].activeTiles(at, x, y);
+			}
+		}
+		this.activeTiles = at;
+	}
+	
+	private void markDirty(int x, int y) {
+		this.hashTree.markDirty(x, y);
+		this.dirtyChunks.set(WorldSnapshot.chunk(x, y, this.tiles[0].length));
+	}
+	
+	private void markAllDirty() {
+		this.hashTree.markAllDirty();
+		this.dirtyChunks.set(0, WorldSnapshot.chunkCount(this.tiles.length, this.tiles[0].length));
+	}
+	
+	private void updateSnapshot(byte[] hash) {
+		WorldSnapshot snap = WorldSnapshot.next(this.snapshot, this.tiles, this.dirtyChunks, turn(), this.rnd.getCurrentState().clone(),
+			this.allTurns.view(), hash);
+		this.snapshot = snap;
+		if (this.keyframes.isEmpty() || snap.turn() % this.keyframeInterval == 0) {
+			this.keyframes.put(Integer.valueOf(snap.turn()), snap);
 		}
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		Connection            conn = Connection.createUnsecure(this.root, baos, this);
+	}
+	
+	/**
+	 * returns the {@link TurnJournal journal} of this world or <code>null</code> if this world has no journal
+	 * 
+	 * @return the journal of this world or <code>null</code>
+	 */
+	public TurnJournal journal() {
+		return this.journal;
+	}
+	
+	/* only used by the journal */
+	void journal(TurnJournal journal) {
+		this.journal = journal;
+	}
+	
+	/**
+	 * returns the immutable {@link WorldSnapshot snapshot} of the last completed turn or <code>null</code> if the game did not yet start
+	 * <p>
+	 * the snapshot can be used without holding the lock of this world, so readers do not delay the execution of the next turn
+	 * 
+	 * @return the snapshot of the last completed turn or <code>null</code>
+	 */
+	public WorldSnapshot snapshot() {
+		return this.snapshot;
+	}
+	
+	/* returns the hash tree of the start tiles, which can be used to share the unchanged chunks of the start tiles */
+	private WorldHashTree initHashes() {
+		WorldSnapshot s         = this.start;
+		WorldHashTree startTree = new WorldHashTree(this.root, this.hashAlgorithm, s.xlen(), s.ylen());
+		this.startHash   = startTree.update(s::tile);
+		this.hashTree    = new WorldHashTree(this.root, this.hashAlgorithm, this.tiles.length, this.tiles[0].length);
+		this.historyHash = new byte[WorldHashTree.HASH_LEN];
+		this.dirtyChunks = new BitSet();
+		// only the turns after the last cached hash chain need to be hashed
+		int known = this.allTurns.size();
+		while (known > 0 && this.allTurns.chained(known) == null) known--;
+		if (known > 0) this.historyHash = this.allTurns.chained(known);
+		for (int i = known; i < this.allTurns.size(); i++) {
+			chainHistory(i);
+		}
+		return startTree;
+	}
+	
+	/*
+	 * lets the start tiles share all chunks with the current snapshot, which were not changed since the game started, so the start tiles only cost the
+	 * memory of the changed chunks
+	 */
+	private void shareStart(WorldHashTree startTree) {
+		BitSet same = new BitSet();
+		startTree.sameChunks(this.hashTree, same);
+		this.start = this.start.share(this.snapshot, same);
+	}
+	
+	/* chains the turn with the given index to the history hash and caches the result in the turn history */
+	private void chainHistory(int index) {
+		MessageDigest digest = this.hashTree.digest();
+		digest.reset();
+		digest.update(this.historyHash);
 		try {
-			saveEverything(conn, false);
+			this.allTurns.get(index).hash(this.hashTree.connection());
 		} catch (IOException e) {
 			throw new IOError(e);
 		}
-		return digest.digest(baos.toByteArray());
+		this.historyHash = digest.digest();
+		this.allTurns.chained(index + 1, this.historyHash);
 	}
 	
-	private byte[] calcHashOnlyWorld() {
-		MessageDigest digest;
-		try {
-			digest = MessageDigest.getInstance("SHA-256"); //$NON-NLS-1$
-		} catch (NoSuchAlgorithmException e) {
-			throw new AssertionError(String.format("SHA-256 was not found: %s", e), e);
-		}
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		Connection            conn = Connection.createUnsecure(this.root, baos, this);
+	/*
+	 * only the tiles marked as dirty are hashed again, the start world is hashed once and the turn history is represented by a hash chain, so the cost does
+	 * not grow with the map size or the game length
+	 */
+	private byte[] calcHash() {
+		byte[]        worldRoot = this.hashTree.update(this.tiles);
+		if (VERIFY_HASH && !Arrays.equals(worldRoot,
+			new WorldHashTree(this.root, this.hashAlgorithm, this.tiles.length, this.tiles[0].length).update(this.tiles))) {
+			// only report it, the turn is already recorded
+			System.err.println("the incremental world hash differs from the hash of a full recompute (turn " + this.allTurns.size() + ')');
+		}
+		MessageDigest digest    = this.hashTree.digest();
+		Connection    conn      = this.hashTree.connection();
+		digest.reset();
 		try {
-			OpenWorld.saveWorld(this, conn);
+			long[] arr = this.rnd.getCurrentState();
+			conn.writeInt(arr.length);
+			for (int i = 0; i < arr.length; i++) {
+				conn.writeLong(arr[i]);
+			}
+			conn.writeInt(this.seed.length);
+			conn.writeArr(this.seed);
+			User r = User.nopw(this.root.name());
+			this.root.subUsers().keySet().forEach(r::addNopw);
+			r.save(conn);
+			conn.writeArr(worldRoot);
+			conn.writeArr(this.startHash);
+			conn.writeArr(this.historyHash);
+			conn.writeString(this.placer.getClass().getName());
 		} catch (IOException e) {
 			throw new IOError(e);
 		}
-		return digest.digest(baos.toByteArray());
+		return digest.digest();
 	}
 	
-	private static byte[] calcHash(byte[] data) {
-		MessageDigest digest;
+	private byte[] calcHash(TurnRecord rec) {
+		MessageDigest digest = this.hashTree.digest();
+		digest.reset();
 		try {
-			digest = MessageDigest.getInstance("SHA-256"); //$NON-NLS-1$
-		} catch (NoSuchAlgorithmException e) {
-			throw new AssertionError(String.format("SHA-256 was not found: %s", e), e);
+			rec.hash(this.hashTree.connection());
+		} catch (IOException e) {
+			throw new IOError(e);
 		}
-		return digest.digest(data);
+		return digest.digest();
+	}
+	
+	/**
+	 * returns the current hash of the complete game
+	 * <p>
+	 * this is the same hash which is passed to the {@link NextTurnListener listeners} after a turn was executed.<br>
+	 * the hash only depends on the game state, so a world {@link #loadEverything(Connection) loaded} from a {@link #validateGame(Connection) validation} has
+	 * the same hash as the original world (if both use the same {@link #hashAlgorithm() algorithm})
+	 * 
+	 * @return the current hash of the complete game
+	 * 
+	 * @throws IllegalStateException if the game did not yet start
+	 */
+	public synchronized byte[] worldHash() throws IllegalStateException {
+		if (this.hashTree == null) throw new IllegalStateException("the game did not yet start");
+		return calcHash();
 	}
 	
 	private void executeNTL(byte[] myhash, byte[] turnhash) {
-		for (NextTurnListener r : this.nextTurnListeneres) {
-			r.nextTurn(this.allTurns.size(), myhash, turnhash);
+		for (NextTurnQueue r : this.nextTurnListeneres) {
+			try { // the turn is already executed, a failing listener must not affect the other listeners or the turn
+				r.nextTurn(this.allTurns.size(), myhash, turnhash);
+			} catch (RuntimeException | Error e) {
+				System.err.println("error while notifying a next turn listener:");
+				e.printStackTrace();
+			}
 		}
 	}
 	
 	/** {@inheritDoc} */
 	@Override
 	public int turn() {
-		return this.starttiles == null ? -1 : this.allTurns.size();
+		return this.start == null ? -1 : this.allTurns.size();
 	}
 	
 	/**
@@ -282,8 +614,8 @@ public class CompleteWorld extends World implements Iterable<CompleteWorld> {
 		if (this.rnd == null) throw new IllegalStateException("the game did not yet start");
 		return new Iterator<>() {
 			
-			private Iterator<Map<User, Turn>> iter  = CompleteWorld.this.allTurns.iterator();
-			private CompleteWorld             world = null;
+			private Iterator<TurnRecord> iter  = CompleteWorld.this.allTurns.iterator();
+			private CompleteWorld        world = null;
 			
 			@Override
 			public boolean hasNext() {
@@ -293,16 +625,16 @@ public class CompleteWorld extends World implements Iterable<CompleteWorld> {
 			@Override
 			public CompleteWorld next() {
 				if (this.world == null) { // do a copy of the start tiles
-					this.world = Builder.create(CompleteWorld.this.root, CompleteWorld.this.starttiles, CompleteWorld.this.placer);
+					this.world = new CompleteWorld(CompleteWorld.this.root, CompleteWorld.this.start.copyTiles(), CompleteWorld.this.placer);
+					this.world.hashAlgorithm      = CompleteWorld.this.hashAlgorithm;
+					this.world.allowRootTurns     = CompleteWorld.this.allowRootTurns;
+					this.world.simultaneousRounds = CompleteWorld.this.simultaneousRounds;
 				} else if (!this.world.started()) {
 					this.world.startGame0(CompleteWorld.this.seed, false);
 				} else if (!this.iter.hasNext()) {
 					throw new NoSuchElementException("no more elements");
 				} else {
-					Map<User, Turn> val = this.iter.next();
-					for (Turn t : val.values()) {
-						this.world.finish(t);
-					}
+					this.world.replay(this.iter.next());
 				}
 				return this.world;
 			}
@@ -314,81 +646,238 @@ public class CompleteWorld extends World implements Iterable<CompleteWorld> {
 	private static final int RWS_SUB0   = 0x327B8CFB;
 	private static final int RWS_SUB1   = 0xCC2BB5FA;
 	private static final int RWS_SUB2   = 0xB5F22CF2;
+	private static final int RWS_DELTA  = 0x4E81D7A5;
 	private static final int RWS_SUB3   = 0xBA376590;
 	private static final int RWS_SUB4   = 0x2DB9E5C9;
 	private static final int RWS_SUB5   = 0x0FFE8516;
-	private static final int RWS_SUB6   = 0xB99A5E60;
+	private static final int RWS_RECORD = 0x6A1D93C7;
 	private static final int RWS_SUB7   = 0x8B25AC3E;
 	private static final int RWS_SUB8   = 0xB6676572;
+	private static final int RWS_ROUNDS = 0x5E2C71A3;
 	private static final int RWS_FINISH = 0x934ABD64;
+	private static final int RWS_SECTS  = 0x1F7A42D6;
+	
+	/**
+	 * the names of the sections of a complete save
+	 * 
+	 * @see SaveInfo#sections()
+	 */
+	public static final List<String> SAVE_SECTIONS = List.of("state", "users", "world", "start", "sub-worlds", "turns", "placer");
 	
 	/**
 	 * saves the current world, the initial world, the random seed, all sub worlds and their users and the game history to the given connection
+	 * <p>
+	 * the world, the random state and the game history are saved from the {@link #snapshot() snapshot} of the last completed turn, so saving does not block
+	 * the execution of turns
+	 * <p>
+	 * the save is divided in the {@link #SAVE_SECTIONS sections}, each section is prefixed by its length
 	 * 
 	 * @param conn the connection which should be used to save everything
 	 * 
 	 * @throws IOException if an IO error occurs
 	 */
-	public synchronized void saveEverything(Connection conn) throws IOException {
-		conn.blocked(() -> saveEverything(conn, true));
-	}
-	
-	private /* synchronized */ void saveEverything(Connection conn, boolean savePWs) throws IOException {
-		if (this.seed == null) throw new IllegalStateException("the game did not yet start");
-		conn.writeInt(RWS_START);
-		long[] arr = this.rnd.getCurrentState();
-		conn.writeInt(arr.length);
-		for (int i = 0; i < arr.length; i++) {
-			conn.writeLong(arr[i]);
-		}
-		conn.writeInt(this.seed.length);
-		conn.writeArr(this.seed);
-		conn.writeInt(RWS_SUB0);
-		if (savePWs) {
-			this.root.save(conn);
-		} else {
-			User r = User.nopw(this.root.name());
-			this.root.subUsers().keySet().forEach(r::addNopw);
-			r.save(conn);
+	public void saveEverything(Connection conn) throws IOException {
+		byte[][] secs = saveSections(this.snapshot, true).data;
+		conn.blocked(() -> writeSections(conn, secs));
+	}
+	
+	/**
+	 * saves everything to the given stream, the save starts with an unencrypted {@link SaveInfo header}, which is followed by an encrypted
+	 * {@link #saveEverything(Connection) save}
+	 * <p>
+	 * the stream is closed by this method
+	 * 
+	 * @param out the stream which should be used to save everything
+	 * 
+	 * @throws IOException if an IO error occurs
+	 * 
+	 * @see SaveInfo#read(java.nio.file.Path)
+	 */
+	public void saveEverything(OutputStream out) throws IOException {
+		saveEverything(out, this.snapshot);
+	}
+	
+	/**
+	 * saves everything like {@link #saveEverything(OutputStream)}, but uses the given snapshot instead of the current one
+	 * <p>
+	 * if a sub world already shows a newer turn than the given snapshot, the newest snapshot is saved instead
+	 * 
+	 * @param out  the stream which should be used to save everything
+	 * @param snap a snapshot of this world
+	 * 
+	 * @return the snapshot which was saved
+	 * 
+	 * @throws IOException if an IO error occurs
+	 */
+	WorldSnapshot saveEverything(OutputStream out, WorldSnapshot snap) throws IOException {
+		try (OutputStream o = out) {
+			Sections secs = saveSections(snap, true);
+			SaveInfo.of(this, secs.snap, SAVE_SECTIONS, secs.data, 8L).write(o);
+			try (Connection conn = Connection.OneWayAccept.acceptWriteOnly(o, this.root, this)) {
+				conn.blocked(() -> writeSections(conn, secs.data));
+			}
+			return secs.snap;
+		}
+	}
+	
+	private static void writeSections(Connection conn, byte[][] secs) throws IOException {
+		conn.writeInt(RWS_SECTS);
+		conn.writeInt(secs.length);
+		for (byte[] sec : secs) {
+			conn.writeInt(sec.length);
+			conn.writeArr(sec);
+		}
+	}
+	
+	private interface SectionWriter {
+		
+		void write(Connection conn) throws IOException;
+		
+	}
+	
+	/*
+	 * the serialized sections and the snapshot of which they were created
+	 */
+	private record Sections(WorldSnapshot snap, byte[][] data) {}
+	
+	/*
+	 * the sub worlds at the turn of the snapshot
+	 */
+	private record SubWorlds(WorldSnapshot snap, List<Entry<User, UserWorld.Saved>> subs) {}
+	
+	/*
+	 * returns the sub worlds at the turn of the given snapshot, if a sub world already shows a newer turn, the sub worlds at the newest snapshot are
+	 * returned
+	 */
+	private SubWorlds saveSubWorlds(WorldSnapshot snap) {
+		List<Entry<User, UserWorld>> subs = new ArrayList<>(this.subWorlds.entrySet());
+		while (true) {
+			List<Entry<User, UserWorld.Saved>> res = new ArrayList<>(subs.size());
+			for (Entry<User, UserWorld> e : subs) {
+				UserWorld.Saved saved = e.getValue().saved(snap);
+				if (saved == null) break;
+				res.add(Map.entry(e.getKey(), saved));
+			}
+			if (res.size() == subs.size()) return new SubWorlds(snap, res);
+			snap = this.snapshot;
+		}
+	}
+	
+	private byte[] section(SectionWriter writer) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (Connection conn = Connection.createUnsecure(this.root, out, this)) {
+			writer.write(conn);
+		}
+		return out.toByteArray();
+	}
+	
+	/*
+	 * the sections contain the same data as a save of an older version (after RWS_START), so they can be read by the same code.
+	 * the sections only read immutable data (the snapshot and copies of the sub worlds at the turn of the snapshot) and are serialized in parallel on the
+	 * common pool
+	 */
+	private /* synchronized */ Sections saveSections(WorldSnapshot start, boolean savePWs) throws IOException {
+		if (start == null) throw new IllegalStateException("the game did not yet start");
+		SubWorlds                          saved = saveSubWorlds(start);
+		WorldSnapshot                      snap  = saved.snap;
+		List<Entry<User, UserWorld.Saved>> subs  = saved.subs;
+		SectionWriter[]                    secs  = new SectionWriter[SAVE_SECTIONS.size()];
+		secs[0] = conn -> {
+			long[] arr = snap.rndState();
+			conn.writeInt(arr.length);
+			for (int i = 0; i < arr.length; i++) {
+				conn.writeLong(arr[i]);
+			}
+			conn.writeInt(this.seed.length);
+			conn.writeArr(this.seed);
+		};
+		secs[1] = conn -> {
+			conn.writeInt(RWS_SUB0);
+			if (savePWs) {
+				this.root.save(conn);
+			} else {
+				User r = User.nopw(this.root.name());
+				this.root.subUsers().keySet().forEach(r::addNopw);
+				r.save(conn);
+			}
+		};
+		secs[2] = conn -> {
+			conn.writeInt(RWS_SUB1);
+			OpenWorld.saveWorld(snap, conn);
+		};
+		secs[3] = conn -> {
+			conn.writeInt(RWS_DELTA); // only the chunks changed since the start of the game
+			this.start.writeDelta(snap, conn);
+		};
+		secs[4] = conn -> {
+			conn.writeInt(RWS_SUB3);
+			conn.writeInt(subs.size());
+		};
+		secs[5] = conn -> {
+			conn.writeInt(RWS_SUB5);
+			List<TurnRecord> turns = snap.turns();
+			conn.writeInt(turns.size());
+			for (TurnRecord rec : turns) {
+				conn.writeInt(RWS_RECORD);
+				rec.write(conn);
+			}
+		};
+		secs[6] = conn -> {
+			conn.writeInt(RWS_SUB7);
+			conn.writeString(this.placer.getClass().getName());
+			conn.writeInt(RWS_SUB8);
+			this.placer.writePlacer(conn);
+			if (this.simultaneousRounds) {
+				conn.writeInt(RWS_ROUNDS);
+			}
+			conn.writeInt(RWS_FINISH);
+		};
+		List<SectionWriter> parts = new ArrayList<>(Arrays.asList(secs)); // every sub world is a part of its own, they are appended to the 5th section
+		for (Entry<User, UserWorld.Saved> e : subs) {
+			parts.add(conn -> {
+				User            usr = e.getKey();
+				UserWorld.Saved uw  = e.getValue();
+				conn.writeString(usr.name());
+				conn.writeInt(RWS_SUB4);
+				DefUnmodPos p = uw.offset();
+				conn.writeInt(p.x());
+				conn.writeInt(p.y());
+				Tile[][] ts = uw.tiles();
+				CompactWorldFormat.write(conn, ts.length, ts[0].length, (x, y) -> ts[x][y], true);
+			});
+		}
+		List<ForkJoinTask<byte[]>> tasks = new ArrayList<>(parts.size());
+		for (SectionWriter w : parts) {
+			tasks.add(ForkJoinPool.commonPool().submit(() -> section(w)));
+		}
+		byte[][]              res  = new byte[secs.length][];
+		ByteArrayOutputStream sec4 = new ByteArrayOutputStream();
+		for (int i = 0; i < tasks.size(); i++) {
+			try {
+				byte[] bytes = tasks.get(i).get();
+				if (i == 4 || i >= res.length) sec4.writeBytes(bytes);
+				else res[i] = bytes;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(e.toString());
+			} catch (ExecutionException e) {
+				Throwable c = e.getCause();
+				if (c instanceof IOException ioe) throw ioe;
+				if (c instanceof RuntimeException re) throw re;
+				if (c instanceof Error err) throw err;
+				throw new AssertionError(e);
+			}
 		}
-		conn.writeInt(RWS_SUB1);
-		OpenWorld.saveWorld(this, conn);
-		conn.writeInt(RWS_SUB2); // I just need a world with the startTiles
-		OpenWorld.saveWorld(new CompleteWorld(this.root, this.starttiles, this.placer), conn);
-		conn.writeInt(RWS_SUB3);
-		conn.writeInt(this.subWorlds.size());
-		for (Entry<User, UserWorld> e : this.subWorlds.entrySet()) {
-			User      usr = e.getKey();
-			UserWorld uw  = e.getValue();
-			conn.writeString(usr.name());
-			conn.writeInt(RWS_SUB4);
-			DefUnmodPos p = uw.offset();
-			conn.writeInt(p.x());
-			conn.writeInt(p.y());
-			OpenWorld.saveWorld(uw, conn);
-		}
-		conn.writeInt(RWS_SUB5);
-		conn.writeInt(this.allTurns.size());
-		for (Map<User, Turn> ts : this.allTurns) {
-			conn.writeInt(RWS_SUB6);
-			conn.writeInt(ts.size());
-			for (Entry<User, Turn> e : ts.entrySet()) {
-				User u = e.getKey();
-				Turn t = e.getValue();
-				conn.writeString(u.name());
-				conn.writeInt(RWS_SUB7);
-				t.sendTurn(conn);
-			}
-		}
-		conn.writeInt(RWS_SUB7);
-		conn.writeString(this.placer.getClass().getName());
-		conn.writeInt(RWS_SUB8);
-		this.placer.writePlacer(conn);
-		conn.writeInt(RWS_FINISH);
+		res[4] = sec4.toByteArray();
+		return new Sections(snap, res);
 	}
 	
+	private record SubWorldLoad(User usr, int xoff, int yoff, CompactWorldFormat.Decoding tiles) {}
+	
 	/**
 	 * loads the current world, the initial world, the random seed, all sub worlds and their users and the game history from the given connection
+	 * <p>
+	 * the worlds are decoded in parallel on the {@link java.util.concurrent.ForkJoinPool#commonPool() common pool}
 	 * 
 	 * @param conn the connection which stores everything
 	 * 
@@ -397,7 +886,43 @@ public class CompleteWorld extends World implements Iterable<CompleteWorld> {
 	 * @throws IOException if an IO error occurs
 	 */
 	public static CompleteWorld loadEverything(Connection conn) throws IOException {
-		conn.readInt(RWS_START);
+		if (conn.readInt(RWS_START, RWS_SECTS) == RWS_START) { // saves of older versions have no sections
+			return loadSections(conn);
+		}
+		conn.readInt(SAVE_SECTIONS.size());
+		List<InputStream> secs = new ArrayList<>(SAVE_SECTIONS.size());
+		for (int i = 0; i < SAVE_SECTIONS.size(); i++) {
+			byte[] sec = new byte[conn.readPos()];
+			conn.readArr(sec);
+			secs.add(new ByteArrayInputStream(sec));
+		}
+		World w = conn.hasWorld() ? conn.world() : null;
+		try (Connection sc = Connection.createUnsecure(conn.usr, new SequenceInputStream(Collections.enumeration(secs)), w)) {
+			return loadSections(sc);
+		}
+	}
+	
+	/**
+	 * loads everything from the given stream, which contains a save with an optional {@link SaveInfo header}
+	 * <p>
+	 * the stream is closed by this method
+	 * 
+	 * @param in  the stream which stores everything
+	 * @param usr the user of the save
+	 * 
+	 * @return the loaded {@link CompleteWorld}
+	 * 
+	 * @throws IOException if an IO error occurs
+	 * 
+	 * @see #saveEverything(OutputStream)
+	 */
+	public static CompleteWorld loadEverything(InputStream in, User usr) throws IOException {
+		try (InputStream i = in; Connection conn = Connection.OneWayAccept.acceptReadOnly(SaveInfo.skip(i), usr, null)) {
+			return loadEverything(conn);
+		}
+	}
+	
+	private static CompleteWorld loadSections(Connection conn) throws IOException {
 		long[] curState = new long[conn.readStrictPos()];
 		for (int i = 0; i < curState.length; i++) {
 			curState[i] = conn.readLong();
@@ -408,37 +933,30 @@ public class CompleteWorld extends World implements Iterable<CompleteWorld> {
 		User root = conn.usr;
 		root.load(conn);
 		conn.readInt(RWS_SUB1);
-		Tile[][]      tiles = OpenWorld.loadWorld(null, conn);
-		CompleteWorld res   = Builder.create(root, tiles);
-		conn.readInt(RWS_SUB2);
-		res.starttiles = OpenWorld.loadWorld(null, conn);
-		conn.readInt(RWS_SUB2);
-		res.seed = seed;
-		res.rnd  = new ACORNRandom(curState, true);
+		// the worlds are decoded in parallel while the rest is read, the results are used in the order they were read
+		CompactWorldFormat.Decoding tiles = OpenWorld.loadWorldLater(conn);
+		CompactWorldFormat.Decoding starttiles = null;
+		WorldSnapshot.Delta         startDelta = null;
+		if (conn.readInt(RWS_SUB2, RWS_DELTA) == RWS_SUB2) { // saves of older versions contain the complete start world
+			starttiles = OpenWorld.loadWorldLater(conn);
+		} else {
+			startDelta = WorldSnapshot.readDelta(conn);
+		}
+		conn.readInt(RWS_SUB3);
+		List<SubWorldLoad> subs = new ArrayList<>();
 		for (int remain = conn.readPos(); remain > 0; remain--) {
 			String name = conn.readString();
 			User   usr  = root.get(name);
 			conn.readInt(RWS_SUB4);
-			int       xoff     = conn.readPos();
-			int       yoff     = conn.readPos();
-			Tile[][]  usrTiles = OpenWorld.loadWorld(null, conn);
-			UserWorld uw       = res.usrOf(usr, 0);
-			uw.init(usrTiles, xoff, yoff);
+			int xoff = conn.readPos();
+			int yoff = conn.readPos();
+			subs.add(new SubWorldLoad(usr, xoff, yoff, OpenWorld.loadWorldLater(conn)));
 		}
 		conn.readInt(RWS_SUB5);
+		List<TurnRecord> turns = new ArrayList<>();
 		for (int remain = conn.readInt(); remain > 0; remain--) {
-			conn.readInt(RWS_SUB6);
-			Map<User, Turn> add = new HashMap<>();
-			for (int iremain = conn.readInt(); iremain > 0; iremain--) {
-				String name = conn.readString();
-				User   usr  = root.get(name);
-				conn.readInt(RWS_SUB7);
-				Turn t = new Turn(res.usrOf(usr, 0));
-				conn.readInt(Turn.CMD_TURN);
-				t.retrieveTurn(conn);
-				add.put(usr, t);
-			}
-			res.allTurns.add(add);
+			conn.readInt(RWS_RECORD);
+			turns.add(TurnRecord.read(conn));
 		}
 		conn.readInt(RWS_SUB7);
 		try {
@@ -446,8 +964,28 @@ public class CompleteWorld extends World implements Iterable<CompleteWorld> {
 			conn.readInt(RWS_SUB8);
 			Method     met    = placerCls.getMethod("readPlacer", Connection.class); //$NON-NLS-1$
 			UserPlacer placer = (UserPlacer) met.invoke(null, conn);
-			conn.readInt(RWS_FINISH);
-			return new CompleteWorld(res, placer);
+			boolean    rounds = false;
+			if (conn.readInt(RWS_ROUNDS, RWS_FINISH) == RWS_ROUNDS) {
+				rounds = true;
+				conn.readInt(RWS_FINISH);
+			}
+			CompleteWorld res = Builder.create(root, tiles.tiles());
+			// the start tiles use the current tiles until they share the chunks of the snapshot
+			res.start              = starttiles != null ? WorldSnapshot.wrap(starttiles.tiles()) : startDelta.apply(WorldSnapshot.wrap(res.tiles));
+			res.seed               = seed;
+			res.rnd                = new ACORNRandom(curState, true);
+			res.simultaneousRounds = rounds;
+			for (SubWorldLoad sub : subs) {
+				UserWorld uw = res.usrOf(sub.usr, 0);
+				uw.init(sub.tiles.tiles(), sub.xoff, sub.yoff);
+			}
+			res.allTurns.addAll(turns);
+			CompleteWorld result = new CompleteWorld(res, placer);
+			result.initActiveTiles();
+			WorldHashTree startTree = result.initHashes();
+			result.updateSnapshot(result.calcHash());
+			result.shareStart(startTree);
+			return result;
 		} catch (IllegalAccessException | NoSuchMethodException | SecurityException | ClassNotFoundException e) {
 			throw new AssertionError(e);
 		} catch (InvocationTargetException e) {
@@ -474,7 +1012,7 @@ public class CompleteWorld extends World implements Iterable<CompleteWorld> {
 		Map<String, User> map    = this.root.subUsers();
 		Collection<User>  values = map.values();
 		User[]            users  = values.toArray(new User[values.size()]);
-		Arrays.sort(users, null);
+		Arrays.sort(users, USER_ORDER);
 		int i;
 		for (i = 1; user != users[i]; i++) {/**/}
 		i *= 16;
@@ -506,15 +1044,8 @@ public class CompleteWorld extends World implements Iterable<CompleteWorld> {
 	private synchronized void startGame0(byte[] s, boolean modifyRoot) {
 		if (s == null) throw new NullPointerException("seed is null");
 		if (this.rnd != null) throw new IllegalStateException("the game already started");
-		byte[] hash;
 		synchronized (this.root) {
-			hash            = calcHashOnlyWorld();
-			this.starttiles = new Tile[this.tiles.length][this.tiles[0].length];
-			for (int x = 0; x < this.starttiles.length; x++) {
-				for (int y = 0; y < this.starttiles[x].length; y++) {
-					this.starttiles[x][y] = this.tiles[x][y].copy();
-				}
-			}
+			this.start = WorldSnapshot.of(this.tiles);
 			if (modifyRoot) this.root.allowNewUsers(false);
 			Map<String, User> map    = this.root.subUsers();
 			Collection<User>  values = map.values();
@@ -522,7 +1053,7 @@ public class CompleteWorld extends World implements Iterable<CompleteWorld> {
 			long[]            sval   = seed(s);
 			this.seed = s;
 			this.rnd  = new ACORNRandom(sval, true);
-			Arrays.sort(users, null);
+			Arrays.sort(users, USER_ORDER);
 			shuffle(this.rnd, users);
 			Tile.noCheck(() -> {
 				try {
@@ -531,8 +1062,12 @@ public class CompleteWorld extends World implements Iterable<CompleteWorld> {
 					throw new IllegalStateException(e);
 				}
 			});
+			initActiveTiles();
+			WorldHashTree startTree = initHashes();
+			updateSnapshot(calcHash());
+			shareStart(startTree);
 		}
-		threadStart(() -> executeNTL(hash, null));
+		executeNTL(this.startHash, null);
 	}
 	
 	private static long[] seed(byte[] s) {
@@ -592,24 +1127,50 @@ public class CompleteWorld extends World implements Iterable<CompleteWorld> {
 	 * 
 	 * @see #RW_VAL_GAME
 	 */
-	public synchronized void validateGame(Connection conn) throws IOException {
+	public void validateGame(Connection conn) throws IOException {
 		conn.blocked(() -> {
 			conn.writeReadInt(RW_VAL_GAME, SUB0_VAL_GAME);
-			saveEverything(conn, false);
+			writeSections(conn, saveSections(this.snapshot, false).data);
 			conn.writeInt(FIN_VAL_GAME);
 		});
 	}
 	
-	/** {@inheritDoc} */
+	/**
+	 * adds the given listener
+	 * <p>
+	 * the listener is notified asynchronously with its own {@link NextTurnQueue}, so a slow listener never delays the execution of a turn
+	 * <p>
+	 * {@inheritDoc}
+	 */
 	@Override
 	public synchronized void addNextTurnListener(NextTurnListener listener) {
-		this.nextTurnListeneres.add(listener);
+		this.nextTurnListeneres.add(new NextTurnQueue(listener));
 	}
 	
 	/** {@inheritDoc} */
 	@Override
 	public synchronized void removeNextTurnListener(NextTurnListener listener) {
-		this.nextTurnListeneres.remove(listener);
+		for (Iterator<NextTurnQueue> iter = this.nextTurnListeneres.iterator(); iter.hasNext();) {
+			NextTurnQueue q = iter.next();
+			if (q.listener() == listener) {
+				q.close();
+				iter.remove();
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * returns the current {@link NextTurnQueue.Lag lag} of all listeners
+	 * 
+	 * @return the current lag of all listeners
+	 */
+	public synchronized Map<NextTurnListener, NextTurnQueue.Lag> listenerLag() {
+		Map<NextTurnListener, NextTurnQueue.Lag> result = new HashMap<>();
+		for (NextTurnQueue q : this.nextTurnListeneres) {
+			result.put(q.listener(), q.lag());
+		}
+		return result;
 	}
 	
 	/**
@@ -619,67 +1180,409 @@ public class CompleteWorld extends World implements Iterable<CompleteWorld> {
 	 * <p>
 	 * when the current user has finished its turn, the turn is executed in random order and then the next turn starts.
 	 * <p>
+	 * the turn is only {@link #submit(Turn) submitted}, this method returns as soon as the turn is validated and queued and does not wait for the
+	 * execution of the turn.<br>
+	 * if the turn is invalid the error is thrown by this method, the result of the execution is only reported by the future of {@link #submit(Turn)}
+	 * <p>
 	 * {@inheritDoc}
 	 */
 	@Override
-	public synchronized void finish(Turn t) {
+	public void finish(Turn t) {
+		CompletableFuture<Void> done = enqueue(t).done;
+		if (done.state() == Future.State.FAILED) {
+			Throwable c = done.exceptionNow();
+			if (c instanceof RuntimeException re) throw re;
+			if (c instanceof Error err) throw err;
+			throw new IllegalStateException(c);
+		}
+	}
+	
+	/**
+	 * submits the turn to the engine of this world and returns immediately.<br>
+	 * if the user is the root user this operation will fail if {@link #allowRootTurns()} is <code>false</code>
+	 * <p>
+	 * the turns are executed by a single engine thread in the order they were submitted.<br>
+	 * the returned future is completed when the turn was executed, if the user submits an other turn before its turn is executed, the old turn is replaced
+	 * and its future is cancelled.<br>
+	 * if this world has a {@link TurnJournal journal} the future is completed when the turn was also forced to the journal.<br>
+	 * if the user does not belong to this world or the turn can not be prepared or executed the future is completed exceptionally, the turns of other
+	 * users are not affected by this
+	 * 
+	 * @param t the turn
+	 * 
+	 * @return a future, which is completed when the turn was executed
+	 * 
+	 * @throws UnsupportedOperationException if the user is the root user and the root user is not allowed to make turns
+	 * @throws IllegalStateException         if the game did not yet start
+	 * @throws IllegalArgumentException      if the turn uses entities not owned by the user
+	 */
+	public CompletableFuture<Void> submit(Turn t) throws UnsupportedOperationException, IllegalStateException, IllegalArgumentException {
+		return enqueue(t).done;
+	}
+	
+	private Submission enqueue(Turn t) {
 		if (t.world.user() == this.root && !this.allowRootTurns) throw new UnsupportedOperationException("the root user is not allowed to execute turns");
 		if (this.rnd == null) throw new IllegalStateException("the game did not yet start");
-		if (!this.subWorlds.containsKey(t.world.user()) && t.world.user() != this.root) throw new AssertionError("unknown user!");
 		for (EntityTurn e : t.turns()) {
 			if (e.entity().owner() != t.world.user()) throw new IllegalArgumentException("turn uses not owned entities");
 		}
-		this.userTurns.put(t.world.user(), t);
-		executeTurn();
+		PreparedTurn checked;
+		try { // done on the thread of the submitter, so it overlaps with the turn which is currently executed
+			checked = check(t);
+		} catch (RuntimeException | Error e) {
+			Submission s = new Submission(t, null, new CompletableFuture<>());
+			s.done.completeExceptionally(e);
+			return s;
+		}
+		Submission s = new Submission(t, checked, new CompletableFuture<>());
+		this.submissions.add(s);
+		if (this.engineRunning.compareAndSet(false, true)) {
+			// a platform thread, so the allocations of a turn can be measured (the engine holds the lock of the world while it executes a turn, which
+			// would pin a virtual thread to its carrier anyway)
+			Thread.ofPlatform().name("turn-engine").daemon(true).start(this::engine);
+		}
+		return s;
+	}
+	
+	/*
+	 * checked is the checked turn, which still uses the entities of the turn
+	 * done is completed when the turn was executed, it is already failed when the submission is created for an invalid turn
+	 */
+	private record Submission(Turn turn, PreparedTurn checked, CompletableFuture<Void> done) {}
+	
+	/*
+	 * only one engine runs at a time, it executes all turns submitted until now as one batch and stops when the queue is empty
+	 */
+	private void engine() {
+		while (true) {
+			synchronized (this) {
+				for (Submission s; (s = this.submissions.poll()) != null;) {
+					User usr = s.turn.world.user();
+					if (!this.subWorlds.containsKey(usr) && usr != this.root) {
+						s.done.completeExceptionally(new IllegalArgumentException("unknown user: " + usr.name()));
+						continue;
+					}
+					PreparedTurn pt;
+					try {
+						pt = prepare(s.checked);
+					} catch (RuntimeException | Error e) { // only this submission fails, an older turn of the user stays queued
+						s.done.completeExceptionally(e);
+						continue;
+					}
+					CompletableFuture<Void> old = this.pendingTurns.put(usr, s.done);
+					if (old != null) old.cancel(false);
+					this.userTurns.put(usr, pt);
+				}
+				// a failed round only removes its own turns, so continue until no turn can be executed or nothing changed
+				for (int queued = -1; queued != this.userTurns.size();) {
+					queued = this.userTurns.size();
+					try {
+						executeTurn(this.probe);
+						break;
+					} catch (RuntimeException | Error e) {
+						System.err.println("error while executing a turn:");
+						e.printStackTrace();
+					}
+				}
+			}
+			this.engineRunning.set(false);
+			if (this.submissions.isEmpty() || !this.engineRunning.compareAndSet(false, true)) {
+				return;
+			}
+		}
+	}
+	
+	/*
+	 * executes the recorded turn again directly in the current thread
+	 */
+	synchronized void replay(TurnRecord rec) {
+		rec.decode(this).forEach((usr, ets) -> this.userTurns.put(usr, new PreparedTurn(usr, ets, List.of())));
+		executeTurn(TurnStats.nop()); // the turn was already measured when it was executed the first time
+	}
+	
+	/*
+	 * a submitted turn with its entities resolved to the entities of this world, entity turns which can not succeed are already rejected
+	 */
+	private record PreparedTurn(User user, List<EntityTurn> entityTurns, List<ErrorType> rejected) {}
+	
+	/*
+	 * checks everything which does not need the entities of this world, this is done on the thread of the submitter without holding the lock of the world
+	 */
+	private static PreparedTurn check(Turn t) {
+		List<EntityTurn> ets      = new ArrayList<>();
+		List<ErrorType>  rejected = new ArrayList<>();
+		for (EntityTurn et : t.turns()) {
+			try {
+				ets.add(check(et));
+			} catch (TurnExecutionException e) {
+				rejected.add(e.type);
+			}
+		}
+		return new PreparedTurn(t.world.user(), ets, rejected);
+	}
+	
+	@SuppressWarnings("preview")
+	private static EntityTurn check(EntityTurn et) throws TurnExecutionException {
+		if (!(et.entity() instanceof Unit u)) throw new TurnExecutionException(ErrorType.UNKNOWN);
+		if (et instanceof MoveTurn mt) {
+			for (MoveAct ma : mt.acts()) {
+				if (ma instanceof Attack(Entity<?, ?> enemy) && enemy.owner() == u.owner()) throw new TurnExecutionException(ErrorType.INVALID_TURN);
+			}
+		}
+		return et;
+	}
+	
+	/*
+	 * this is done by the engine as soon as the turn arrives, so only the revalidation of the entity turns remains when the turn is executed
+	 * the checked turn only needs to be resolved to the entities of this world
+	 */
+	private PreparedTurn prepare(PreparedTurn checked) {
+		List<EntityTurn> ets      = new ArrayList<>(checked.entityTurns.size());
+		List<ErrorType>  rejected = new ArrayList<>(checked.rejected);
+		for (EntityTurn et : checked.entityTurns) {
+			try {
+				ets.add(resolve(et));
+			} catch (TurnExecutionException e) {
+				rejected.add(e.type);
+			}
+		}
+		return new PreparedTurn(checked.user, ets, rejected);
+	}
+	
+	@SuppressWarnings("preview")
+	private EntityTurn resolve(EntityTurn et) throws TurnExecutionException {
+		if (!(live(et.entity()) instanceof Unit u)) throw new TurnExecutionException(ErrorType.UNKNOWN);
+		return switch (et) {
+		case MoveTurn mt -> {
+			if (u.moveRange() < mt.acts().size()) throw new TurnExecutionException(ErrorType.INVALID_TURN);
+			List<MoveAct> acts = new ArrayList<>(mt.acts().size());
+			for (MoveAct ma : mt.acts()) {
+				switch (ma) {
+				case Direction dir -> acts.add(dir);
+				case Attack(Entity<?, ?> enemy) -> {
+					Entity<?, ?> le = live(enemy);
+					if (le != null) { // if the enemy is not found it is already dead
+						acts.add(new Attack(le));
+					}
+				}
+				}
+			}
+			yield new MoveTurn(u, acts);
+		}
+		case CarryTurn ct -> new CarryTurn(u, ct.res());
+		case StoreTurn st -> new StoreTurn(u, st.resource());
+		case MineTurn mt -> new MineTurn(u, mt.resource());
+		case WorkTurn wt -> new WorkTurn(u);
+		};
+	}
+	
+	/*
+	 * the entities of a turn can be copies (for example from a snapshot), so find the entity of this world with the same uuid
+	 */
+	private Entity<?, ?> live(Entity<?, ?> e) {
+		return entity(e.uuid, e.x(), e.y());
+	}
+	
+	/**
+	 * returns the entity with the given uuid or <code>null</code> if there is no such entity
+	 * <p>
+	 * the entity is first searched at the given position, if it is not there it is looked up in an index of all entities.<br>
+	 * entities are only created, moved and removed by turns, so the index is only created again after a turn was executed
+	 * 
+	 * @param uuid the uuid of the entity
+	 * @param x    the expected x coordinate of the entity
+	 * @param y    the expected y coordinate of the entity
+	 * 
+	 * @return the entity with the given uuid or <code>null</code>
+	 */
+	Entity<?, ?> entity(UUID uuid, int x, int y) {
+		if (x >= 0 && y >= 0 && x < this.tiles.length && y < this.tiles[x].length) {
+			for (Entity<?, ?> c : this.tiles[x][y].entities()) {
+				if (c.uuid.equals(uuid)) return c;
+			}
+		}
+		if (this.entityIndex == null || this.indexTurn != turn()) {
+			Map<UUID, Entity<?, ?>> index = new HashMap<>();
+			for (Tile[] ts : this.tiles) {
+				for (Tile t : ts) {
+					for (Entity<?, ?> c : t.entities()) {
+						index.put(c.uuid, c);
+					}
+				}
+			}
+			this.entityIndex = index;
+			this.indexTurn   = turn();
+		}
+		return this.entityIndex.get(uuid);
+	}
+	
+	/*
+	 * earlier turns may have killed entities after the turn was prepared, their entity turns can not be executed anymore
+	 * returns null if the entity is dead, attacks on dead entities are removed
+	 */
+	@SuppressWarnings("preview")
+	private static EntityTurn revalidate(EntityTurn et) {
+		if (et.entity().lives() <= 0) return null;
+		if (!(et instanceof MoveTurn mt)) return et;
+		List<MoveAct> acts = mt.acts();
+		for (MoveAct ma : acts) {
+			if (ma instanceof Attack(Entity<?, ?> enemy) && enemy.lives() <= 0) {
+				acts = new ArrayList<>(acts);
+				acts.removeIf(a -> a instanceof Attack(Entity<?, ?> e) && e.lives() <= 0);
+				return new MoveTurn(mt.entity(), acts);
+			}
+		}
+		return et;
 	}
 	
-	private synchronized void executeTurn() {
+	private synchronized void executeTurn(TurnStats.Probe probe) {
 		while (true) {
 			int turnNum = turn();
 			if (turnNum < 0) {
 				return;
 			}
-			NavigableMap<String, User> map = new TreeMap<>(this.allowRootTurns ? this.root.users() : this.root.subUsers());
-			turnNum %= map.size();
-			User usr      = map.values().stream().skip(turnNum).findFirst().orElseThrow();
-			Turn execTurn = this.userTurns.get(usr);
-			if (execTurn == null) {
+			NavigableMap<String, User> map  = new TreeMap<>(this.allowRootTurns ? this.root.users() : this.root.subUsers());
+			List<PreparedTurn>         next = nextTurns(map, turnNum);
+			if (next == null) {
 				return;
 			}
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			Connection            conn = Connection.createUnsecure(this.root, baos, this);
 			try {
-				execTurn.sendTurn(conn);
-			} catch (IOException e) {
-				throw new IOError(e);
+				executeRound(turnNum, next, probe);
+			} catch (RuntimeException | Error e) {
+				// only the part before the round is recorded can fail (everything after it is guarded), so nothing was applied
+				// only the turns of the failed round are dropped, the turns of other users stay queued
+				for (PreparedTurn pt : next) {
+					this.userTurns.remove(pt.user);
+					CompletableFuture<Void> done = this.pendingTurns.remove(pt.user);
+					if (done != null) done.completeExceptionally(e);
+				}
+				throw e;
+			}
+		}
+	}
+	
+	private void executeRound(int turnNum, List<PreparedTurn> next, TurnStats.Probe probe) {
+		probe.beginTurn(turnNum, next.size() == 1 ? next.get(0).user.name() : null, next.stream().mapToInt(pt -> pt.entityTurns.size()).sum());
+		probe.begin(Phase.SERIALIZE);
+		Map<User, List<EntityTurn>> execs = new LinkedHashMap<>();
+		List<EntityTurn>            ets   = new ArrayList<>();
+		int                         dead  = 0;
+		for (PreparedTurn pt : next) {
+			List<EntityTurn> uets = new ArrayList<>(pt.entityTurns.size());
+			for (EntityTurn et : pt.entityTurns) {
+				EntityTurn valid = revalidate(et);
+				if (valid != null) uets.add(valid);
+				else dead++;
+			}
+			execs.put(pt.user, uets);
+			ets.addAll(uets);
+		}
+		TurnRecord rec = TurnRecord.encode(execs);
+		probe.end(Phase.SERIALIZE, 0L);
+		// from here on the round is recorded, so it has to be finished: the entity turns, the notifications and the listeners are guarded one by one and
+		// the round is always journaled, snapshotted and announced
+		// the turns are consumed, the next turn of the users has to be finished again
+		this.userTurns.keySet().removeAll(execs.keySet());
+		this.allTurns.add(rec);
+		chainHistory(this.allTurns.size() - 1);
+		probe.begin(Phase.EXECUTE);
+		for (PreparedTurn pt : next) {
+			for (ErrorType type : pt.rejected) {
+				probe.failed(type);
+				System.err.println(String.format("error while executing the user turn: %s: %s", pt.user, type));
+			}
+		}
+		for (; dead > 0; dead--) {
+			probe.failed(ErrorType.DEAD);
+		}
+		for (EntityTurn et : randomOrder(ets)) {
+			Entity<?, ?> ent = et.entity();
+			try {
+				Tile t = this.tiles[ent.x()][ent.y()];
+				markDirty(ent.x(), ent.y());
+				executeEntityTurn(et, t);
+			} catch (TurnExecutionException e) {
+				probe.failed(e.type);
+				System.err.println(String.format("error while executing the user turn: %s: %s", et.entity().owner(), e.type));
+				e.printStackTrace();
+			} catch (RuntimeException | Error e) {
+				System.err.println(String.format("error while executing the user turn: %s:", et.entity().owner()));
+				e.printStackTrace();
+			} finally {
+				markDirty(ent.x(), ent.y());
 			}
-			this.allTurns.add(new HashMap<>(this.userTurns));
-			for (EntityTurn et : randomOrder(execTurn.turns())) {
+		}
+		probe.end(Phase.EXECUTE, 0L);
+		probe.begin(Phase.NOTIFY);
+		int pc = this.allowRootTurns ? this.user().users().size() : this.user().subUsers().size();
+		int ylen = this.tiles[0].length;
+		for (int i = this.activeTiles.next(0); i >= 0; i = this.activeTiles.next(i + 1)) {
+			int x = i / ylen;
+			int y = i % ylen;
+			this.tiles[x][y].forEachActive(w -> {
 				try {
-					Entity<?, ?> e = et.entity();
-					Tile         t = this.tiles[e.x()][e.y()];
-					executeEntityTurn(et, t);
-				} catch (TurnExecutionException e) {
-					System.err.println(String.format("error while executing the user turn: %s: %s", et.entity().owner(), e.type));
-					e.printStackTrace();
-				} catch (Exception e) {
-					System.err.println(String.format("error while executing the user turn: %s:", et.entity().owner()));
+					notify(w, x, y, pc);
+				} catch (RuntimeException | Error e) {
+					System.err.println(String.format("error while notifying %s at %d/%d:", w, Integer.valueOf(x), Integer.valueOf(y)));
 					e.printStackTrace();
 				}
+			});
+		}
+		probe.end(Phase.NOTIFY, 0L);
+		probe.begin(Phase.HASH);
+		long   hashed   = this.hashTree.hashedBytes();
+		byte[] hash     = calcHash();
+		byte[] turnHash = calcHash(rec);
+		probe.end(Phase.HASH, this.hashTree.hashedBytes() - hashed);
+		TurnJournal             j       = this.journal;
+		CompletableFuture<Void> durable = j == null ? null : j.append(rec, hash);
+		probe.begin(Phase.SNAPSHOT);
+		updateSnapshot(hash);
+		probe.end(Phase.SNAPSHOT, 0L);
+		probe.begin(Phase.FAN_OUT);
+		executeNTL(hash, turnHash);
+		probe.end(Phase.FAN_OUT, 0L);
+		probe.endTurn();
+		for (User usr : execs.keySet()) {
+			CompletableFuture<Void> done = this.pendingTurns.remove(usr);
+			if (done == null) continue;
+			if (durable == null) done.complete(null);
+			else durable.whenComplete((v, e) -> {
+				if (e == null) done.complete(null);
+				else done.completeExceptionally(e);
+			});
+		}
+	}
+	
+	/*
+	 * returns the turns which are executed next (sorted by the user names) or null if they are not yet all finished
+	 * in the normal mode this is the turn of the user whose turn it is, in the simultaneous mode this are the turns of all users
+	 */
+	private List<PreparedTurn> nextTurns(NavigableMap<String, User> users, int turnNum) {
+		if (!this.simultaneousRounds) {
+			User         usr      = users.values().stream().skip(turnNum % users.size()).findFirst().orElseThrow();
+			PreparedTurn execTurn = this.userTurns.get(usr);
+			return execTurn == null ? null : List.of(execTurn);
+		}
+		List<PreparedTurn> result = new ArrayList<>(users.size());
+		for (User usr : users.values()) {
+			PreparedTurn t = this.userTurns.get(usr);
+			if (t == null) return null;
+			result.add(t);
+		}
+		return result;
+	}
+	
+	private void notify(WorldThing<?, ?> w, int x, int y, int pc) {
+		Iterable<WorldThing<?, ?>> changed = w.nextTurnNotify(pc);
+		if (changed == null) return;
+		markDirty(x, y);
+		for (WorldThing<?, ?> c : changed) {
+			if (c instanceof Entity<?, ?> e) {
+				markDirty(e.x(), e.y());
+			} else if (c != w) { // the position of the thing is not known
+				markAllDirty();
 			}
-			int pc = this.allowRootTurns ? this.user().users().size() : this.user().subUsers().size();
-			for (int x = 0; x < this.tiles.length; x++) {
-				Tile[] ts = this.tiles[x];
-				for (int y = 0; y < ts.length; y++) {
-					Tile t = ts[y];
-					t.ground().nextTurnNotify(pc);
-					WorldThing<?, ?> w = t.build();
-					if (w != null) w.nextTurnNotify(pc);
-					t.resourcesStream().forEach(r -> r.nextTurnNotify(pc));
-					t.unitsStream().forEach(u -> u.nextTurnNotify(pc));
-				}
-			}
-			executeNTL(calcHash(), calcHash(baos.toByteArray()));
 		}
 	}
 	
@@ -699,6 +1602,8 @@ public class CompleteWorld extends World implements Iterable<CompleteWorld> {
 				case Direction dir -> {
 					Tile newTile = this.tiles[x + dir.xadd][y + dir.yadd];
 					Tile oldTile = this.tiles[x][y];
+					markDirty(x, y);
+					markDirty(x + dir.xadd, y + dir.yadd);
 					u.changePos(x + dir.xadd, y + dir.yadd, newTile, oldTile);
 					boolean b = false;
 					try {
@@ -720,6 +1625,7 @@ public class CompleteWorld extends World implements Iterable<CompleteWorld> {
 					if (enemy.lives() <= 0) {
 						break;
 					}
+					markDirty(enemy.x(), enemy.y());
 					u.attack(enemy);
 					if (enemy.lives() <= 0) {
 						switch (enemy) {
@@ -766,8 +1672,12 @@ public class CompleteWorld extends World implements Iterable<CompleteWorld> {
 		}
 	}
 	
+	/*
+	 * the entity turns are resolved to the entities of this world by their uuid before they are executed (the turns of user worlds use copies from
+	 * the snapshot), so the check uses the identity: a copy must never move, attack or be attacked in place of the live entity
+	 */
 	private static void checkHasUnit(Entity<?, ?> e, Tile t) throws TurnExecutionException {
-		if (t.unitsStream().noneMatch(e::equals)) {
+		if (t.unitsStream().noneMatch(c -> c == e)) {
 			throw new TurnExecutionException(ErrorType.UNKNOWN);
 		}
 	}
@@ -1335,7 +2245,7 @@ public class CompleteWorld extends World implements Iterable<CompleteWorld> {
 				for (int y = 0; y < ts.length; y++) {
 					Tile t = ots[y];
 					if (t == null) throw new IllegalStateException("there is a null tile!");
-					t = t.copy();
+					t = t.deepCopy();
 					if (t.ground() == null) throw new IllegalStateException("there is a tile with a null ground!");
 					if (t.ground().type() == GroundType.NOT_EXPLORED_TYPE) throw new IllegalStateException("there is a tile with a not yet explored ground!");
 					ts[y] = t;
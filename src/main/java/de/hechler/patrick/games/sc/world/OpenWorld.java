@@ -17,7 +17,12 @@
 package de.hechler.patrick.games.sc.world;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -34,6 +39,7 @@ import de.hechler.patrick.games.sc.connect.Connection;
 import de.hechler.patrick.games.sc.error.TurnExecutionException;
 import de.hechler.patrick.games.sc.turn.NextTurnListener;
 import de.hechler.patrick.games.sc.turn.Turn;
+import de.hechler.patrick.games.sc.ui.players.User;
 import de.hechler.patrick.games.sc.values.BooleanValue;
 import de.hechler.patrick.games.sc.values.DoubleValue;
 import de.hechler.patrick.games.sc.values.EnumValue;
@@ -54,11 +60,15 @@ import de.hechler.patrick.games.sc.world.ground.Ground;
 import de.hechler.patrick.games.sc.world.resource.Resource;
 import de.hechler.patrick.games.sc.world.tile.Tile;
 import de.hechler.patrick.utils.interfaces.Executable;
+import de.hechler.patrick.utils.objects.FastHash256;
 
 public class OpenWorld implements NextTurnListener {
 	
 	private final Connection conn;
 	private final World      world;
+	private SyncState        sync;
+	private volatile boolean subscribed;
+	private volatile boolean multiplexed;
 	
 	private OpenWorld(Connection conn, World world) {
 		this.conn  = conn;
@@ -82,11 +92,57 @@ public class OpenWorld implements NextTurnListener {
 	/** @see #START_BLOCK */
 	public static final int STOP_BLOCK   = 0xBF10CAD1;
 	
+	/**
+	 * switches the connection to the multiplexed protocol, the client sends this instead of a {@link #START_BLOCK}
+	 * <ol>
+	 * <li>send {@link #MUX_HELLO}</li>
+	 * <li>receive {@link #MUX_HELLO} (a {@link #START_BLOCK} of the server is ignored, the server sends its block as {@link #FRAME_PUSH} instead)</li>
+	 * </ol>
+	 * after that no blocks are used anymore:
+	 * <ul>
+	 * <li>the client sends {@link #FRAME_REQUEST} frames or {@link Connection#CON_LOG_OUT}</li>
+	 * <li>the server sends {@link #FRAME_RESPONSE} and {@link #FRAME_PUSH} frames</li>
+	 * </ul>
+	 * every frame is written completely while the connection is {@link Connection#blocked(Executable) blocked}, so requests and pushes can be send at
+	 * any time by any thread without waiting for the other side.<br>
+	 * clients which never send {@link #MUX_HELLO} continue to use the blocks
+	 */
+	public static final int MUX_HELLO      = 0x4D55B8E2;
+	/**
+	 * <ol>
+	 * <li>send {@link #FRAME_REQUEST}</li>
+	 * <li>send {@link Connection#writeInt(int) int} the id of the request</li>
+	 * <li>send the command ({@link #GET_TURN}, {@link #GET_WORLD}, ...)</li>
+	 * <li>send the arguments of the command (the data which would be send in a block, without waiting for anything)</li>
+	 * </ol>
+	 * the server answers with a {@link #FRAME_RESPONSE} with the same id, the responses may be received in a different order than the requests were
+	 * send
+	 */
+	public static final int FRAME_REQUEST  = 0x1B7F0E94;
+	/**
+	 * <ol>
+	 * <li>receive {@link #FRAME_RESPONSE}</li>
+	 * <li>receive {@link Connection#readInt() int} the id of the request</li>
+	 * <li>receive the result of the command (the data which would be received in a block, without the echoed command)</li>
+	 * </ol>
+	 */
+	public static final int FRAME_RESPONSE = 0xD03A6C21;
+	/**
+	 * <ol>
+	 * <li>receive {@link #FRAME_PUSH}</li>
+	 * <li>receive a notification ({@link #NOTIFY_NEXT_TURN} or {@link #NOTIFY_NEXT_TURN_DELTA}) with its data</li>
+	 * </ol>
+	 */
+	public static final int FRAME_PUSH     = 0x86E4F35A;
+	
 	public void execute() throws IOException {
 		this.world.addNextTurnListener(this);
 		try {
 			while (!this.conn.closed()) {
-				this.conn.blocked(250, () -> this.exec(true), Connection.NOP);
+				if (this.multiplexed) execMultiplexed();
+				else this.conn.blocked(250, () -> { // a push thread can switch to the multiplexed protocol while this thread waits for the block
+					if (!this.multiplexed) this.exec(true);
+				}, Connection.NOP);
 			}
 		} finally {
 			this.world.removeNextTurnListener(this);
@@ -101,6 +157,11 @@ public class OpenWorld implements NextTurnListener {
 	 * <li>receive {@link #MAKE_TURN}</li>
 	 * <li>{@link Turn#retrieveTurn(Connection)} / {@link Turn#sendTurn(Connection)}</li>
 	 * </ol>
+	 * in a {@link #FRAME_RESPONSE response frame} the server also sends the result of {@link World#finish(Turn)}:
+	 * <ol>
+	 * <li>receive {@link Connection#readByte() byte} <code>1</code> if the turn was accepted and <code>0</code> if it was rejected</li>
+	 * <li>if the turn was rejected: receive {@link Connection#readString() string} the error</li>
+	 * </ol>
 	 */
 	public static final int MAKE_TURN = 0xC255537F;
 	
@@ -114,7 +175,7 @@ public class OpenWorld implements NextTurnListener {
 	 * <li>stop block</li>
 	 * </ol>
 	 */
-	public static final int GET_TURN  = 0x21FB7A28;
+	public static final int GET_TURN   = 0x21FB7A28;
 	/**
 	 * <ol>
 	 * <li>{@link #START_BLOCK start} block</li>
@@ -123,7 +184,7 @@ public class OpenWorld implements NextTurnListener {
 	 * <li>stop block</li>
 	 * </ol>
 	 */
-	public static final int GET_WORLD = 0xAD505582;
+	public static final int GET_WORLD  = 0xAD505582;
 	/**
 	 * <ol>
 	 * <li>{@link #START_BLOCK start} block</li>
@@ -134,18 +195,77 @@ public class OpenWorld implements NextTurnListener {
 	 * <li>stop block</li>
 	 * </ol>
 	 */
-	public static final int GET_SIZE  = 0x62049F3D;
+	public static final int GET_SIZE   = 0x62049F3D;
 	/**
 	 * <ol>
 	 * <li>{@link #START_BLOCK start} block</li>
 	 * <li>send {@link #GET_THING}</li>
 	 * <li>receive {@link #GET_THING}</li>
 	 * <li>send {@link Connection#writeUUID(UUID) UUID}</li>
-	 * <li>{@link #readThing(Connection)} / {@link #writeThing(Connection, WorldThing)}</li>
+	 * <li>receive {@link Connection#readByte() byte} <code>1</code> if the thing exists and <code>0</code> if not</li>
+	 * <li>if the thing exists: {@link #readThing(Connection)} / {@link #writeThing(Connection, WorldThing)}</li>
+	 * <li>stop block</li>
+	 * </ol>
+	 */
+	public static final int GET_THING  = 0xC8F3FAE8;
+	/**
+	 * <ol>
+	 * <li>{@link #START_BLOCK start} block</li>
+	 * <li>send {@link #GET_THINGS}</li>
+	 * <li>receive {@link #GET_THINGS}</li>
+	 * <li>send {@link Connection#writeInt(int) int} the number of things (at most {@value #MAX_THINGS})</li>
+	 * <li>send {@link Connection#writeUUID(UUID) UUID} for every thing</li>
+	 * <li>for every thing (in the same order) the same as {@link #GET_THING} after the UUID</li>
+	 * <li>stop block</li>
+	 * </ol>
+	 */
+	public static final int GET_THINGS = 0x3E58A4C6;
+	/**
+	 * the maximum number of things requested with a single {@link #GET_THINGS}, the server treats larger requests as corrupt
+	 */
+	public static final int MAX_THINGS = 1 << 12;
+	/**
+	 * <ol>
+	 * <li>{@link #START_BLOCK start} block</li>
+	 * <li>send {@link #GET_WORLD_DELTA}</li>
+	 * <li>receive {@link #GET_WORLD_DELTA}</li>
+	 * <li>send {@link Connection#writeInt(int) int} the version of the world known by the client or <code>-1</code></li>
+	 * <li>receive {@link Connection#readInt() int} turn</li>
+	 * <li>receive {@link Connection#readInt() int} the new version of the world</li>
+	 * <li>either:
+	 * <ol>
+	 * <li>receive {@link #DELTA_FULL}</li>
+	 * <li>{@link #loadWorld(Tile[][], Connection)} / {@link #saveWorld(World, Connection)}</li>
+	 * </ol>
+	 * or:
+	 * <ol>
+	 * <li>receive {@link #DELTA_TILES}</li>
+	 * <li>receive {@link Connection#readInt() int} the number of changed tiles</li>
+	 * <li>for every changed tile: receive {@link Connection#readInt() int} x, {@link Connection#readInt() int} y and {@link #readTile(Connection)} /
+	 * {@link #writeTile(Connection, Tile)}</li>
+	 * </ol>
+	 * </li>
 	 * <li>stop block</li>
 	 * </ol>
+	 * the server remembers for every tile the version in which the tile was changed (a tile is changed if its serialized form changed), so only the
+	 * tiles changed after the version known by the client are send.<br>
+	 * the complete world is send if the client knows no version of this connection or the size of the world changed
+	 */
+	public static final int GET_WORLD_DELTA = 0x5B0E63F1;
+	/** @see #GET_WORLD_DELTA */
+	public static final int DELTA_FULL      = 0x3D9A2C47;
+	/** @see #GET_WORLD_DELTA */
+	public static final int DELTA_TILES     = 0xE46B15D8;
+	/**
+	 * <ol>
+	 * <li>{@link #START_BLOCK start} block</li>
+	 * <li>send {@link #SUBSCRIBE_DELTA}</li>
+	 * <li>receive {@link #SUBSCRIBE_DELTA}</li>
+	 * <li>the same as {@link #GET_WORLD_DELTA} after receiving the {@link #GET_WORLD_DELTA} (including the stop block)</li>
+	 * </ol>
+	 * after subscribing the server sends {@link #NOTIFY_NEXT_TURN_DELTA} instead of {@link #NOTIFY_NEXT_TURN}
 	 */
-	public static final int GET_THING = 0xC8F3FAE8;
+	public static final int SUBSCRIBE_DELTA = 0x72A4C90B;
 	
 	// NOTIFY_* are send by the server to notify the client about stuff
 	
@@ -157,7 +277,22 @@ public class OpenWorld implements NextTurnListener {
 	 * <li>receive {@link Connection#readArr(byte[]) byte[]} turn hash (SHA-256: 32 bytes)</li>
 	 * </ol>
 	 */
-	public static final int NOTIFY_NEXT_TURN = 0x12C6AEAE;
+	public static final int NOTIFY_NEXT_TURN       = 0x12C6AEAE;
+	/**
+	 * this is send instead of {@link #NOTIFY_NEXT_TURN} after the client {@link #SUBSCRIBE_DELTA subscribed}
+	 * <ol>
+	 * <li>receive {@link #NOTIFY_NEXT_TURN_DELTA}</li>
+	 * <li>receive {@link Connection#readInt() int} turn</li>
+	 * <li>receive {@link Connection#readArr(byte[]) byte[]} world hash (SHA-256: 32 bytes)</li>
+	 * <li>receive {@link Connection#readArr(byte[]) byte[]} turn hash (SHA-256: 32 bytes)</li>
+	 * <li>receive {@link Connection#readInt() int} the new version of the world</li>
+	 * <li>the changed tiles like in {@link #GET_WORLD_DELTA}, starting with {@link #DELTA_FULL} or {@link #DELTA_TILES}</li>
+	 * </ol>
+	 * the send tiles contain all changes visible to the user: moved, created and destroyed entities, changed resources and changed visibility.<br>
+	 * the tiles always belong to the announced turn, if the world already executed a newer turn when the notification is send, the notification is
+	 * skipped and the changes are send with the notification of the newer turn
+	 */
+	public static final int NOTIFY_NEXT_TURN_DELTA = 0xA91D5E62;
 	
 	public static void acceptBlockClient(Connection conn, int timeout, Executable<? extends IOException> exe) throws IOException {
 		acceptBlockClient(conn, timeout, exe, Connection.NOP);
@@ -190,7 +325,16 @@ public class OpenWorld implements NextTurnListener {
 			do {
 				conn.writeInt(START_BLOCK);
 				// the client has a higher priority
-				if (conn.readInt(ACCEPT_BLOCK, START_BLOCK) == ACCEPT_BLOCK) {
+				int r = conn.readInt(ACCEPT_BLOCK, START_BLOCK, MUX_HELLO);
+				if (r == MUX_HELLO) { // the client ignores the START_BLOCK
+					conn.setTimeout(0);
+					conn.writeInt(MUX_HELLO);
+					this.multiplexed = true;
+					conn.writeInt(FRAME_PUSH);
+					exe.execute();
+					return;
+				}
+				if (r == ACCEPT_BLOCK) {
 					break;
 				}
 				this.exec(false);
@@ -206,11 +350,29 @@ public class OpenWorld implements NextTurnListener {
 		assert whash == null || whash.length == 32;
 		assert thash == null || thash.length == 32;
 		assert turn >= -1;
+		boolean delta = this.subscribed;
+		Pinned  pin   = delta ? pinned() : null;
+		// the notifications lag behind the world, the pushed tiles must be the tiles of the announced turn (also for user worlds, which are pinned to the
+		// current snapshot), if the snapshot is already newer, the notification of the newer turn follows, so this notification is coalesced with it
+		if (pin != null && pin.turn() != turn) return;
 		try {
-			doBlockedServer(this.conn, () -> {
-				this.conn.writeInt(NOTIFY_NEXT_TURN);
+			Executable<IOException> notify = () -> {
+				this.conn.writeInt(delta ? NOTIFY_NEXT_TURN_DELTA : NOTIFY_NEXT_TURN);
+				this.conn.writeInt(turn);
 				this.conn.writeArr(whash);
 				this.conn.writeArr(thash);
+				if (delta) {
+					SyncState s = this.sync;
+					sendWorldDelta(pin, s == null ? -1 : s.version, false);
+				}
+			};
+			this.conn.blocked(() -> {
+				if (this.multiplexed) {
+					this.conn.writeInt(FRAME_PUSH);
+					notify.execute();
+				} else {
+					doBlockedServer(this.conn, notify);
+				}
 			});
 		} catch (IOException e) {
 			try {
@@ -222,48 +384,325 @@ public class OpenWorld implements NextTurnListener {
 		}
 	}
 	
+	/*
+	 * the state of the world at the turn of a snapshot, which does not change while it is send
+	 * view is null for the complete world, then the tiles of the snapshot are used, otherwise it contains the tiles the user sees at the turn of the snapshot
+	 */
+	private record Pinned(WorldSnapshot snap, Tile[][] view) {
+		
+		int turn() {
+			return this.snap.turn();
+		}
+		
+		int xlen() {
+			return this.view == null ? this.snap.xlen() : this.view.length;
+		}
+		
+		int ylen() {
+			return this.view == null ? this.snap.ylen() : this.view[0].length;
+		}
+		
+		Tile tile(int x, int y) {
+			if (this.view == null) return this.snap.tile(x, y);
+			Tile t = this.view[x][y];
+			return t != null ? t : new Tile(GroundType.NOT_EXPLORED_GRND);
+		}
+		
+		WorldThing<?, ?> get(UUID uuid) {
+			return this.view == null ? this.snap.get(uuid) : CompleteWorld.get(this.view, uuid);
+		}
+		
+		// if true no tile of the chunk changed since the other state
+		boolean sharesChunk(Pinned other, int chunk) {
+			return this.view == null && other.view == null && this.snap.sharesChunk(other.snap, chunk);
+		}
+		
+		// if true the tile did not change since the other state (the tiles of user worlds are only shared if they did not change)
+		boolean sameTile(Pinned other, int x, int y) {
+			return this.view != null && other.view != null && this.view.length == other.view.length && this.view[0].length == other.view[0].length
+				&& this.view[x][y] == other.view[x][y];
+		}
+		
+	}
+	
+	// the world can be read from the snapshot, without waiting for the current turn, user worlds are pinned to the current snapshot
+	private Pinned pinned() {
+		if (this.world instanceof CompleteWorld cw) {
+			WorldSnapshot s = cw.snapshot();
+			return s == null ? null : new Pinned(s, null);
+		} else if (this.world instanceof UserWorld uw) {
+			UserWorld.Saved v = uw.view();
+			return v.snap() == null ? null : new Pinned(v.snap(), v.tiles());
+		}
+		return null;
+	}
+	
 	private void exec(boolean sbnr) throws IOException {
 		if (sbnr) {
-			if (this.conn.readInt(START_BLOCK, Connection.CON_LOG_OUT) == Connection.CON_LOG_OUT) {
+			switch (this.conn.readInt(START_BLOCK, MUX_HELLO, Connection.CON_LOG_OUT)) {
+			case Connection.CON_LOG_OUT -> {
+				closeSync();
 				this.conn.close();
 				return;
 			}
-			this.conn.setTimeout(0);
+			case MUX_HELLO -> {
+				this.conn.setTimeout(0);
+				this.conn.writeInt(MUX_HELLO);
+				this.multiplexed = true;
+				return;
+			}
+			default -> this.conn.setTimeout(0);
+			}
 		}
 		this.conn.writeInt(ACCEPT_BLOCK);
-		switch (this.conn.readInt(GET_TURN, GET_WORLD, GET_SIZE, GET_THING, MAKE_TURN, Connection.CON_LOG_OUT)) {
-		case GET_TURN -> this.conn.writeInt(this.world.turn());
-		case GET_WORLD -> saveWorld(this.world, this.conn);
-		case GET_SIZE -> {
-			this.conn.writeInt(GET_SIZE);
+		int cmd = this.conn.readInt(GET_TURN, GET_WORLD, GET_WORLD_DELTA, SUBSCRIBE_DELTA, GET_SIZE, GET_THING, GET_THINGS, MAKE_TURN, Connection.CON_LOG_OUT);
+		if (cmd == Connection.CON_LOG_OUT) {
+			closeSync();
+			this.conn.close();
+			return;
+		}
+		if (cmd != GET_TURN && cmd != GET_WORLD) {
+			this.conn.writeInt(cmd);
+		}
+		request(cmd).execute();
+		this.conn.writeInt(STOP_BLOCK);
+		this.conn.readInt(STOP_BLOCK);
+	}
+	
+	// only this thread reads, the response is written blocked, so it does not interfere with pushes
+	private void execMultiplexed() throws IOException {
+		if (this.conn.readInt(FRAME_REQUEST, Connection.CON_LOG_OUT) == Connection.CON_LOG_OUT) {
+			this.conn.blocked(() -> {
+				closeSync();
+				this.conn.close();
+			});
+			return;
+		}
+		int                     id       = this.conn.readInt();
+		int                     cmd      = this.conn.readInt(GET_TURN, GET_WORLD, GET_WORLD_DELTA, SUBSCRIBE_DELTA, GET_SIZE, GET_THING, GET_THINGS, MAKE_TURN);
+		Executable<IOException> response = request(cmd);
+		this.conn.blocked(() -> {
+			this.conn.writeInt(FRAME_RESPONSE);
+			this.conn.writeInt(id);
+			response.execute();
+		});
+	}
+	
+	/*
+	 * reads the arguments of the command and returns the executable which writes the result
+	 * the result is written while the connection is blocked
+	 */
+	private Executable<IOException> request(int cmd) throws IOException {
+		return switch (cmd) {
+		case GET_TURN -> () -> this.conn.writeInt(this.world.turn());
+		case GET_WORLD -> () -> {
+			Pinned pin = pinned();
+			if (pin != null) CompactWorldFormat.write(this.conn, pin.xlen(), pin.ylen(), pin::tile, true);
+			else saveWorld(this.world, this.conn);
+		};
+		case GET_WORLD_DELTA -> {
+			int known = this.conn.readInt();
+			yield () -> sendWorldDelta(pinned(), known, true);
+		}
+		case SUBSCRIBE_DELTA -> {
+			int known = this.conn.readInt();
+			yield () -> {
+				sendWorldDelta(pinned(), known, true);
+				this.subscribed = true;
+			};
+		}
+		case GET_SIZE -> () -> {
 			this.conn.writeInt(this.world.xlen());
 			this.conn.writeInt(this.world.ylen());
-		}
+		};
 		case GET_THING -> {
-			this.conn.writeInt(GET_THING);
-			UUID             uuid  = this.conn.readUUID();
-			WorldThing<?, ?> thing = this.world.get(uuid);
-			if (thing != null) {
-				this.conn.writeByte(1);
-				writeThing(this.conn, thing);
-			} else {
-				this.conn.writeByte(0);
+			UUID uuid = this.conn.readUUID();
+			yield () -> writeThingOrNull(pinned(), uuid);
+		}
+		case GET_THINGS -> {
+			int cnt = this.conn.readPos();
+			if (cnt > MAX_THINGS) throw new StreamCorruptedException("too many things requested: " + cnt + " (max " + MAX_THINGS + ")");
+			UUID[] uuids = new UUID[cnt];
+			for (int i = 0; i < uuids.length; i++) {
+				uuids[i] = this.conn.readUUID();
 			}
+			yield () -> {
+				Pinned pin = pinned(); // all things of one request are from the same pinned turn (if the game started)
+				for (UUID uuid : uuids) {
+					writeThingOrNull(pin, uuid);
+				}
+			};
 		}
 		case MAKE_TURN -> {
-			this.conn.writeInt(MAKE_TURN);
 			Turn t = new Turn(this.world);
 			t.retrieveTurn(this.conn);
+			if (!this.multiplexed) { // the block protocol has no way to report the error
+				this.world.finish(t);
+				yield Connection.NOP;
+			}
+			String err = finish(t);
+			yield () -> {
+				if (err == null) {
+					this.conn.writeByte(1);
+				} else {
+					this.conn.writeByte(0);
+					this.conn.writeString(err);
+				}
+			};
+		}
+		default -> throw new AssertionError("illegal return value from readInt(int...)");
+		};
+	}
+	
+	/* returns null if the turn was accepted and the error if not */
+	private String finish(Turn t) {
+		try {
 			this.world.finish(t);
+			return null;
+		} catch (RuntimeException e) {
+			return e.toString();
 		}
-		case Connection.CON_LOG_OUT -> {
-			this.conn.close();
+	}
+	
+	private void writeThingOrNull(Pinned pin, UUID uuid) throws IOException {
+		WorldThing<?, ?> thing = pin != null ? pin.get(uuid) : this.world.get(uuid);
+		if (thing != null) {
+			this.conn.writeByte(1);
+			writeThing(this.conn, thing);
+		} else {
+			this.conn.writeByte(0);
+		}
+	}
+	
+	/*
+	 * the state of the world which was send with GET_WORLD_DELTA, for every tile the fingerprint and the version of the last change are stored
+	 * for every chunk the version of its last change is stored and the last send state is remembered, so chunks which the snapshot shares with the last
+	 * snapshot are neither printed nor searched for changes (for user worlds only the tiles, which are the same objects as in the last state, are skipped)
+	 */
+	private static final class SyncState {
+		
+		private final int           xlen;
+		private final int           ylen;
+		private final int           base;
+		private final long[]        prints;
+		private final int[]         stamps;
+		private final int[]         chunkStamps;
+		private final MessageDigest digest;
+		private final Connection    digestConn;
+		private int                 version;
+		private Pinned              last;
+		
+		private SyncState(int xlen, int ylen, int base, SyncState old) {
+			this.xlen        = xlen;
+			this.ylen        = ylen;
+			this.base        = base;
+			this.version     = base;
+			this.prints      = new long[xlen * ylen];
+			this.stamps      = new int[xlen * ylen];
+			this.chunkStamps = new int[WorldSnapshot.chunkCount(xlen, ylen)];
+			if (old != null) {
+				this.digest     = old.digest;
+				this.digestConn = old.digestConn;
+			} else {
+				this.digest     = WorldHashTree.digest(FastHash256.NAME);
+				this.digestConn = Connection.createUnsecure(User.nopw("sync"), new DigestOutputStream(OutputStream.nullOutputStream(), this.digest), null);
+			}
+		}
+		
+		private long print(Tile t) throws IOException {
+			this.digest.reset();
+			writeTile(this.digestConn, t);
+			byte[] h   = this.digest.digest();
+			long   val = 0L;
+			for (int i = 0; i < 8; i++) {
+				val = (val << 8) | (0xFFL & h[i]);
+			}
+			return val;
+		}
+		
+	}
+	
+	private void closeSync() throws IOException {
+		SyncState s = this.sync;
+		if (s != null) {
+			this.sync = null;
+			s.digestConn.close();
+		}
+	}
+	
+	// with a subscription the client always knows the last version, so after a turn only the changes of the turn are send
+	private void sendWorldDelta(Pinned pin, int known, boolean sendTurn) throws IOException {
+		int                           turn = pin != null ? pin.turn() : this.world.turn(); // the turn is read before the tiles, so the tiles are never older
+		int                           xlen = pin != null ? pin.xlen() : this.world.xlen();
+		int                           ylen = pin != null ? pin.ylen() : this.world.ylen();
+		CompactWorldFormat.TileSource src  = pin != null ? pin::tile : this.world::tile;
+		SyncState s = this.sync;
+		if (s == null || s.xlen != xlen || s.ylen != ylen || known < s.base || known > s.version) {
+			s         = new SyncState(xlen, ylen, s == null ? 0 : s.version + 1, s);
+			this.sync = s;
+			for (int x = 0, i = 0; x < xlen; x++) {
+				for (int y = 0; y < ylen; y++, i++) {
+					s.prints[i] = s.print(src.tile(x, y));
+					s.stamps[i] = s.version;
+				}
+			}
+			Arrays.fill(s.chunkStamps, s.version);
+			s.last = pin;
+			if (sendTurn) this.conn.writeInt(turn);
+			this.conn.writeInt(s.version);
+			this.conn.writeInt(DELTA_FULL);
+			CompactWorldFormat.write(this.conn, xlen, ylen, src, true);
 			return;
 		}
-		default -> throw new AssertionError("illegal return value from readInt(int...)");
+		int version = ++s.version;
+		int cylen   = ((ylen - 1) >>> WorldHashTree.CHUNK_SHIFT) + 1;
+		int cnt     = 0;
+		for (int c = 0; c < s.chunkStamps.length; c++) {
+			int sx = (c / cylen) << WorldHashTree.CHUNK_SHIFT;
+			int sy = (c % cylen) << WorldHashTree.CHUNK_SHIFT;
+			int ex = Math.min(sx + WorldHashTree.CHUNK_LEN, xlen);
+			int ey = Math.min(sy + WorldHashTree.CHUNK_LEN, ylen);
+			Pinned last = pin != null ? s.last : null;
+			if (last == null || !pin.sharesChunk(last, c)) {
+				for (int x = sx; x < ex; x++) {
+					for (int y = sy, i = x * ylen + sy; y < ey; y++, i++) {
+						if (last != null && pin.sameTile(last, x, y)) continue;
+						long p = s.print(src.tile(x, y));
+						if (p != s.prints[i]) {
+							s.prints[i]      = p;
+							s.stamps[i]      = version;
+							s.chunkStamps[c] = version;
+						}
+					}
+				}
+			}
+			if (s.chunkStamps[c] <= known) continue;
+			for (int x = sx; x < ex; x++) {
+				for (int y = sy, i = x * ylen + sy; y < ey; y++, i++) {
+					if (s.stamps[i] > known) cnt++;
+				}
+			}
+		}
+		s.last = pin;
+		if (sendTurn) this.conn.writeInt(turn);
+		this.conn.writeInt(version);
+		this.conn.writeInt(DELTA_TILES);
+		this.conn.writeInt(cnt);
+		for (int c = 0; c < s.chunkStamps.length; c++) {
+			if (s.chunkStamps[c] <= known) continue;
+			int sx = (c / cylen) << WorldHashTree.CHUNK_SHIFT;
+			int sy = (c % cylen) << WorldHashTree.CHUNK_SHIFT;
+			int ex = Math.min(sx + WorldHashTree.CHUNK_LEN, xlen);
+			int ey = Math.min(sy + WorldHashTree.CHUNK_LEN, ylen);
+			for (int x = sx; x < ex; x++) {
+				for (int y = sy, i = x * ylen + sy; y < ey; y++, i++) {
+					if (s.stamps[i] <= known) continue;
+					this.conn.writeInt(x);
+					this.conn.writeInt(y);
+					writeTile(this.conn, src.tile(x, y));
+				}
+			}
 		}
-		this.conn.writeInt(STOP_BLOCK);
-		this.conn.readInt(STOP_BLOCK);
 	}
 	
 	private static final int SEND_WORLD      = 0xAFD2E294;
@@ -274,7 +713,39 @@ public class OpenWorld implements NextTurnListener {
 	private static final int SEND_WORLD_SUB4 = 0xE231D32C;
 	private static final int SEND_WORLD_FIN  = 0xB677A464;
 	
+	/**
+	 * saves the world in the compact {@link CompactWorldFormat version 2} format with check sums
+	 * 
+	 * @param world the world to save
+	 * @param conn  the connection
+	 * 
+	 * @throws IOException if an IO error occurs
+	 */
 	public static void saveWorld(World world, Connection conn) throws IOException {
+		CompactWorldFormat.write(conn, world.xlen(), world.ylen(), world::tile, true);
+	}
+	
+	/**
+	 * saves the world of the given snapshot in the same format as {@link #saveWorld(World, Connection)}
+	 * 
+	 * @param snap the snapshot to save
+	 * @param conn the connection
+	 * 
+	 * @throws IOException if an IO error occurs
+	 */
+	public static void saveWorld(WorldSnapshot snap, Connection conn) throws IOException {
+		CompactWorldFormat.write(conn, snap.xlen(), snap.ylen(), snap::tile, true);
+	}
+	
+	/**
+	 * saves the world in the old version 1 format, which writes every tile with {@link #writeTile(Connection, Tile)}
+	 * 
+	 * @param world the world to save
+	 * @param conn  the connection
+	 * 
+	 * @throws IOException if an IO error occurs
+	 */
+	public static void saveWorldV1(World world, Connection conn) throws IOException {
 		conn.writeInt(SEND_WORLD);
 		int xlen = world.xlen();
 		int ylen = world.ylen();
@@ -283,36 +754,83 @@ public class OpenWorld implements NextTurnListener {
 		for (int x = 0; x < xlen; x++) {
 			conn.writeInt(SEND_WORLD_SUB0);
 			for (int y = 0; y < ylen; y++) {
-				Tile t = world.tile(x, y);
-				conn.writeInt(SEND_WORLD_SUB1);
-				conn.writeInt(t.lastTimeSeen0());
-				writeThing(conn, t.ground());
-				conn.writeInt(SEND_WORLD_SUB2);
-				int cnt = t.resourceCount();
-				conn.writeInt(cnt);
-				while (cnt-- > 0) {
-					writeThing(conn, t.resource(cnt));
-				}
-				conn.writeInt(SEND_WORLD_SUB3);
-				cnt = t.unitCount();
-				conn.writeInt(cnt);
-				while (cnt-- > 0) {
-					writeThing(conn, t.unit(cnt));
-				}
-				conn.writeInt(SEND_WORLD_SUB4);
-				if (t.build() == null) {
-					conn.writeByte(0);
-				} else {
-					conn.writeByte(1);
-					writeThing(conn, t.build());
-				}
+				writeTile(conn, world.tile(x, y));
 			}
 		}
 		conn.writeInt(SEND_WORLD_FIN);
 	}
 	
+	/**
+	 * writes a single tile, this is the same format which is used by {@link #saveWorld(World, Connection)} for each tile
+	 * 
+	 * @param conn the connection
+	 * @param t    the tile to write
+	 * 
+	 * @throws IOException if an IO error occurs
+	 * 
+	 * @see #readTile(Connection)
+	 */
+	public static void writeTile(Connection conn, Tile t) throws IOException {
+		conn.writeInt(SEND_WORLD_SUB1);
+		conn.writeInt(t.lastTimeSeen0());
+		writeThing(conn, t.ground());
+		conn.writeInt(SEND_WORLD_SUB2);
+		int cnt = t.resourceCount();
+		conn.writeInt(cnt);
+		while (cnt-- > 0) {
+			writeThing(conn, t.resource(cnt));
+		}
+		conn.writeInt(SEND_WORLD_SUB3);
+		cnt = t.unitCount();
+		conn.writeInt(cnt);
+		while (cnt-- > 0) {
+			writeThing(conn, t.unit(cnt));
+		}
+		conn.writeInt(SEND_WORLD_SUB4);
+		if (t.build() == null) {
+			conn.writeByte(0);
+		} else {
+			conn.writeByte(1);
+			writeThing(conn, t.build());
+		}
+	}
+	
+	/**
+	 * loads a world, which was saved in the {@link CompactWorldFormat version 2} format or in the old {@link #saveWorldV1(World, Connection) version 1}
+	 * format
+	 * 
+	 * @param tiles the array to fill or <code>null</code>
+	 * @param conn  the connection
+	 * 
+	 * @return the loaded tiles
+	 * 
+	 * @throws IOException if an IO error occurs
+	 */
 	public static Tile[][] loadWorld(Tile[][] tiles, Connection conn) throws IOException {
-		conn.readInt(SEND_WORLD);
+		if (conn.readInt(SEND_WORLD, CompactWorldFormat.MAGIC) == CompactWorldFormat.MAGIC) {
+			return CompactWorldFormat.read(tiles, conn);
+		}
+		return loadWorldV1(tiles, conn);
+	}
+	
+	/**
+	 * reads a world like {@link #loadWorld(Tile[][], Connection)}, but a world in the {@link CompactWorldFormat version 2} format is decoded on the
+	 * {@link java.util.concurrent.ForkJoinPool#commonPool() common pool}, while the caller continues to read
+	 * 
+	 * @param conn the connection
+	 * 
+	 * @return the decoding of the world
+	 * 
+	 * @throws IOException if an IO error occurs
+	 */
+	static CompactWorldFormat.Decoding loadWorldLater(Connection conn) throws IOException {
+		if (conn.readInt(SEND_WORLD, CompactWorldFormat.MAGIC) == CompactWorldFormat.MAGIC) {
+			return CompactWorldFormat.readLater(null, conn);
+		}
+		return CompactWorldFormat.Decoding.of(loadWorldV1(null, conn));
+	}
+	
+	private static Tile[][] loadWorldV1(Tile[][] tiles, Connection conn) throws IOException {
 		int xlen = conn.readStrictPos();
 		int ylen = conn.readStrictPos();
 		if (tiles == null || xlen != tiles.length || ylen != tiles[0].length) {
@@ -324,38 +842,51 @@ public class OpenWorld implements NextTurnListener {
 			}
 			conn.readInt(SEND_WORLD_SUB0);
 			for (int y = 0; y < ylen; y++) {
-				conn.readInt(SEND_WORLD_SUB1);
-				int lastSeen = conn.readInt();
-				if (lastSeen < -2) { // well thats near and it fails anyway
-					lastSeen = conn.wrongInputPositive(lastSeen, false);
-				}
-				Ground g = (Ground) readThing(conn);
-				conn.readInt(SEND_WORLD_SUB2);
-				int                         cnt = conn.readPos();
-				Map<ResourceType, Resource> r   = HashMap.newHashMap(cnt);
-				while (cnt-- > 0) {
-					Resource res = (Resource) readThing(conn);
-					Resource old = r.put(res.type(), res);
-					assert old == null;
-				}
-				conn.readInt(SEND_WORLD_SUB3);
-				cnt = conn.readPos();
-				List<Unit> u = new ArrayList<>(cnt);
-				while (cnt-- > 0) {
-					u.add((Unit) readThing(conn));
-				}
-				conn.readInt(SEND_WORLD_SUB4);
-				Build b = null;
-				if (conn.readByte(0, 1) != 0) {
-					b = (Build) readThing(conn);
-				}
-				tiles[x][y] = new Tile(g, r, b, u, lastSeen);
+				tiles[x][y] = readTile(conn);
 			}
 		}
 		conn.readInt(SEND_WORLD_FIN);
 		return tiles;
 	}
 	
+	/**
+	 * reads a single tile, which was written by {@link #writeTile(Connection, Tile)}
+	 * 
+	 * @param conn the connection
+	 * 
+	 * @return the read tile
+	 * 
+	 * @throws IOException if an IO error occurs
+	 */
+	public static Tile readTile(Connection conn) throws IOException {
+		conn.readInt(SEND_WORLD_SUB1);
+		int lastSeen = conn.readInt();
+		if (lastSeen < -2) { // well thats near and it fails anyway
+			lastSeen = conn.wrongInputPositive(lastSeen, false);
+		}
+		Ground g = (Ground) readThing(conn);
+		conn.readInt(SEND_WORLD_SUB2);
+		int                         cnt = conn.readPos();
+		Map<ResourceType, Resource> r   = HashMap.newHashMap(cnt);
+		while (cnt-- > 0) {
+			Resource res = (Resource) readThing(conn);
+			Resource old = r.put(res.type(), res);
+			assert old == null;
+		}
+		conn.readInt(SEND_WORLD_SUB3);
+		cnt = conn.readPos();
+		List<Unit> u = new ArrayList<>(cnt);
+		while (cnt-- > 0) {
+			u.add((Unit) readThing(conn));
+		}
+		conn.readInt(SEND_WORLD_SUB4);
+		Build b = null;
+		if (conn.readByte(0, 1) != 0) {
+			b = (Build) readThing(conn);
+		}
+		return new Tile(g, r, b, u, lastSeen);
+	}
+	
 	private static final Set<String> UNIT_IGNORE     = Set.of(Entity.OWNER, Entity.X, Entity.Y);
 	private static final Set<String> BUILD_IGNORE    = Set.of(Entity.OWNER, Entity.X, Entity.Y);
 	private static final Set<String> RESOURCE_IGNORE = Set.of(Resource.AMOUNT);
@@ -392,10 +923,10 @@ public class OpenWorld implements NextTurnListener {
 		}
 		}
 		for (Value val : map.values()) {
-			conn.writeInt(WRITE_THING_SUB0);
 			if (ignore.contains(val.name())) {
 				continue;
 			}
+			conn.writeInt(WRITE_THING_SUB0);
 			writeValue(conn, val);
 		}
 		conn.writeInt(WRITE_THING_FIN);
@@ -16,12 +16,18 @@
 // along with this program. If not, see <https://www.gnu.org/licenses/>.
 package de.hechler.patrick.games.sc.world;
 
+import static de.hechler.patrick.games.sc.Settings.threadStart;
+
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.StreamCorruptedException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import de.hechler.patrick.games.sc.connect.Connection;
 import de.hechler.patrick.games.sc.turn.NextTurnListener;
@@ -34,20 +40,35 @@ import de.hechler.patrick.utils.interfaces.Executable;
 @SuppressWarnings("javadoc")
 public class RemoteWorld implements World, Executable<IOException>, Closeable {
 	
-	private final Connection       conn;
-	private volatile Tile[][]      tiles;
-	private volatile int           turn = -2;
-	private List<NextTurnListener> ntl;
+	private final Connection               conn;
+	private volatile Tile[][]              tiles;
+	private volatile int                   turn     = -2;
+	private volatile int                   version  = -1;
+	private volatile boolean               stale;
+	private List<NextTurnListener>         ntl;
+	private volatile boolean               multiplexed;
+	private final Map<Integer, Pending<?>> pending  = new HashMap<>();
+	private Throwable                      failure;
+	private int                            nextId;
+	private CompletableFuture<Void>        notified = CompletableFuture.completedFuture(null);
 	
 	public RemoteWorld(Connection conn) {
 		this.conn = conn;
 		this.ntl  = new ArrayList<>();
 	}
 	
+	/**
+	 * receives the notifications of the server
+	 * <p>
+	 * after the connection is {@link #multiplex() multiplexed} this method returns, the frames are then read by the thread started by
+	 * {@link #multiplex()}
+	 */
 	@Override
 	public void execute() throws IOException {
-		while (!this.conn.closed()) {
-			OpenWorld.acceptBlockClient(this.conn, 250, this::exec);
+		while (!this.conn.closed() && !this.multiplexed) {
+			this.conn.blocked(250, () -> {
+				if (!this.multiplexed) OpenWorld.acceptBlockClient(this.conn, 250, this::exec);
+			}, Connection.NOP);
 		}
 	}
 	
@@ -56,9 +77,30 @@ public class RemoteWorld implements World, Executable<IOException>, Closeable {
 		this.conn.logOut();
 	}
 	
+	/**
+	 * switches the connection to the {@link OpenWorld#MUX_HELLO multiplexed} protocol and starts a thread which reads the frames of the server
+	 * <p>
+	 * after this requests do not need to wait for a free block and can be send by multiple threads at the same time.<br>
+	 * the server has to support the multiplexed protocol
+	 * 
+	 * @throws IOException if an IO error occurs
+	 */
+	public synchronized void multiplex() throws IOException {
+		if (this.multiplexed) return;
+		this.conn.blocked(() -> {
+			this.conn.setTimeout(0);
+			this.conn.writeInt(OpenWorld.MUX_HELLO);
+			while (this.conn.readInt(OpenWorld.MUX_HELLO, OpenWorld.START_BLOCK) != OpenWorld.MUX_HELLO) {
+				// the server sends its block as a push frame instead
+			}
+			this.multiplexed = true;
+		});
+		threadStart(this::readFrames);
+	}
+	
 	private void exec() throws IOException {
-		this.conn.readInt(OpenWorld.NOTIFY_NEXT_TURN);
-		int turn = this.conn.readInt();
+		boolean delta = this.conn.readInt(OpenWorld.NOTIFY_NEXT_TURN, OpenWorld.NOTIFY_NEXT_TURN_DELTA) == OpenWorld.NOTIFY_NEXT_TURN_DELTA;
+		int     turn  = this.conn.readInt();
 		if (turn < -1) { // fails anyway
 			turn = this.conn.wrongInputPositive(turn, false);
 		}
@@ -66,11 +108,142 @@ public class RemoteWorld implements World, Executable<IOException>, Closeable {
 		byte[] thash = new byte[32];
 		this.conn.readArr(whash);
 		this.conn.readArr(thash);
+		if (delta) { // the changes are already applied when the listeners are notified
+			readDelta(this.tiles);
+		} else {
+			this.stale = true;
+		}
+		this.turn = turn;
+		final int t = turn;
+		if (this.multiplexed) { // the listeners may send requests, so they can not be notified by the reading thread
+			this.notified = this.notified.thenRunAsync(() -> notifyListeners(t, whash, thash), r -> threadStart(r));
+		} else {
+			notifyListeners(t, whash, thash);
+		}
+	}
+	
+	private void notifyListeners(int turn, byte[] whash, byte[] thash) {
 		for (NextTurnListener c : this.ntl) {
 			c.nextTurn(turn, whash, thash);
 		}
 	}
 	
+	/* the only thread which reads from the connection after it is multiplexed */
+	private void readFrames() {
+		try {
+			while (!this.conn.closed()) {
+				if (this.conn.readInt(OpenWorld.FRAME_RESPONSE, OpenWorld.FRAME_PUSH) == OpenWorld.FRAME_PUSH) {
+					exec();
+					continue;
+				}
+				int        id = this.conn.readInt();
+				Pending<?> p;
+				synchronized (this.pending) {
+					p = this.pending.remove(Integer.valueOf(id));
+				}
+				if (p == null) throw new StreamCorruptedException("got a response for an unknown request: " + id);
+				p.complete();
+			}
+		} catch (IOException | RuntimeException | Error e) {
+			// the error is reported to all pending and all later requests, no one else reads the connection, so it is closed
+			synchronized (this.pending) {
+				this.failure = e;
+				for (Pending<?> p : this.pending.values()) {
+					fail(p.future, e);
+				}
+				this.pending.clear();
+			}
+			try {
+				this.conn.close();
+			} catch (IOException ce) {
+				e.addSuppressed(ce);
+			}
+		}
+	}
+	
+	/* the futures are not completed by the reading thread, because dependent stages may send requests and wait for their response */
+	private static void fail(CompletableFuture<?> f, Throwable t) {
+		threadStart(() -> f.completeExceptionally(t));
+	}
+	
+	/* reads the result of a request */
+	private interface Response<T> {
+		
+		T read() throws IOException;
+		
+	}
+	
+	private record Pending<T>(CompletableFuture<T> future, Response<T> result) {
+		
+		private void complete() throws IOException {
+			T val;
+			try {
+				val = this.result.read();
+			} catch (Throwable t) {
+				fail(this.future, t);
+				throw t;
+			}
+			this.future.completeAsync(() -> val, r -> threadStart(r));
+		}
+		
+	}
+	
+	/*
+	 * sends the request and returns the future result
+	 * without multiplexing this uses a block and the returned future is already done
+	 */
+	private <T> CompletableFuture<T> send(int cmd, Executable<IOException> args, Response<T> result) throws IOException {
+		CompletableFuture<T> f = new CompletableFuture<>();
+		this.conn.blocked(() -> {
+			if (!this.multiplexed) {
+				OpenWorld.doBlockedClient(this.conn, () -> {
+					this.conn.writeInt(cmd);
+					if (cmd != OpenWorld.GET_TURN && cmd != OpenWorld.GET_WORLD) {
+						this.conn.readInt(cmd);
+					}
+					args.execute();
+					f.complete(result.read());
+				});
+				return;
+			}
+			int id = this.nextId++;
+			synchronized (this.pending) {
+				if (this.failure != null) throw new IOException("the connection failed: " + this.failure, this.failure);
+				if (this.conn.closed()) throw new IOException("the connection is closed");
+				this.pending.put(Integer.valueOf(id), new Pending<>(f, result));
+			}
+			try {
+				this.conn.writeInt(OpenWorld.FRAME_REQUEST);
+				this.conn.writeInt(id);
+				this.conn.writeInt(cmd);
+				args.execute();
+			} catch (Throwable t) {
+				synchronized (this.pending) {
+					this.pending.remove(Integer.valueOf(id));
+				}
+				throw t;
+			}
+		});
+		return f;
+	}
+	
+	/* sends the request and waits for the result */
+	private <T> T call(int cmd, Executable<IOException> args, Response<T> result) {
+		try {
+			return send(cmd, args, result).get();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			Throwable c = e.getCause();
+			if (c instanceof RuntimeException re) throw re;
+			if (c instanceof Error err) throw err;
+			throw new IllegalStateException(c);
+		}
+	}
+	
 	@Override
 	public User user() {
 		return this.conn.usr;
@@ -78,21 +251,13 @@ public class RemoteWorld implements World, Executable<IOException>, Closeable {
 	
 	@Override
 	public int xlen() {
-		Tile[][] ts = this.tiles;
-		while (ts == null) {
-			update();
-			ts = this.tiles;
-		}
+		Tile[][] ts = tiles();
 		return ts.length;
 	}
 	
 	@Override
 	public int ylen() {
-		Tile[][] ts = this.tiles;
-		while (ts == null) {
-			update();
-			ts = this.tiles;
-		}
+		Tile[][] ts = tiles();
 		return ts[0].length;
 	}
 	
@@ -103,16 +268,12 @@ public class RemoteWorld implements World, Executable<IOException>, Closeable {
 			updateTurn();
 			t = this.turn;
 		}
-		return 0;
+		return t;
 	}
 	
 	@Override
 	public Tile tile(int x, int y) {
-		Tile[][] ts = this.tiles;
-		while (ts == null) {
-			update();
-			ts = this.tiles;
-		}
+		Tile[][] ts = tiles();
 		return ts[x][y];
 	}
 	
@@ -130,68 +291,172 @@ public class RemoteWorld implements World, Executable<IOException>, Closeable {
 	
 	@Override
 	public void finish(Turn t) {
-		try {
-			OpenWorld.doBlockedClient(this.conn, () -> {
-				this.conn.writeInt(OpenWorld.MAKE_TURN);
-				this.conn.readInt(OpenWorld.MAKE_TURN);
-				t.sendTurn(this.conn);
-			});
-		} catch (IOException e) {
-			throw new IllegalStateException(e);
-		}
+		String err = call(OpenWorld.MAKE_TURN, () -> t.sendTurn(this.conn), () -> {
+			if (!this.multiplexed || this.conn.readByte(0, 1) == 1) return null;
+			return this.conn.readString();
+		});
+		if (err != null) throw new IllegalStateException("the server rejected the turn: " + err);
 	}
 	
 	@Override
 	public Map<User, List<Entity<?, ?>>> entities() {
-		Tile[][] ts = this.tiles;
-		while (ts == null) {
-			update();
-			ts = this.tiles;
-		}
+		Tile[][] ts = tiles();
 		return CompleteWorld.entities(ts);
 	}
 	
 	@Override
 	public WorldThing<?, ?> get(UUID uuid) {
+		Tile[][] ts = tiles();
+		return CompleteWorld.get(ts, uuid);
+	}
+	
+	/**
+	 * requests the thing with the given UUID from the server
+	 * <p>
+	 * unlike {@link #get(UUID)} this does not need the tiles of the world.<br>
+	 * if the connection is {@link #multiplex() multiplexed} many requests can be in flight at the same time, otherwise the returned future is already
+	 * done when this method returns
+	 * 
+	 * @param uuid the UUID of the thing
+	 * 
+	 * @return the future thing, which is completed with <code>null</code> if the server knows no thing with the given UUID
+	 */
+	public CompletableFuture<WorldThing<?, ?>> fetch(UUID uuid) {
+		try {
+			return send(OpenWorld.GET_THING, () -> this.conn.writeUUID(uuid), this::readThingOrNull);
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+	
+	/**
+	 * requests all things with the given UUIDs from the server with {@link OpenWorld#GET_THINGS} requests
+	 * <p>
+	 * one request is send for every {@value OpenWorld#MAX_THINGS} things
+	 * 
+	 * @param uuids the UUIDs of the things
+	 * 
+	 * @return the future things in the order of the UUIDs, things which are not known by the server are <code>null</code>
+	 * 
+	 * @see #fetch(UUID)
+	 */
+	public CompletableFuture<List<WorldThing<?, ?>>> fetchAll(List<UUID> uuids) {
+		int                                             size  = uuids.size();
+		List<CompletableFuture<List<WorldThing<?, ?>>>> parts = new ArrayList<>();
+		for (int off = 0; off < size; off += OpenWorld.MAX_THINGS) {
+			parts.add(fetchBatch(uuids.subList(off, Math.min(off + OpenWorld.MAX_THINGS, size))));
+		}
+		if (parts.size() == 1) return parts.get(0);
+		return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[parts.size()])).thenApply(v -> {
+			List<WorldThing<?, ?>> things = new ArrayList<>(size);
+			for (CompletableFuture<List<WorldThing<?, ?>>> part : parts) {
+				things.addAll(part.join());
+			}
+			return things;
+		});
+	}
+	
+	private CompletableFuture<List<WorldThing<?, ?>>> fetchBatch(List<UUID> uuids) {
+		int cnt = uuids.size();
+		try {
+			return send(OpenWorld.GET_THINGS, () -> {
+				this.conn.writeInt(cnt);
+				for (UUID uuid : uuids) {
+					this.conn.writeUUID(uuid);
+				}
+			}, () -> {
+				List<WorldThing<?, ?>> things = new ArrayList<>(cnt);
+				for (int i = 0; i < cnt; i++) {
+					things.add(readThingOrNull());
+				}
+				return things;
+			});
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+	
+	private WorldThing<?, ?> readThingOrNull() throws IOException {
+		if (this.conn.readByte(0, 1) == 0) return null;
+		return OpenWorld.readThing(this.conn);
+	}
+	
+	/**
+	 * subscribes to the changes of the world
+	 * <p>
+	 * after subscribing the server sends the changed tiles together with the notification of the next turn, so the world is already up to date when
+	 * the {@link NextTurnListener listeners} are notified
+	 */
+	public synchronized void subscribe() {
+		int known = this.stale || this.tiles == null ? -1 : this.version;
+		call(OpenWorld.SUBSCRIBE_DELTA, () -> {
+			this.stale = false;
+			this.conn.writeInt(known);
+		}, this::readWorldDelta);
+	}
+	
+	private Tile[][] tiles() {
 		Tile[][] ts = this.tiles;
-		while (ts == null) {
+		while (ts == null || this.stale) {
 			update();
 			ts = this.tiles;
 		}
-		return CompleteWorld.get(ts, uuid);
+		return ts;
 	}
 	
+	// only the tiles changed since the last update are received and replaced in the existing array
 	private synchronized void update() {
 		final Tile[][] ts = this.tiles;
-		if (ts != null) {
+		if (ts != null && !this.stale) {
 			return;
 		}
-		try {
-			OpenWorld.doBlockedClient(this.conn, () -> {
-				this.conn.writeInt(OpenWorld.GET_WORLD);
-				this.tiles = OpenWorld.loadWorld(ts, this.conn);
-			});
-		} catch (IOException e) {
-			throw new IllegalStateException(e);
+		int known = ts == null ? -1 : this.version;
+		call(OpenWorld.GET_WORLD_DELTA, () -> {
+			this.stale = false;
+			this.conn.writeInt(known);
+		}, this::readWorldDelta);
+	}
+	
+	private Void readWorldDelta() throws IOException {
+		this.turn = readTurn();
+		readDelta(this.tiles);
+		return null;
+	}
+	
+	private int readTurn() throws IOException {
+		int t = this.conn.readInt();
+		if (t < -1) {
+			t = this.conn.wrongInputPositive(t, false);
+		}
+		return t;
+	}
+	
+	// only one thread reads at a time (the blocking or the frame reading thread), which also prevents concurrent deltas
+	private void readDelta(Tile[][] ts) throws IOException {
+		int v = this.conn.readInt();
+		if (this.conn.readInt(OpenWorld.DELTA_FULL, OpenWorld.DELTA_TILES) == OpenWorld.DELTA_FULL) {
+			this.tiles = OpenWorld.loadWorld(null, this.conn); // the size may have changed
+		} else {
+			if (ts == null) throw new StreamCorruptedException("got a delta without having a world");
+			int xlen = ts.length;
+			int ylen = ts[0].length;
+			for (int cnt = this.conn.readInt(); cnt > 0; cnt--) {
+				int x = this.conn.readInt();
+				int y = this.conn.readInt();
+				if (x < 0 || y < 0 || x >= xlen || y >= ylen) {
+					throw new StreamCorruptedException("the changed tile is outside of the world: (" + x + '|' + y + ')');
+				}
+				ts[x][y] = OpenWorld.readTile(this.conn);
+			}
 		}
+		this.version = v;
 	}
 	
 	private synchronized void updateTurn() {
 		if (this.turn >= -1) {
 			return;
 		}
-		try {
-			OpenWorld.doBlockedClient(this.conn, () -> {
-				this.conn.writeInt(OpenWorld.GET_TURN);
-				int t = this.conn.readInt();
-				if (t < -1) {
-					t = this.conn.wrongInputPositive(t, false);
-				}
-				this.turn = t;
-			});
-		} catch (IOException e) {
-			throw new IllegalStateException(e);
-		}
+		this.turn = call(OpenWorld.GET_TURN, Connection.NOP, this::readTurn).intValue();
 	}
 	
 }
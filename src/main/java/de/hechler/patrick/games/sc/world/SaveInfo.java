@@ -0,0 +1,277 @@
+// This file is part of the Square Conquerer Project
+// DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+// Copyright (C) 2023 Patrick Hechler
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Affero General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Affero General Public License for more details.
+//
+// You should have received a copy of the GNU Affero General Public License
+// along with this program. If not, see <https://www.gnu.org/licenses/>.
+package de.hechler.patrick.games.sc.world;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import de.hechler.patrick.games.sc.addons.Addon;
+import de.hechler.patrick.games.sc.addons.Addons;
+import de.hechler.patrick.utils.objects.Version;
+
+/**
+ * the unencrypted header at the start of a {@link CompleteWorld#saveEverything(OutputStream) complete save}
+ * <p>
+ * the header can be {@link #read(Path) read} without knowing the password of the save and without reading the rest of the save, so saves can be
+ * listed without decrypting them.
+ * <p>
+ * the header has the following format (big endian):
+ * <ol>
+ * <li>{@link #MAGIC}</li>
+ * <li>the length of the header data</li>
+ * <li>the header data:
+ * <ol>
+ * <li>the x-len and y-len of the world</li>
+ * <li>the turn of the save</li>
+ * <li>the number of users and their names</li>
+ * <li>the number of addons and their names and versions</li>
+ * <li>the world hash</li>
+ * <li>the number of sections and for every section its name, offset and length</li>
+ * </ol>
+ * </li>
+ * <li>a {@link CRC32} of the header data</li>
+ * </ol>
+ * readers ignore additional data at the end of the header data, so newer versions can add fields.
+ * <p>
+ * the {@link Section#offset() offsets} of the sections are offsets in the logical data of the save, this is the data which is read from the
+ * {@link de.hechler.patrick.games.sc.connect.Connection connection} after the save was decrypted and (if compressed) inflated. they can not be used
+ * to seek in the save file.
+ * 
+ * @param xlen      the x-len of the world
+ * @param ylen      the y-len of the world
+ * @param turn      the turn of the save
+ * @param users     the names of the users of the world
+ * @param addons    the names and versions of the addons which were loaded when the world was saved
+ * @param worldHash the {@link CompleteWorld#worldHash() world hash} of the save
+ * @param sections  the sections of the save
+ * 
+ * @author Patrick Hechler
+ */
+public record SaveInfo(int xlen, int ylen, int turn, List<String> users, Map<String, Version> addons, byte[] worldHash, List<Section> sections) {
+	
+	/**
+	 * the first int of every save with a header
+	 */
+	public static final int  MAGIC   = 0x5C4E1A37;
+	private static final int MAX_LEN = 1 << 24;
+	
+	/**
+	 * creates a new save info, the lists and the map are copied
+	 * 
+	 * @param xlen      the x-len of the world
+	 * @param ylen      the y-len of the world
+	 * @param turn      the turn of the save
+	 * @param users     the names of the users of the world
+	 * @param addons    the names and versions of the addons which were loaded when the world was saved
+	 * @param worldHash the {@link CompleteWorld#worldHash() world hash} of the save
+	 * @param sections  the sections of the save
+	 */
+	public SaveInfo {
+		users     = List.copyOf(users);
+		addons    = Collections.unmodifiableMap(new TreeMap<>(addons));
+		worldHash = worldHash.clone();
+		sections  = List.copyOf(sections);
+	}
+	
+	/**
+	 * a section of a save
+	 * 
+	 * @param name   the name of the section
+	 * @param offset the offset of the section in the logical data of the save (see {@link SaveInfo})
+	 * @param length the length of the section in bytes
+	 * 
+	 * @author Patrick Hechler
+	 */
+	public record Section(String name, long offset, int length) {}
+	
+	/**
+	 * returns the {@link CompleteWorld#worldHash() world hash} of the save
+	 * 
+	 * @return the world hash of the save
+	 */
+	@Override
+	public byte[] worldHash() {
+		return this.worldHash.clone();
+	}
+	
+	/**
+	 * creates the header of a save of the given world
+	 * 
+	 * @param world    the world
+	 * @param snap     the saved snapshot of the world
+	 * @param names    the names of the sections
+	 * @param sections the serialized sections
+	 * @param offset   the logical offset of the length of the first section
+	 * 
+	 * @return the header of the save
+	 */
+	static SaveInfo of(CompleteWorld world, WorldSnapshot snap, List<String> names, byte[][] sections, long offset) {
+		List<String> users = new ArrayList<>(world.user().subUsers().keySet());
+		Collections.sort(users);
+		Map<String, Version> addons = new TreeMap<>();
+		for (Addon a : Addons.addons().values()) {
+			addons.put(a.name, a.version);
+		}
+		List<Section> secs = new ArrayList<>(sections.length);
+		for (int i = 0; i < sections.length; i++) {
+			offset += 4; // the length of the section
+			secs.add(new Section(names.get(i), offset, sections[i].length));
+			offset += sections[i].length;
+		}
+		return new SaveInfo(snap.xlen(), snap.ylen(), snap.turn(), users, addons, snap.worldHash(), secs);
+	}
+	
+	/**
+	 * writes this header to the given stream
+	 * 
+	 * @param out the stream
+	 * 
+	 * @throws IOException if an IO error occurs
+	 */
+	void write(OutputStream out) throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream      data = new DataOutputStream(bout);
+		data.writeInt(this.xlen);
+		data.writeInt(this.ylen);
+		data.writeInt(this.turn);
+		data.writeInt(this.users.size());
+		for (String name : this.users) {
+			data.writeUTF(name);
+		}
+		data.writeInt(this.addons.size());
+		for (Map.Entry<String, Version> e : this.addons.entrySet()) {
+			data.writeUTF(e.getKey());
+			data.writeInt(e.getValue().major());
+			data.writeInt(e.getValue().minor());
+			data.writeInt(e.getValue().patch());
+		}
+		data.writeInt(this.worldHash.length);
+		data.write(this.worldHash);
+		data.writeInt(this.sections.size());
+		for (Section sec : this.sections) {
+			data.writeUTF(sec.name);
+			data.writeLong(sec.offset);
+			data.writeInt(sec.length);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(bout.toByteArray());
+		DataOutputStream dout = new DataOutputStream(out);
+		dout.writeInt(MAGIC);
+		dout.writeInt(bout.size());
+		bout.writeTo(dout);
+		dout.writeInt((int) crc.getValue());
+		dout.flush();
+	}
+	
+	/**
+	 * reads the header of the given save file, the rest of the save is not read
+	 * 
+	 * @param file the save file
+	 * 
+	 * @return the header of the save
+	 * 
+	 * @throws IOException if an IO error occurs or the save has no valid header
+	 */
+	public static SaveInfo read(Path file) throws IOException {
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+			return read(in);
+		}
+	}
+	
+	/**
+	 * reads the header from the given stream, after this method returns the stream is at the end of the header
+	 * 
+	 * @param in the stream
+	 * 
+	 * @return the header of the save
+	 * 
+	 * @throws IOException if an IO error occurs or the stream has no valid header
+	 */
+	public static SaveInfo read(InputStream in) throws IOException {
+		DataInputStream din = new DataInputStream(in);
+		if (din.readInt() != MAGIC) throw new StreamCorruptedException("the save has no header");
+		int len = din.readInt();
+		if (len < 0 || len > MAX_LEN) throw new StreamCorruptedException("invalid header length: " + len);
+		byte[] bytes = new byte[len];
+		din.readFully(bytes);
+		CRC32 crc = new CRC32();
+		crc.update(bytes);
+		if (din.readInt() != (int) crc.getValue()) throw new StreamCorruptedException("the header is corrupt");
+		DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes));
+		int             xlen = data.readInt();
+		int             ylen = data.readInt();
+		int             turn = data.readInt();
+		List<String>    usrs = new ArrayList<>();
+		for (int remain = count(data); remain > 0; remain--) {
+			usrs.add(data.readUTF());
+		}
+		Map<String, Version> addons = new TreeMap<>();
+		for (int remain = count(data); remain > 0; remain--) {
+			String name = data.readUTF();
+			addons.put(name, new Version(data.readInt(), data.readInt(), data.readInt()));
+		}
+		byte[] hash = new byte[count(data)];
+		data.readFully(hash);
+		List<Section> secs = new ArrayList<>();
+		for (int remain = count(data); remain > 0; remain--) {
+			secs.add(new Section(data.readUTF(), data.readLong(), data.readInt()));
+		}
+		return new SaveInfo(xlen, ylen, turn, usrs, addons, hash, secs);
+	}
+	
+	private static int count(DataInputStream data) throws IOException {
+		int cnt = data.readInt();
+		if (cnt < 0 || cnt > data.available()) throw new StreamCorruptedException("invalid count in the header: " + cnt);
+		return cnt;
+	}
+	
+	/**
+	 * skips the header of the save in the given stream, if the save has a header
+	 * 
+	 * @param in the stream which contains the save
+	 * 
+	 * @return a stream which contains the save after its header
+	 * 
+	 * @throws IOException if an IO error occurs or the header is invalid
+	 */
+	static InputStream skip(InputStream in) throws IOException {
+		BufferedInputStream bin = new BufferedInputStream(in);
+		bin.mark(4);
+		int magic = new DataInputStream(bin).readInt();
+		bin.reset();
+		if (magic == MAGIC) { // saves of older versions have no header
+			read(bin);
+		}
+		return bin;
+	}
+	
+}
@@ -0,0 +1,98 @@
+// This file is part of the Square Conquerer Project
+// DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+// Copyright (C) 2023 Patrick Hechler
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Affero General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Affero General Public License for more details.
+//
+// You should have received a copy of the GNU Affero General Public License
+// along with this program. If not, see <https://www.gnu.org/licenses/>.
+package de.hechler.patrick.games.sc.world;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * an append only list of all executed turns
+ * <p>
+ * the turns are stored as compact {@link TurnRecord records}, which do not reference any entity of the world<br>
+ * elements are never modified after they were added, so a {@link #view()} stays valid and consistent while more turns are added by a different thread
+ * 
+ * @author Patrick Hechler
+ */
+final class TurnHistory extends AbstractList<TurnRecord> implements RandomAccess {
+	
+	private TurnRecord[] turns;
+	private byte[][]     hashes;
+	private int          size;
+	
+	TurnHistory() {
+		this.turns  = new TurnRecord[16];
+		this.hashes = new byte[16][];
+	}
+	
+	@Override
+	public boolean add(TurnRecord e) {
+		if (this.size == this.turns.length) {
+			// copy, old views still use the old array
+			this.turns  = Arrays.copyOf(this.turns, this.size << 1);
+			this.hashes = Arrays.copyOf(this.hashes, this.size << 1);
+		}
+		this.turns[this.size++] = e;
+		return true;
+	}
+	
+	/**
+	 * returns the cached hash chain over the first <code>count</code> turns or <code>null</code> if it is not known
+	 * 
+	 * @param count the number of turns
+	 * 
+	 * @return the hash chain over the first <code>count</code> turns or <code>null</code>
+	 */
+	byte[] chained(int count) {
+		if (count <= 0 || count > this.size) return null;
+		return this.hashes[count - 1];
+	}
+	
+	/**
+	 * caches the hash chain over the first <code>count</code> turns
+	 * 
+	 * @param count the number of turns
+	 * @param hash  the hash chain over the first <code>count</code> turns
+	 */
+	void chained(int count, byte[] hash) {
+		if (count <= 0 || count > this.size) throw new IndexOutOfBoundsException(count);
+		this.hashes[count - 1] = hash;
+	}
+	
+	@Override
+	public TurnRecord get(int index) {
+		if (index >= this.size) throw new IndexOutOfBoundsException(index);
+		return this.turns[index];
+	}
+	
+	@Override
+	public int size() {
+		return this.size;
+	}
+	
+	/**
+	 * returns an unmodifiable view of the current turns, the view is not affected by later {@link #add(TurnRecord) additions}
+	 * 
+	 * @return an unmodifiable view of the current turns
+	 */
+	List<TurnRecord> view() {
+		return Collections.unmodifiableList(Arrays.asList(this.turns).subList(0, this.size));
+	}
+	
+}
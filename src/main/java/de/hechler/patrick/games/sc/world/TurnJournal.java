@@ -0,0 +1,446 @@
+// This file is part of the Square Conquerer Project
+// DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+// Copyright (C) 2023 Patrick Hechler
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Affero General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Affero General Public License for more details.
+//
+// You should have received a copy of the GNU Affero General Public License
+// along with this program. If not, see <https://www.gnu.org/licenses/>.
+package de.hechler.patrick.games.sc.world;
+
+import static de.hechler.patrick.games.sc.Settings.threadStart;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+
+import de.hechler.patrick.games.sc.connect.Connection;
+
+/**
+ * an append-only journal of the executed turns of a {@link CompleteWorld}.
+ * <p>
+ * after every turn the {@link TurnRecord record} of the turn and the {@link CompleteWorld#worldHash() world hash} after the turn are appended to the
+ * journal. the appended entries are forced to the disk in groups, so multiple turns share one {@link FileChannel#force(boolean) force}.
+ * <p>
+ * the journal file has the following format:
+ * <ol>
+ * <li>{@link #MAGIC}</li>
+ * <li>the number of turns of the world when the journal was created or {@link #checkpoint(WorldSnapshot) checkpointed}</li>
+ * <li>the length of the world hash of this turn</li>
+ * <li>the world hash of this turn</li>
+ * <li>for every turn:
+ * <ol>
+ * <li>the length of the entry</li>
+ * <li>the turn record</li>
+ * <li>the world hash after the turn</li>
+ * <li>a {@link CRC32} of the entry</li>
+ * </ol>
+ * </li>
+ * </ol>
+ * when a journal is {@link #attach(Path, CompleteWorld) attached} to a world, which was {@link CompleteWorld#loadEverything(Connection) loaded} from an
+ * older save, the turns which are missing in the world are replayed and their hashes are checked. an incomplete entry at the end of the journal (from a
+ * crash) is removed.
+ * <p>
+ * after the world was saved completely, the turns before the save can be removed from the journal with {@link #checkpoint(WorldSnapshot)}
+ * ({@link AutoSave} does this after every save), so the journal does not grow without bound
+ * 
+ * @author Patrick Hechler
+ */
+public final class TurnJournal implements Closeable {
+	
+	/**
+	 * the first int of every journal file
+	 */
+	public static final int    MAGIC        = 0x4B1F6D02;
+	/**
+	 * the time in milliseconds the committer waits for more entries before it forces the journal to the disk
+	 */
+	public static final long   COMMIT_DELAY = 2L;
+	/**
+	 * the suffix, which is appended to the name of a save file to get the name of its journal
+	 * 
+	 * @see #journalFile(Path)
+	 */
+	public static final String SUFFIX       = ".journal";
+	
+	private static final int HEADER_LEN = 12;
+	
+	private final Path                          file;
+	private final Object                        rotation;
+	private FileChannel                         channel;
+	private final CompleteWorld                 world;
+	private final Entry                         entry;
+	private final Connection                    conn;
+	private final List<CompletableFuture<Void>> unforced;
+	private long                                pos;
+	private boolean                             committing;
+	private volatile boolean                    closed;
+	
+	private TurnJournal(Path file, FileChannel channel, CompleteWorld world, long pos) {
+		this.file     = file;
+		this.rotation = new Object();
+		this.channel  = channel;
+		this.world    = world;
+		this.entry    = new Entry();
+		this.conn     = Connection.createUnsecure(world.user(), this.entry, world);
+		this.unforced = new ArrayList<>();
+		this.pos      = pos;
+	}
+	
+	/**
+	 * returns the journal file, which belongs to the given save file
+	 * 
+	 * @param save the {@link CompleteWorld#saveEverything(java.io.OutputStream) complete save} of the world
+	 * 
+	 * @return the journal file of the save
+	 */
+	public static Path journalFile(Path save) {
+		return save.resolveSibling(save.getFileName().toString() + SUFFIX);
+	}
+	
+	/**
+	 * opens or creates the journal file and attaches it to the given world.
+	 * <p>
+	 * if the journal contains turns, which are not yet part of the world, they are replayed before the journal is attached
+	 * 
+	 * @param file  the journal file
+	 * @param world the world
+	 * 
+	 * @return the attached journal
+	 * 
+	 * @throws IOException           if an IO error occurs, the journal does not belong to the world or a replayed turn results in a different world hash
+	 * @throws IllegalStateException if the game did not yet start or the world already has a journal
+	 */
+	public static TurnJournal attach(Path file, CompleteWorld world) throws IOException, IllegalStateException {
+		synchronized (world) {
+			if (world.turn() < 0) throw new IllegalStateException("the game did not yet start");
+			if (world.journal() != null) throw new IllegalStateException("the world already has a journal");
+			FileChannel fc = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			try {
+				long end;
+				if (fc.size() == 0L) {
+					end = writeHeader(fc, world.snapshot());
+					fc.force(true);
+				} else {
+					end = recover(fc, world);
+					fc.truncate(end);
+				}
+				TurnJournal res = new TurnJournal(file, fc, world, end);
+				world.journal(res);
+				return res;
+			} catch (Throwable t) {
+				fc.close();
+				throw t;
+			}
+		}
+	}
+	
+	/*
+	 * replays all valid entries, which are not yet part of the world and returns the end of the last valid entry
+	 * the journal is read into the heap and not mapped, because a mapped file can not be truncated on all systems and the mapping is only released by the
+	 * garbage collector (the journal is checkpointed after every save, so it stays small)
+	 */
+	private static long recover(FileChannel fc, CompleteWorld world) throws IOException {
+		long size = fc.size();
+		if (size < HEADER_LEN) throw new StreamCorruptedException("the journal header is truncated");
+		if (size > Integer.MAX_VALUE) throw new IOException("the journal is too large: " + size);
+		ByteBuffer buf = ByteBuffer.allocate((int) size);
+		readFully(fc, buf, 0L);
+		buf.flip();
+		if (buf.getInt() != MAGIC) throw new StreamCorruptedException("this is no turn journal");
+		int turn = buf.getInt();
+		if (turn > world.turn()) throw new StreamCorruptedException("the journal starts after the current turn of the world");
+		int hlen = buf.getInt();
+		if (hlen < 0 || hlen > buf.remaining()) throw new StreamCorruptedException("the journal header is corrupt");
+		byte[] last = new byte[hlen]; // the world hash of the last skipped turn
+		buf.get(last);
+		EntryInput in   = new EntryInput();
+		Connection conn = Connection.createUnsecure(world.user(), in, world);
+		CRC32      crc  = new CRC32();
+		long       end  = buf.position();
+		while (buf.remaining() >= 4) {
+			int len = buf.getInt();
+			if (len < 0 || buf.remaining() < len + 4L) break;
+			ByteBuffer data = buf.slice(buf.position(), len);
+			crc.reset();
+			crc.update(data.duplicate());
+			buf.position(buf.position() + len);
+			if (buf.getInt() != (int) crc.getValue()) break;
+			end = buf.position();
+			if (turn < world.turn()) {
+				if (len < last.length) throw new StreamCorruptedException("the journal entry of turn " + turn + " is too short");
+				data.get(len - last.length, last);
+				turn++;
+				continue;
+			}
+			if (last != null) {
+				checkOwner(last, world);
+				last = null;
+			}
+			turn++;
+			in.data = data;
+			TurnRecord rec  = TurnRecord.read(conn);
+			byte[]     hash = new byte[conn.readPos()];
+			conn.readArr(hash);
+			world.replay(rec);
+			if (!Arrays.equals(hash, world.snapshot().worldHash())) {
+				throw new StreamCorruptedException("the replayed turn " + turn + " results in a different world hash");
+			}
+		}
+		if (turn < world.turn()) throw new StreamCorruptedException("the journal ends before the current turn of the world");
+		if (last != null) checkOwner(last, world);
+		return end;
+	}
+	
+	/*
+	 * checks that the world hash of the last turn, which is already part of the world, is the current hash of the world
+	 */
+	private static void checkOwner(byte[] hash, CompleteWorld world) throws StreamCorruptedException {
+		if (!Arrays.equals(hash, world.snapshot().worldHash())) {
+			throw new StreamCorruptedException("the journal does not belong to the world (different world hash at turn " + world.turn() + ")");
+		}
+	}
+	
+	/*
+	 * writes the header for the given snapshot and returns the length of the header
+	 */
+	private static long writeHeader(FileChannel fc, WorldSnapshot snap) throws IOException {
+		byte[]     hash = snap.worldHash();
+		ByteBuffer head = ByteBuffer.allocate(HEADER_LEN + hash.length).putInt(MAGIC).putInt(snap.turn()).putInt(hash.length).put(hash);
+		writeFully(fc, head.flip(), 0L);
+		return head.capacity();
+	}
+	
+	/**
+	 * appends the given turn to the journal, the returned future is completed when the entry was forced to the disk
+	 * 
+	 * @param rec  the record of the turn
+	 * @param hash the world hash after the turn
+	 * 
+	 * @return a future, which is completed when the entry is durable
+	 */
+	synchronized CompletableFuture<Void> append(TurnRecord rec, byte[] hash) {
+		CompletableFuture<Void> durable = new CompletableFuture<>();
+		if (this.closed) {
+			durable.completeExceptionally(new IOException("the journal is closed"));
+			return durable;
+		}
+		try {
+			this.entry.reset();
+			this.conn.writeInt(0); // placeholder for the length
+			rec.write(this.conn);
+			this.conn.writeInt(hash.length);
+			this.conn.writeArr(hash);
+			this.conn.writeInt(0); // placeholder for the check sum
+			ByteBuffer data = ByteBuffer.wrap(this.entry.buf(), 0, this.entry.size());
+			int        len  = this.entry.size() - 8;
+			CRC32      crc  = new CRC32();
+			crc.update(this.entry.buf(), 4, len);
+			data.putInt(0, len).putInt(4 + len, (int) crc.getValue());
+			writeFully(this.channel, data, this.pos);
+			this.pos += this.entry.size();
+		} catch (IOException e) {
+			durable.completeExceptionally(e);
+			return durable;
+		}
+		this.unforced.add(durable);
+		if (!this.committing) {
+			this.committing = true;
+			threadStart(this::commit);
+		}
+		return durable;
+	}
+	
+	/*
+	 * forces the appended entries in groups until no more entries are appended
+	 */
+	private void commit() {
+		while (true) {
+			try {
+				Thread.sleep(COMMIT_DELAY);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			List<CompletableFuture<Void>> batch;
+			synchronized (this) {
+				if (this.unforced.isEmpty()) {
+					this.committing = false;
+					return;
+				}
+				batch = new ArrayList<>(this.unforced);
+				this.unforced.clear();
+			}
+			try {
+				force();
+				batch.forEach(f -> f.complete(null));
+			} catch (IOException e) {
+				batch.forEach(f -> f.completeExceptionally(e));
+			}
+		}
+	}
+	
+	/* forces the current journal file, a checkpoint can not replace the file while it is forced */
+	private void force() throws IOException {
+		synchronized (this.rotation) {
+			this.channel.force(false);
+		}
+	}
+	
+	/**
+	 * forces all appended entries to the disk
+	 * 
+	 * @throws IOException if an IO error occurs
+	 */
+	public void flush() throws IOException {
+		List<CompletableFuture<Void>> batch;
+		synchronized (this) {
+			batch = new ArrayList<>(this.unforced);
+			this.unforced.clear();
+		}
+		force();
+		batch.forEach(f -> f.complete(null));
+	}
+	
+	/**
+	 * removes all turns up to the turn of the given snapshot from the journal
+	 * <p>
+	 * this method should be called after the snapshot was saved completely and the save is durable. the turns after the snapshot stay in the journal.<br>
+	 * the remaining turns are first written to a temporary file (the journal file with the {@link AutoSave#TEMP_SUFFIX} appended), which is forced to the
+	 * disk and then atomically moved to the journal file, so a crash leaves either the old or the new journal.<br>
+	 * if the journal does not contain the turn of the snapshot, nothing is done
+	 * 
+	 * @param saved the saved snapshot of the world of this journal
+	 * 
+	 * @throws IOException if an IO error occurs
+	 */
+	public void checkpoint(WorldSnapshot saved) throws IOException {
+		synchronized (this.rotation) {
+			synchronized (this) {
+				if (this.closed) throw new IOException("the journal is closed");
+				ByteBuffer head = ByteBuffer.allocate(HEADER_LEN);
+				readFully(this.channel, head, 0L);
+				int  first = head.getInt(4);
+				int  turn  = first;
+				long off   = HEADER_LEN + head.getInt(8);
+				for (ByteBuffer len = ByteBuffer.allocate(4); turn < saved.turn() && off < this.pos; turn++) {
+					readFully(this.channel, len.clear(), off);
+					off += 8 + len.getInt(0);
+				}
+				if (turn != saved.turn() || turn == first) return;
+				Path        temp = this.file.resolveSibling(this.file.getFileName() + AutoSave.TEMP_SUFFIX);
+				FileChannel fc   = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+				long        pos;
+				try {
+					pos = writeHeader(fc, saved);
+					for (long rem = this.pos - off; rem > 0L;) {
+						long cnt = this.channel.transferTo(off, rem, fc.position(pos));
+						off += cnt;
+						pos += cnt;
+						rem -= cnt;
+					}
+					fc.force(true);
+					Files.move(temp, this.file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+					AutoSave.syncDirectory(this.file);
+				} catch (Throwable t) {
+					fc.close();
+					throw t;
+				}
+				// all entries are now durable in the new journal
+				this.channel.close();
+				this.channel = fc;
+				this.pos     = pos;
+				this.unforced.forEach(f -> f.complete(null));
+				this.unforced.clear();
+			}
+		}
+	}
+	
+	/**
+	 * detaches this journal from its world, forces all appended entries to the disk and closes the journal file
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this.world) {
+			if (this.world.journal() == this) {
+				this.world.journal(null);
+			}
+		}
+		synchronized (this) {
+			if (this.closed) return;
+			this.closed = true;
+		}
+		try {
+			flush();
+		} finally {
+			this.channel.close();
+		}
+	}
+	
+	private static void readFully(FileChannel fc, ByteBuffer buf, long pos) throws IOException {
+		while (buf.hasRemaining()) {
+			int r = fc.read(buf, pos);
+			if (r < 0) throw new StreamCorruptedException("the journal is truncated");
+			pos += r;
+		}
+	}
+	
+	private static void writeFully(FileChannel fc, ByteBuffer buf, long pos) throws IOException {
+		while (buf.hasRemaining()) {
+			pos += fc.write(buf, pos);
+		}
+	}
+	
+	private static final class Entry extends ByteArrayOutputStream {
+		
+		byte[] buf() {
+			return this.buf;
+		}
+		
+	}
+	
+	private static final class EntryInput extends InputStream {
+		
+		private ByteBuffer data;
+		
+		/** {@inheritDoc} */
+		@Override
+		public int read() throws IOException {
+			if (!this.data.hasRemaining()) return -1;
+			return this.data.get() & 0xFF;
+		}
+		
+		/** {@inheritDoc} */
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) return 0;
+			if (!this.data.hasRemaining()) return -1;
+			len = Math.min(len, this.data.remaining());
+			this.data.get(b, off, len);
+			return len;
+		}
+		
+	}
+	
+}
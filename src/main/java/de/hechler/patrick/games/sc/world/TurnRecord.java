@@ -0,0 +1,278 @@
+// This file is part of the Square Conquerer Project
+// DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+// Copyright (C) 2023 Patrick Hechler
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Affero General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Affero General Public License for more details.
+//
+// You should have received a copy of the GNU Affero General Public License
+// along with this program. If not, see <https://www.gnu.org/licenses/>.
+package de.hechler.patrick.games.sc.world;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOError;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+
+import de.hechler.patrick.games.sc.addons.Addons;
+import de.hechler.patrick.games.sc.addons.addable.ResourceType;
+import de.hechler.patrick.games.sc.connect.Connection;
+import de.hechler.patrick.games.sc.error.TurnExecutionException;
+import de.hechler.patrick.games.sc.turn.Attack;
+import de.hechler.patrick.games.sc.turn.CarryTurn;
+import de.hechler.patrick.games.sc.turn.Direction;
+import de.hechler.patrick.games.sc.turn.EntityTurn;
+import de.hechler.patrick.games.sc.turn.MineTurn;
+import de.hechler.patrick.games.sc.turn.MoveAct;
+import de.hechler.patrick.games.sc.turn.MoveTurn;
+import de.hechler.patrick.games.sc.turn.StoreTurn;
+import de.hechler.patrick.games.sc.turn.WorkTurn;
+import de.hechler.patrick.games.sc.ui.players.User;
+import de.hechler.patrick.games.sc.values.IntValue;
+import de.hechler.patrick.games.sc.world.entity.Entity;
+import de.hechler.patrick.games.sc.world.entity.Unit;
+import de.hechler.patrick.games.sc.world.resource.Resource;
+
+/**
+ * a compact record of the entity turns executed in one turn
+ * <p>
+ * entities are stored as handles (their {@link WorldThing#uuid uuid} and their position when the turn was executed) and moves as direction bytes.<br>
+ * the resources of the entity turns can become part of the world (for example a {@link StoreTurn} puts its resource in the store of the build), so only
+ * their type, uuid and amount are stored and every {@link #decode(CompleteWorld) decoding} creates new resources.<br>
+ * so a record does not keep anything of the world reachable and does not change after it was created, the entity turns are only
+ * {@link #decode(CompleteWorld) decoded} when the turn is executed again
+ * 
+ * @author Patrick Hechler
+ */
+final class TurnRecord {
+	
+	private static final int CARRY  = 0;
+	private static final int MOVE   = 1;
+	private static final int STORE  = 2;
+	private static final int MINE   = 3;
+	private static final int WORK   = 4;
+	private static final int ATTACK = 0xFF;
+	
+	private final byte[] data;
+	
+	private TurnRecord(byte[] data) {
+		this.data = data;
+	}
+	
+	/**
+	 * encodes the given entity turns
+	 * <p>
+	 * the entities of the entity turns must be entities of the world at the moment the turn is executed
+	 * 
+	 * @param turns the entity turns of all users, which execute their turn
+	 * 
+	 * @return the record of the turns
+	 */
+	@SuppressWarnings("preview")
+	static TurnRecord encode(Map<User, List<EntityTurn>> turns) {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(baos)) {
+			writeVarInt(out, turns.size());
+			for (Entry<User, List<EntityTurn>> e : turns.entrySet()) {
+				out.writeUTF(e.getKey().name());
+				writeVarInt(out, e.getValue().size());
+				for (EntityTurn et : e.getValue()) {
+					switch (et) {
+					case CarryTurn ct -> writeResource(out, CARRY, ct.entity(), ct.res());
+					case StoreTurn st -> writeResource(out, STORE, st.entity(), st.resource());
+					case MineTurn mt -> writeResource(out, MINE, mt.entity(), mt.resource());
+					case WorkTurn wt -> {
+						out.writeByte(WORK);
+						writeHandle(out, wt.entity());
+					}
+					case MoveTurn mt -> {
+						out.writeByte(MOVE);
+						writeHandle(out, mt.entity());
+						writeVarInt(out, mt.acts().size());
+						for (MoveAct ma : mt.acts()) {
+							switch (ma) {
+							case Direction dir -> out.writeByte(dir.ordinal());
+							case Attack(Entity<?, ?> enemy) -> {
+								out.writeByte(ATTACK);
+								writeHandle(out, enemy);
+							}
+							}
+						}
+					}
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new IOError(e);
+		}
+		return new TurnRecord(baos.toByteArray());
+	}
+	
+	private static void writeResource(DataOutputStream out, int kind, Unit u, Resource r) throws IOException {
+		out.writeByte(kind);
+		writeHandle(out, u);
+		out.writeUTF(r.type().name);
+		out.writeLong(r.uuid.getMostSignificantBits());
+		out.writeLong(r.uuid.getLeastSignificantBits());
+		writeVarInt(out, r.amount());
+	}
+	
+	private static void writeHandle(DataOutputStream out, Entity<?, ?> e) throws IOException {
+		out.writeLong(e.uuid.getMostSignificantBits());
+		out.writeLong(e.uuid.getLeastSignificantBits());
+		writeVarInt(out, e.x());
+		writeVarInt(out, e.y());
+	}
+	
+	private static void writeVarInt(DataOutputStream out, int val) throws IOException {
+		while ((val & ~0x7F) != 0) {
+			out.writeByte((val & 0x7F) | 0x80);
+			val >>>= 7;
+		}
+		out.writeByte(val);
+	}
+	
+	/**
+	 * decodes the entity turns of this record
+	 * <p>
+	 * the entities are resolved with the given world, which has to be in the state of the moment the turn was originally executed.<br>
+	 * the resources are created new on every invocation
+	 * 
+	 * @param w the world which executes the turn again
+	 * 
+	 * @return the entity turns of all users (in the order they were {@link #encode(Map) encoded})
+	 * 
+	 * @throws IllegalStateException if an entity is not part of the world or a resource can not be created
+	 */
+	Map<User, List<EntityTurn>> decode(CompleteWorld w) throws IllegalStateException {
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(this.data))) {
+			Map<User, List<EntityTurn>> result = new LinkedHashMap<>();
+			for (int ucnt = readVarInt(in); ucnt > 0; ucnt--) {
+				User             usr = w.user().get(in.readUTF());
+				int              cnt = readVarInt(in);
+				List<EntityTurn> ets = new ArrayList<>(cnt);
+				while (cnt-- > 0) {
+					int  kind = in.readUnsignedByte();
+					Unit u    = (Unit) readHandle(in, w);
+					ets.add(switch (kind) {
+					case CARRY -> new CarryTurn(u, readResource(in));
+					case STORE -> new StoreTurn(u, readResource(in));
+					case MINE -> new MineTurn(u, readResource(in));
+					case WORK -> new WorkTurn(u);
+					case MOVE -> {
+						int           acnt = readVarInt(in);
+						List<MoveAct> acts = new ArrayList<>(acnt);
+						while (acnt-- > 0) {
+							int b = in.readUnsignedByte();
+							acts.add(b == ATTACK ? new Attack(readHandle(in, w)) : Direction.of(b));
+						}
+						yield new MoveTurn(u, acts);
+					}
+					default -> throw new AssertionError("invalid entity turn kind: " + kind);
+					});
+				}
+				result.put(usr, ets);
+			}
+			return result;
+		} catch (IOException e) {
+			throw new IOError(e);
+		}
+	}
+	
+	private static Entity<?, ?> readHandle(DataInputStream in, CompleteWorld w) throws IOException {
+		UUID         uuid = new UUID(in.readLong(), in.readLong());
+		Entity<?, ?> e    = w.entity(uuid, readVarInt(in), readVarInt(in));
+		if (e == null) throw new IllegalStateException("the entity " + uuid + " is not part of the world");
+		return e;
+	}
+	
+	private static Resource readResource(DataInputStream in) throws IOException {
+		String type   = in.readUTF();
+		UUID   uuid   = new UUID(in.readLong(), in.readLong());
+		int    amount = readVarInt(in);
+		try {
+			return ((ResourceType) Addons.type(type)).withValues(Map.of(Resource.AMOUNT, new IntValue(Resource.AMOUNT, amount)), uuid);
+		} catch (TurnExecutionException | IllegalArgumentException | ClassCastException e) {
+			throw new IllegalStateException("the resource " + uuid + " could not be created", e);
+		}
+	}
+	
+	private static int readVarInt(DataInputStream in) throws IOException {
+		int val   = 0;
+		int shift = 0;
+		while (true) {
+			int b = in.readUnsignedByte();
+			val |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return val;
+			shift += 7;
+		}
+	}
+	
+	/**
+	 * returns the number of bytes used by the encoded entity turns
+	 * 
+	 * @return the number of bytes used by the encoded entity turns
+	 */
+	int length() {
+		return this.data.length;
+	}
+	
+	/**
+	 * writes this record to the given connection, which should write to a {@link java.security.MessageDigest MessageDigest}
+	 * 
+	 * @param conn the connection
+	 * 
+	 * @throws IOException if an IO error occurs
+	 */
+	void hash(Connection conn) throws IOException {
+		conn.writeInt(this.data.length);
+		conn.writeArr(this.data);
+	}
+	
+	/**
+	 * writes this record to the given connection
+	 * 
+	 * @param conn the connection
+	 * 
+	 * @throws IOException if an IO error occurs
+	 * 
+	 * @see #read(Connection)
+	 */
+	void write(Connection conn) throws IOException {
+		conn.writeInt(this.data.length);
+		conn.writeArr(this.data);
+	}
+	
+	/**
+	 * reads a record from the given connection
+	 * 
+	 * @param conn the connection
+	 * 
+	 * @return the record
+	 * 
+	 * @throws IOException if an IO error occurs
+	 * 
+	 * @see #write(Connection)
+	 */
+	static TurnRecord read(Connection conn) throws IOException {
+		byte[] data = new byte[conn.readPos()];
+		conn.readArr(data);
+		return new TurnRecord(data);
+	}
+	
+}
@@ -47,6 +47,7 @@ public class UserWorld extends World {
 	private volatile DefUnmodPos        off;
 	private volatile Tile[][]   tiles;
 	private volatile boolean    needUpdate = true;
+	private WorldSnapshot       snap;
 	
 	public UserWorld(CompleteWorld rw, User usr, int modCnt) {
 		this.cw     = rw;
@@ -77,7 +78,7 @@ public class UserWorld extends World {
 	
 	@Override
 	public int xlen() {
-		if (this.needUpdate) {
+		if (needUpdate()) {
 			updateWorld();
 		}
 		return this.tiles.length;
@@ -85,7 +86,7 @@ public class UserWorld extends World {
 	
 	@Override
 	public int ylen() {
-		if (this.needUpdate) {
+		if (needUpdate()) {
 			updateWorld();
 		}
 		return this.tiles[0].length;
@@ -96,12 +97,28 @@ public class UserWorld extends World {
 		return this.cw.turn();
 	}
 	
+	// read the last completed turn, so the world is not modified while updating
+	private boolean needUpdate() {
+		return this.needUpdate || this.snap != this.cw.snapshot();
+	}
+	
+	private Tile srcTile(int x, int y) {
+		WorldSnapshot s = this.snap;
+		return s != null ? s.tile(x, y) : this.cw.tile(x, y);
+	}
+	
 	private synchronized void updateWorld() {
-		if (!this.needUpdate) {
+		updateWorld(this.cw.snapshot());
+	}
+	
+	// the caller must hold the monitor
+	private void updateWorld(WorldSnapshot s) {
+		if (!this.needUpdate && this.snap == s) {
 			return;
 		}
-		DefUnmodPos                           oldOff   = this.off;
-		Map<User, List<Entity<?, ?>>> all      = this.cw.entities();
+		this.snap = s;
+		DefUnmodPos                   oldOff   = this.off;
+		Map<User, List<Entity<?, ?>>> all      = s != null ? s.entities() : this.cw.entities();
 		List<Entity<?, ?>>            mine     = all.get(this.usr);
 		Tile[][]                      oldTiles = this.tiles;
 		if (mine == null || mine.isEmpty()) {
@@ -235,7 +252,7 @@ public class UserWorld extends World {
 					emap.put(p, r);
 					int  x = p.x();
 					int  y = p.y();
-					Tile t = this.cw.tile(x, y);
+					Tile t = srcTile(x, y);
 					tiles[x - xoff][y - yoff] = t;
 					if (ri > 0) {
 						gAdd(tmap, tiles, x + 1, y, xoff, yoff, t, e, ri);
@@ -257,7 +274,7 @@ public class UserWorld extends World {
 		if (x < 0 || y < 0 || x >= this.cw.xlen() || y >= this.cw.ylen()) {
 			return;
 		}
-		Tile target = this.cw.tile(x, y);
+		Tile target = srcTile(x, y);
 		tiles[x - xoff][y - yoff] = target;
 		// need to give the complete world because I am currently in (re)construction
 		int need = e.neededView(this.cw, x, y, target, old);
@@ -277,7 +294,7 @@ public class UserWorld extends World {
 		int  vr = e.viewRange();
 		Tile t  = tiles[x - xoff][y - yoff];
 		if (vr > 0 && (t == null || !t.visible())) { // view > 0 and not visible
-			t                         = this.cw.tile(x, y);
+			t                         = srcTile(x, y);
 			tiles[x - xoff][y - yoff] = t;
 		} else if (t == null || !t.visible()) { // view = 0 and not visible
 			if (t == null) {
@@ -305,6 +322,56 @@ public class UserWorld extends World {
 		this.off   = new DefUnmodPos(xoff, yoff);
 	}
 	
+	/**
+	 * the tiles and the offset of a user world at the turn of a snapshot
+	 */
+	record Saved(WorldSnapshot snap, DefUnmodPos offset, Tile[][] tiles) {}
+	
+	/*
+	 * returns the state of this world at the given snapshot or null if this world already shows a newer turn
+	 * the returned tiles are not modified by later updates
+	 */
+	synchronized Saved saved(WorldSnapshot s) {
+		Class<?> caller = StackWalker.getInstance(Option.RETAIN_CLASS_REFERENCE).getCallerClass();
+		if (caller != CompleteWorld.class) {
+			throw new IllegalCallerException(String.format("illegal caller: %s/%s", caller.getModule(), caller.getName()));
+		}
+		WorldSnapshot cur = this.snap;
+		if (cur != null && s != null && cur != s && cur.turn() >= s.turn()) {
+			return null;
+		}
+		updateWorld(s);
+		Tile[][] myTiles = this.tiles;
+		Tile[][] copy    = new Tile[myTiles.length][];
+		for (int x = 0; x < copy.length; x++) {
+			copy[x] = myTiles[x].clone();
+			for (int y = 0; y < copy[x].length; y++) {
+				if (copy[x][y] == null) {
+					copy[x][y] = new Tile(GroundType.NOT_EXPLORED_GRND);
+				}
+			}
+		}
+		return new Saved(this.snap, this.off, copy);
+	}
+	
+	/**
+	 * returns this world at the current snapshot of the complete world
+	 * <p>
+	 * the returned tiles are not modified by later updates, tiles which were never seen by the user are <code>null</code>.<br>
+	 * the tiles, which did not change since an other view, are the same objects as the tiles of the other view
+	 * 
+	 * @return this world at the current snapshot of the complete world
+	 */
+	synchronized Saved view() {
+		updateWorld(this.cw.snapshot());
+		Tile[][] myTiles = this.tiles;
+		Tile[][] copy    = new Tile[myTiles.length][];
+		for (int x = 0; x < copy.length; x++) {
+			copy[x] = myTiles[x].clone();
+		}
+		return new Saved(this.snap, this.off, copy);
+	}
+	
 	DefUnmodPos offset() {
 		Class<?> caller = StackWalker.getInstance(Option.RETAIN_CLASS_REFERENCE).getCallerClass();
 		if (caller != CompleteWorld.class) {
@@ -315,7 +382,7 @@ public class UserWorld extends World {
 	
 	@Override
 	public Tile tile(int x, int y) {
-		if (this.needUpdate) {
+		if (needUpdate()) {
 			updateWorld();
 		}
 		Tile[][] myTiles = this.tiles;
@@ -349,7 +416,7 @@ public class UserWorld extends World {
 	
 	@Override
 	public Map<User, List<Entity<?, ?>>> entities() {
-		if (this.needUpdate) {
+		if (needUpdate()) {
 			updateWorld();
 		}
 		return CompleteWorld.entities(this.tiles);
@@ -357,7 +424,7 @@ public class UserWorld extends World {
 	
 	@Override
 	public WorldThing<?, ?> get(UUID uuid) {
-		if (this.needUpdate) {
+		if (needUpdate()) {
 			updateWorld();
 		}
 		return CompleteWorld.get(this.tiles, uuid);
@@ -0,0 +1,266 @@
+// This file is part of the Square Conquerer Project
+// DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+// Copyright (C) 2023 Patrick Hechler
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Affero General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Affero General Public License for more details.
+//
+// You should have received a copy of the GNU Affero General Public License
+// along with this program. If not, see <https://www.gnu.org/licenses/>.
+package de.hechler.patrick.games.sc.world;
+
+import java.io.IOError;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import de.hechler.patrick.games.sc.connect.Connection;
+import de.hechler.patrick.games.sc.ui.players.User;
+import de.hechler.patrick.games.sc.world.tile.Tile;
+import de.hechler.patrick.utils.objects.FastHash256;
+
+/**
+ * a hash tree over the tiles of a world
+ * <p>
+ * every tile has its own hash, the tiles are grouped in chunks of {@value #CHUNK_LEN}x{@value #CHUNK_LEN} tiles, which also have a hash and the root hash is
+ * calculated from the chunk hashes.<br>
+ * after a change only the tiles which are {@link #markDirty(int, int) marked as dirty} (and their chunks) need to be hashed again
+ * 
+ * @author Patrick Hechler
+ */
+final class WorldHashTree {
+	
+	/**
+	 * the name of the default hash algorithm
+	 */
+	static final String DEFAULT_ALGORITHM = "SHA-256"; //$NON-NLS-1$
+	/**
+	 * the length of all hashes (in bytes)
+	 */
+	static final int    HASH_LEN          = 32;
+	
+	/**
+	 * the binary logarithm of {@link #CHUNK_LEN}
+	 */
+	static final int CHUNK_SHIFT = 4;
+	/**
+	 * the width and height of a chunk
+	 */
+	static final int CHUNK_LEN   = 1 << CHUNK_SHIFT;
+	
+	private final MessageDigest digest;
+	private final Connection    conn;
+	private final int           xlen;
+	private final int           ylen;
+	private final int           cylen;
+	private final byte[][]      tileHashes;
+	private final byte[][]      chunkHashes;
+	private final BitSet        dirtyTiles;
+	private final BitSet        dirtyChunks;
+	private byte[]              root;
+	private long                hashed;
+	
+	/**
+	 * creates a new hash tree, initially all tiles are dirty
+	 * 
+	 * @param usr       the user of the connection which is used to write the tiles to the digest
+	 * @param algorithm the name of the hash algorithm
+	 * @param xlen      the x-len of the world
+	 * @param ylen      the y-len of the world
+	 */
+	WorldHashTree(User usr, String algorithm, int xlen, int ylen) {
+		this.digest      = digest(algorithm);
+		this.conn        = Connection.createUnsecure(usr, new DigestOutputStream(new OutputStream() {
+			
+			@Override
+			public void write(int b) {
+				WorldHashTree.this.hashed++;
+			}
+			
+			@Override
+			public void write(byte[] b, int off, int len) {
+				WorldHashTree.this.hashed += len;
+			}
+			
+		}, this.digest), null);
+		this.xlen        = xlen;
+		this.ylen        = ylen;
+		this.cylen       = ((ylen - 1) >>> CHUNK_SHIFT) + 1;
+		int cxlen = ((xlen - 1) >>> CHUNK_SHIFT) + 1;
+		this.tileHashes  = new byte[xlen * ylen][];
+		this.chunkHashes = new byte[cxlen * this.cylen][];
+		this.dirtyTiles  = new BitSet(this.tileHashes.length);
+		this.dirtyChunks = new BitSet(this.chunkHashes.length);
+		markAllDirty();
+	}
+	
+	/**
+	 * returns a new {@link MessageDigest} for the given algorithm
+	 * <p>
+	 * the {@link FastHash256#NAME} is always supported, all other names are passed to {@link MessageDigest#getInstance(String)}
+	 * 
+	 * @param algorithm the name of the algorithm
+	 * 
+	 * @return the new {@link MessageDigest}
+	 * 
+	 * @throws IllegalArgumentException if the algorithm is not supported or does not generate {@value #HASH_LEN} byte hashes
+	 */
+	static MessageDigest digest(String algorithm) throws IllegalArgumentException {
+		MessageDigest md;
+		if (FastHash256.NAME.equals(algorithm)) {
+			md = new FastHash256();
+		} else {
+			try {
+				md = MessageDigest.getInstance(algorithm);
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalArgumentException(String.format("the hash algorithm %s was not found: %s", algorithm, e), e);
+			}
+		}
+		if (md.getDigestLength() != HASH_LEN) {
+			throw new IllegalArgumentException(String.format("the hash algorithm %s has not %d bytes (%d)", algorithm, Integer.valueOf(HASH_LEN),
+				Integer.valueOf(md.getDigestLength())));
+		}
+		return md;
+	}
+	
+	/**
+	 * returns the digest used by this tree
+	 * <p>
+	 * the digest may be used to calculate other hashes as long as no other method of this tree is invoked in the mean time
+	 * 
+	 * @return the digest used by this tree
+	 */
+	MessageDigest digest() {
+		return this.digest;
+	}
+	
+	/**
+	 * returns a connection which writes everything to {@link #digest()}
+	 * 
+	 * @return a connection which writes everything to {@link #digest()}
+	 */
+	Connection connection() {
+		return this.conn;
+	}
+	
+	/**
+	 * returns the number of bytes hashed by this tree and written to the {@link #connection()}
+	 * <p>
+	 * the value only grows, the number of bytes hashed by an operation is the difference of the values before and after the operation
+	 * 
+	 * @return the number of bytes hashed by this tree
+	 */
+	long hashedBytes() {
+		return this.hashed;
+	}
+	
+	/**
+	 * marks the tile at the given position as dirty
+	 * 
+	 * @param x the x coordinate of the tile
+	 * @param y the y coordinate of the tile
+	 */
+	void markDirty(int x, int y) {
+		if (x < 0 || y < 0 || x >= this.xlen || y >= this.ylen) return;
+		this.dirtyTiles.set(x * this.ylen + y);
+		this.dirtyChunks.set((x >>> CHUNK_SHIFT) * this.cylen + (y >>> CHUNK_SHIFT));
+		this.root = null;
+	}
+	
+	/**
+	 * marks all tiles as dirty
+	 */
+	void markAllDirty() {
+		this.dirtyTiles.set(0, this.tileHashes.length);
+		this.dirtyChunks.set(0, this.chunkHashes.length);
+		this.root = null;
+	}
+	
+	/**
+	 * hashes all dirty tiles and chunks again and returns the root hash
+	 * <p>
+	 * the returned array must not be modified
+	 * 
+	 * @param tiles the tiles of the world
+	 * 
+	 * @return the root hash of the tree
+	 */
+	byte[] update(Tile[][] tiles) {
+		return update((x, y) -> tiles[x][y]);
+	}
+	
+	/**
+	 * hashes all dirty tiles and chunks again and returns the root hash
+	 * <p>
+	 * the returned array must not be modified
+	 * 
+	 * @param tiles the tiles of the world
+	 * 
+	 * @return the root hash of the tree
+	 */
+	byte[] update(CompactWorldFormat.TileSource tiles) {
+		if (this.root != null) return this.root;
+		MessageDigest d = this.digest;
+		try {
+			for (int i = this.dirtyTiles.nextSetBit(0); i >= 0; i = this.dirtyTiles.nextSetBit(i + 1)) {
+				d.reset();
+				OpenWorld.writeTile(this.conn, tiles.tile(i / this.ylen, i % this.ylen));
+				this.tileHashes[i] = d.digest();
+			}
+		} catch (IOException e) {
+			throw new IOError(e);
+		}
+		this.dirtyTiles.clear();
+		for (int i = this.dirtyChunks.nextSetBit(0); i >= 0; i = this.dirtyChunks.nextSetBit(i + 1)) {
+			int sx = (i / this.cylen) << CHUNK_SHIFT;
+			int sy = (i % this.cylen) << CHUNK_SHIFT;
+			int ex = Math.min(sx + CHUNK_LEN, this.xlen);
+			int ey = Math.min(sy + CHUNK_LEN, this.ylen);
+			d.reset();
+			for (int x = sx; x < ex; x++) {
+				for (int y = sy; y < ey; y++) {
+					d.update(this.tileHashes[x * this.ylen + y]);
+				}
+			}
+			this.chunkHashes[i]  = d.digest();
+			this.hashed         += (ex - sx) * (ey - sy) * HASH_LEN;
+		}
+		this.dirtyChunks.clear();
+		d.reset();
+		d.update(new byte[] { (byte) this.xlen, (byte) (this.xlen >>> 8), (byte) (this.xlen >>> 16), (byte) (this.xlen >>> 24), //
+			(byte) this.ylen, (byte) (this.ylen >>> 8), (byte) (this.ylen >>> 16), (byte) (this.ylen >>> 24) });
+		for (byte[] ch : this.chunkHashes) {
+			d.update(ch);
+		}
+		this.root    = d.digest();
+		this.hashed += 8 + this.chunkHashes.length * HASH_LEN;
+		return this.root;
+	}
+	
+	/**
+	 * marks all chunks in <code>same</code> whose hashes are equal in this and the other tree
+	 * <p>
+	 * both trees have to be {@link #update(Tile[][]) updated} and must have the same size
+	 * 
+	 * @param other the other tree
+	 * @param same  the bit set which receives the equal chunks
+	 */
+	void sameChunks(WorldHashTree other, BitSet same) {
+		if (other.xlen != this.xlen || other.ylen != this.ylen) throw new IllegalArgumentException("the trees have different sizes");
+		for (int i = 0; i < this.chunkHashes.length; i++) {
+			if (Arrays.equals(this.chunkHashes[i], other.chunkHashes[i])) same.set(i);
+		}
+	}
+	
+}
@@ -0,0 +1,407 @@
+// This file is part of the Square Conquerer Project
+// DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+// Copyright (C) 2023 Patrick Hechler
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Affero General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Affero General Public License for more details.
+//
+// You should have received a copy of the GNU Affero General Public License
+// along with this program. If not, see <https://www.gnu.org/licenses/>.
+package de.hechler.patrick.games.sc.world;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import de.hechler.patrick.games.sc.connect.Connection;
+import de.hechler.patrick.games.sc.ui.players.User;
+import de.hechler.patrick.games.sc.world.entity.Entity;
+import de.hechler.patrick.games.sc.world.tile.Tile;
+
+/**
+ * an immutable view of a {@link CompleteWorld} at the end of a turn
+ * <p>
+ * the tiles are stored in chunks of {@value WorldHashTree#CHUNK_LEN}x{@value WorldHashTree#CHUNK_LEN} tiles.<br>
+ * when the snapshot of the next turn is created, only the chunks which were modified during the turn are copied, all other chunks are shared with the
+ * previous snapshot.
+ * <p>
+ * a snapshot can be used by any number of threads without any synchronization, while the {@link CompleteWorld} already executes the next turns.<br>
+ * the tiles returned by a snapshot must not be modified
+ * 
+ * @author Patrick Hechler
+ */
+public final class WorldSnapshot {
+	
+	private final int              turn;
+	private final int              xlen;
+	private final int              ylen;
+	private final int              cylen;
+	private final Tile[][][]       chunks;
+	private final long[]           rndState;
+	private final List<TurnRecord> turns;
+	private final byte[]           worldHash;
+	
+	private WorldSnapshot(int turn, int xlen, int ylen, Tile[][][] chunks, long[] rndState, List<TurnRecord> turns, byte[] worldHash) {
+		this.turn      = turn;
+		this.xlen      = xlen;
+		this.ylen      = ylen;
+		this.cylen     = ((ylen - 1) >>> WorldHashTree.CHUNK_SHIFT) + 1;
+		this.chunks    = chunks;
+		this.rndState  = rndState;
+		this.turns     = turns;
+		this.worldHash = worldHash;
+	}
+	
+	/**
+	 * returns the index of the chunk of the given tile
+	 * 
+	 * @param x    the x coordinate of the tile
+	 * @param y    the y coordinate of the tile
+	 * @param ylen the y-len of the world
+	 * 
+	 * @return the index of the chunk
+	 */
+	static int chunk(int x, int y, int ylen) {
+		int cylen = ((ylen - 1) >>> WorldHashTree.CHUNK_SHIFT) + 1;
+		return (x >>> WorldHashTree.CHUNK_SHIFT) * cylen + (y >>> WorldHashTree.CHUNK_SHIFT);
+	}
+	
+	/**
+	 * returns the number of chunks of a world with the given size
+	 * 
+	 * @param xlen the x-len of the world
+	 * @param ylen the y-len of the world
+	 * 
+	 * @return the number of chunks
+	 */
+	static int chunkCount(int xlen, int ylen) {
+		return (((xlen - 1) >>> WorldHashTree.CHUNK_SHIFT) + 1) * (((ylen - 1) >>> WorldHashTree.CHUNK_SHIFT) + 1);
+	}
+	
+	/**
+	 * creates the snapshot of the next turn
+	 * <p>
+	 * all chunks which are not marked in <code>dirtyChunks</code> are shared with <code>prev</code>, the other chunks are {@link Tile#deepCopy() copied}
+	 * from <code>tiles</code>.<br>
+	 * if <code>prev</code> is <code>null</code> all chunks are copied
+	 * 
+	 * @param prev        the previous snapshot or <code>null</code>
+	 * @param tiles       the current tiles of the world
+	 * @param dirtyChunks the chunks modified since the previous snapshot, it is cleared by this method
+	 * @param turn        the current turn
+	 * @param rndState    the current state of the random generator
+	 * @param turns       an immutable list of the executed turns
+	 * @param worldHash   the hash of the world
+	 * 
+	 * @return the new snapshot
+	 */
+	static WorldSnapshot next(WorldSnapshot prev, Tile[][] tiles, BitSet dirtyChunks, int turn, long[] rndState, List<TurnRecord> turns,
+			byte[] worldHash) {
+		int        xlen   = tiles.length;
+		int        ylen   = tiles[0].length;
+		int        cylen  = ((ylen - 1) >>> WorldHashTree.CHUNK_SHIFT) + 1;
+		Tile[][][] chunks;
+		if (prev == null) {
+			chunks = new Tile[chunkCount(xlen, ylen)][][];
+			dirtyChunks.set(0, chunks.length);
+		} else {
+			chunks = prev.chunks.clone();
+		}
+		for (int i = dirtyChunks.nextSetBit(0); i >= 0; i = dirtyChunks.nextSetBit(i + 1)) {
+			int      sx    = (i / cylen) << WorldHashTree.CHUNK_SHIFT;
+			int      sy    = (i % cylen) << WorldHashTree.CHUNK_SHIFT;
+			int      ex    = Math.min(sx + WorldHashTree.CHUNK_LEN, xlen);
+			int      ey    = Math.min(sy + WorldHashTree.CHUNK_LEN, ylen);
+			Tile[][] chunk = new Tile[ex - sx][ey - sy];
+			for (int x = sx; x < ex; x++) {
+				Tile[] src = tiles[x];
+				Tile[] dst = chunk[x - sx];
+				for (int y = sy; y < ey; y++) {
+					dst[y - sy] = src[y].deepCopy();
+				}
+			}
+			chunks[i] = chunk;
+		}
+		dirtyChunks.clear();
+		return new WorldSnapshot(turn, xlen, ylen, chunks, rndState, turns, worldHash);
+	}
+	
+	/**
+	 * creates a snapshot of the given tiles, which is not bound to a turn
+	 * 
+	 * @param tiles the tiles to copy
+	 * 
+	 * @return the snapshot of the tiles
+	 */
+	static WorldSnapshot of(Tile[][] tiles) {
+		return next(null, tiles, new BitSet(), -1, null, List.of(), null);
+	}
+	
+	/**
+	 * creates a snapshot, which uses the given tiles without copying them
+	 * <p>
+	 * the tiles must not be modified as long as the snapshot is used
+	 * 
+	 * @param tiles the tiles of the snapshot
+	 * 
+	 * @return the snapshot of the tiles
+	 */
+	static WorldSnapshot wrap(Tile[][] tiles) {
+		int        xlen   = tiles.length;
+		int        ylen   = tiles[0].length;
+		int        cylen  = ((ylen - 1) >>> WorldHashTree.CHUNK_SHIFT) + 1;
+		Tile[][][] chunks = new Tile[chunkCount(xlen, ylen)][][];
+		for (int i = 0; i < chunks.length; i++) {
+			int      sx    = (i / cylen) << WorldHashTree.CHUNK_SHIFT;
+			int      sy    = (i % cylen) << WorldHashTree.CHUNK_SHIFT;
+			int      ex    = Math.min(sx + WorldHashTree.CHUNK_LEN, xlen);
+			int      ey    = Math.min(sy + WorldHashTree.CHUNK_LEN, ylen);
+			Tile[][] chunk = new Tile[ex - sx][];
+			for (int x = sx; x < ex; x++) {
+				chunk[x - sx] = Arrays.copyOfRange(tiles[x], sy, ey);
+			}
+			chunks[i] = chunk;
+		}
+		return new WorldSnapshot(-1, xlen, ylen, chunks, null, List.of(), null);
+	}
+	
+	/**
+	 * creates a snapshot, which uses the chunks of <code>other</code> for all chunks which are marked in <code>same</code> and the chunks of this
+	 * snapshot for all other chunks
+	 * <p>
+	 * this is used to let a snapshot share the chunks, which are equal in both snapshots, so they are only stored once
+	 * 
+	 * @param other the snapshot to share the chunks with
+	 * @param same  the chunks which are equal in both snapshots
+	 * 
+	 * @return the new snapshot
+	 */
+	WorldSnapshot share(WorldSnapshot other, BitSet same) {
+		if (other.xlen != this.xlen || other.ylen != this.ylen) throw new IllegalArgumentException("the snapshots have different sizes");
+		Tile[][][] res = this.chunks.clone();
+		for (int i = same.nextSetBit(0); i >= 0; i = same.nextSetBit(i + 1)) {
+			res[i] = other.chunks[i];
+		}
+		return new WorldSnapshot(this.turn, this.xlen, this.ylen, res, this.rndState, this.turns, this.worldHash);
+	}
+	
+	/**
+	 * writes all chunks of this snapshot, which are not shared with <code>base</code>, so {@link #readDelta(Connection)} can restore
+	 * this snapshot from <code>base</code>
+	 * <ol>
+	 * <li>the number of chunks</li>
+	 * <li>for every chunk: its index and its tiles in the {@link CompactWorldFormat compact format}</li>
+	 * </ol>
+	 * 
+	 * @param base the snapshot which the reader already knows
+	 * @param conn the connection
+	 * 
+	 * @throws IOException if an IO error occurs
+	 */
+	void writeDelta(WorldSnapshot base, Connection conn) throws IOException {
+		if (base.xlen != this.xlen || base.ylen != this.ylen) throw new IllegalArgumentException("the snapshots have different sizes");
+		int cnt = 0;
+		for (int i = 0; i < this.chunks.length; i++) {
+			if (this.chunks[i] != base.chunks[i]) cnt++;
+		}
+		conn.writeInt(cnt);
+		for (int i = 0; i < this.chunks.length; i++) {
+			Tile[][] chunk = this.chunks[i];
+			if (chunk == base.chunks[i]) continue;
+			conn.writeInt(i);
+			CompactWorldFormat.write(conn, chunk.length, chunk[0].length, (x, y) -> chunk[x][y], true);
+		}
+	}
+	
+	/**
+	 * reads the chunks written by {@link #writeDelta(WorldSnapshot, Connection)}, the chunks are {@link OpenWorld#loadWorldLater(Connection) decoded in
+	 * the background}
+	 * 
+	 * @param conn the connection
+	 * 
+	 * @return the read delta, which can be {@link Delta#apply(WorldSnapshot) applied} to the base snapshot
+	 * 
+	 * @throws IOException if an IO error occurs
+	 */
+	static Delta readDelta(Connection conn) throws IOException {
+		int                           cnt     = conn.readPos();
+		int[]                         indices = new int[cnt];
+		CompactWorldFormat.Decoding[] chunks  = new CompactWorldFormat.Decoding[cnt];
+		for (int i = 0; i < cnt; i++) {
+			indices[i] = conn.readPos();
+			chunks[i]  = OpenWorld.loadWorldLater(conn);
+		}
+		return new Delta(indices, chunks);
+	}
+	
+	/**
+	 * the chunks of a snapshot, which are not shared with its base snapshot
+	 * 
+	 * @author Patrick Hechler
+	 */
+	record Delta(int[] indices, CompactWorldFormat.Decoding[] chunks) {
+		
+		/**
+		 * restores the snapshot, all chunks which are not part of this delta are shared with <code>base</code>
+		 * 
+		 * @param base the snapshot which was used as base by the writer
+		 * 
+		 * @return the restored snapshot
+		 * 
+		 * @throws IOException if a chunk is corrupt
+		 */
+		WorldSnapshot apply(WorldSnapshot base) throws IOException {
+			Tile[][][] res = base.chunks.clone();
+			for (int i = 0; i < this.indices.length; i++) {
+				int      idx   = this.indices[i];
+				Tile[][] chunk = this.chunks[i].tiles();
+				if (idx >= res.length || chunk.length != res[idx].length || chunk[0].length != res[idx][0].length) {
+					throw new StreamCorruptedException("invalid chunk in the delta");
+				}
+				res[idx] = chunk;
+			}
+			return new WorldSnapshot(-1, base.xlen, base.ylen, res, null, List.of(), null);
+		}
+		
+	}
+	
+	/**
+	 * returns <code>true</code> if this snapshot and <code>other</code> share the given chunk
+	 * <p>
+	 * a shared chunk was not modified between the turns of the two snapshots
+	 * 
+	 * @param other the other snapshot, which must have the same size
+	 * @param chunk the index of the chunk
+	 * 
+	 * @return <code>true</code> if both snapshots share the chunk
+	 */
+	boolean sharesChunk(WorldSnapshot other, int chunk) {
+		return this.chunks[chunk] == other.chunks[chunk];
+	}
+	
+	/**
+	 * returns a {@link Tile#deepCopy() copy} of all tiles of this snapshot
+	 * 
+	 * @return a copy of all tiles of this snapshot
+	 */
+	Tile[][] copyTiles() {
+		Tile[][] ts = new Tile[this.xlen][this.ylen];
+		for (int x = 0; x < ts.length; x++) {
+			for (int y = 0; y < ts[x].length; y++) {
+				ts[x][y] = tile(x, y).deepCopy();
+			}
+		}
+		return ts;
+	}
+	
+	/**
+	 * returns the turn of this snapshot
+	 * 
+	 * @return the turn of this snapshot
+	 */
+	public int turn() {
+		return this.turn;
+	}
+	
+	/**
+	 * returns the x-len of the world
+	 * 
+	 * @return the x-len of the world
+	 */
+	public int xlen() {
+		return this.xlen;
+	}
+	
+	/**
+	 * returns the y-len of the world
+	 * 
+	 * @return the y-len of the world
+	 */
+	public int ylen() {
+		return this.ylen;
+	}
+	
+	/**
+	 * returns the tile at the given position, the returned tile must not be modified
+	 * 
+	 * @param x the x coordinate of the tile
+	 * @param y the y coordinate of the tile
+	 * 
+	 * @return the tile at the given position
+	 */
+	public Tile tile(int x, int y) {
+		if (x < 0 || y < 0 || x >= this.xlen || y >= this.ylen) {
+			throw new IndexOutOfBoundsException("x=" + x + " y=" + y + " xlen=" + this.xlen + " ylen=" + this.ylen);
+		}
+		Tile[][] chunk = this.chunks[(x >>> WorldHashTree.CHUNK_SHIFT) * this.cylen + (y >>> WorldHashTree.CHUNK_SHIFT)];
+		return chunk[x & (WorldHashTree.CHUNK_LEN - 1)][y & (WorldHashTree.CHUNK_LEN - 1)];
+	}
+	
+	/**
+	 * returns the hash of the world at the end of this turn
+	 * 
+	 * @return the hash of the world at the end of this turn
+	 * 
+	 * @throws IllegalStateException if this snapshot is not bound to a turn (its {@link #turn()} is <code>-1</code>)
+	 * 
+	 * @see CompleteWorld#worldHash()
+	 */
+	public byte[] worldHash() throws IllegalStateException {
+		if (this.worldHash == null) throw new IllegalStateException("the snapshot is not bound to a turn");
+		return this.worldHash.clone();
+	}
+	
+	/**
+	 * returns all entities of this snapshot, sorted by their owner
+	 * 
+	 * @return all entities of this snapshot
+	 * 
+	 * @see World#entities()
+	 */
+	public Map<User, List<Entity<?, ?>>> entities() {
+		Map<User, List<Entity<?, ?>>> result = new HashMap<>();
+		for (Tile[][] chunk : this.chunks) {
+			CompleteWorld.entities(chunk).forEach((u, l) -> result.computeIfAbsent(u, usr -> new ArrayList<>()).addAll(l));
+		}
+		return result;
+	}
+	
+	/**
+	 * returns the thing with the given {@link UUID} or <code>null</code> if there is no such thing
+	 * 
+	 * @param uuid the {@link UUID} of the thing
+	 * 
+	 * @return the thing with the given {@link UUID} or <code>null</code>
+	 * 
+	 * @see World#get(UUID)
+	 */
+	public WorldThing<?, ?> get(UUID uuid) {
+		for (Tile[][] chunk : this.chunks) {
+			WorldThing<?, ?> t = CompleteWorld.get(chunk, uuid);
+			if (t != null) return t;
+		}
+		return null;
+	}
+	
+	long[] rndState() {
+		return this.rndState;
+	}
+	
+	List<TurnRecord> turns() {
+		return this.turns;
+	}
+	
+}
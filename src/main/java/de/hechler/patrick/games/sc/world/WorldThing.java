@@ -16,7 +16,11 @@
 // along with this program. If not, see <https://www.gnu.org/licenses/>.
 package de.hechler.patrick.games.sc.world;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
@@ -25,6 +29,7 @@ import java.util.UUID;
 
 import de.hechler.patrick.games.sc.Imagable;
 import de.hechler.patrick.games.sc.addons.addable.AddableType;
+import de.hechler.patrick.games.sc.error.TurnExecutionException;
 import de.hechler.patrick.games.sc.values.BooleanValue;
 import de.hechler.patrick.games.sc.values.DoubleValue;
 import de.hechler.patrick.games.sc.values.EnumValue;
@@ -65,6 +70,66 @@ public abstract sealed class WorldThing<T extends AddableType<T, M>, M extends W
 	
 	public abstract T type();
 	
+	/**
+	 * creates a copy of this thing with the same {@link #uuid} and the same {@link #values()}
+	 * <p>
+	 * later changes of this thing do not modify the copy.<br>
+	 * the values are copied deeply, so the things held by {@link WorldThingValue world thing values} (also inside of {@link MapValue map} and
+	 * {@link ListValue list} values) are copied as well. if a thing refers back to a thing which is currently copied, the copy only refers to its uuid and
+	 * type
+	 * 
+	 * @return a copy of this thing
+	 */
+	public M copy() {
+		return copy(new IdentityHashMap<>());
+	}
+	
+	/*
+	 * copied maps the things, which are already copied to their copies, things which are currently copied are mapped to null
+	 */
+	private M copy(Map<WorldThing<?, ?>, WorldThing<?, ?>> copied) {
+		copied.put(this, null);
+		Map<String, Value> vals = new HashMap<>();
+		for (Entry<String, Value> e : values().entrySet()) {
+			vals.put(e.getKey(), copyValue(e.getValue(), copied));
+		}
+		M c;
+		try {
+			c = type().withValues(vals, this.uuid);
+		} catch (TurnExecutionException e) {
+			throw new IllegalStateException(e);
+		}
+		copied.put(this, c);
+		return c;
+	}
+	
+	private static Value copyValue(Value val, Map<WorldThing<?, ?>, WorldThing<?, ?>> copied) {
+		switch (val) {
+		case @SuppressWarnings("preview") WorldThingValue v when v.hasValue() -> {
+			WorldThing<?, ?> t = v.value();
+			if (!copied.containsKey(t)) return new WorldThingValue(v.name(), t.copy(copied));
+			WorldThing<?, ?> c = copied.get(t);
+			if (c != null) return new WorldThingValue(v.name(), c);
+			return new WorldThingValue(v.name(), t.uuid, t.type());
+		}
+		case @SuppressWarnings("preview") MapValue<?> v -> {
+			Map<String, Value> map = new HashMap<>();
+			v.value().forEach((k, e) -> map.put(k, copyValue(e, copied)));
+			return new MapValue<>(v.name(), map);
+		}
+		case @SuppressWarnings("preview") ListValue v -> {
+			List<Value> list = new ArrayList<>(v.value().size());
+			for (Value e : v.value()) {
+				list.add(copyValue(e, copied));
+			}
+			return new ListValue(v.name(), list);
+		}
+		default -> {
+			return val; // all other values are immutable
+		}
+		}
+	}
+	
 	public abstract Map<String, Value> values();
 	
 	public abstract Value value(String name);
@@ -295,6 +360,20 @@ public abstract sealed class WorldThing<T extends AddableType<T, M>, M extends W
 		return type().localName;
 	}
 	
+	/**
+	 * this method is called once for every thing in the world after a turn was executed
+	 * <p>
+	 * it is only called if the {@link #type() type} {@link AddableType#needsNextTurnNotify() needs it}, so types which opt out of the notification must
+	 * not have things which override this method
+	 * <p>
+	 * if the thing changed itself or other things it has to return the changed things (it may also return itself), so that only these parts of the world
+	 * have to be hashed again.<br>
+	 * if nothing was changed <code>null</code> is returned
+	 * 
+	 * @param playerCount the number of players
+	 * 
+	 * @return the changed things or <code>null</code> if nothing was changed
+	 */
 	public Iterable<WorldThing<?,?>> nextTurnNotify(int playerCount) {
 		return null;
 	}
@@ -71,6 +71,16 @@ public abstract class SimpleGroundType extends GroundType {
 	
 	protected abstract Image loadImage();
 	
+	/**
+	 * returns <code>false</code>, because a {@link SimpleGround} never changes after a turn
+	 * <p>
+	 * subclasses, which create grounds that override {@link Ground#nextTurnNotify(int)} have to return <code>true</code>
+	 */
+	@Override
+	public boolean needsNextTurnNotify() {
+		return false;
+	}
+	
 	public class SimpleGround extends Ground {
 		
 		private final Map<String, Value> vals;
@@ -0,0 +1,122 @@
+// This file is part of the Square Conquerer Project
+// DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+// Copyright (C) 2023 Patrick Hechler
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Affero General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Affero General Public License for more details.
+//
+// You should have received a copy of the GNU Affero General Public License
+// along with this program. If not, see <https://www.gnu.org/licenses/>.
+package de.hechler.patrick.games.sc.world.stats;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * the base class of the JFR events, which are emitted for every phase of a turn execution
+ * <p>
+ * every phase has its own event type, so they can be enabled and analyzed separately
+ * 
+ * @author Patrick Hechler
+ */
+@Category({ "SquareConquerer", "Turn" })
+@StackTrace(false)
+public abstract sealed class TurnPhaseEvent extends Event {
+	
+	/**
+	 * the number of the executed turn
+	 */
+	@Label("Turn")
+	public int    turn;
+	/**
+	 * the name of the user, whose turn is executed (<code>null</code> if the turns of all users are executed together)
+	 */
+	@Label("User")
+	public String user;
+	/**
+	 * the number of entity turns of the executed turn
+	 */
+	@Label("Entity Turns")
+	public int    entityTurns;
+	/**
+	 * the number of bytes, which were hashed in this phase
+	 */
+	@Label("Bytes Hashed")
+	@DataAmount
+	public long   bytesHashed;
+	
+	private TurnPhaseEvent() {}
+	
+	/**
+	 * the turn is serialized (for the turn hash)
+	 * 
+	 * @author Patrick Hechler
+	 */
+	@Name("de.hechler.patrick.games.sc.TurnSerialize")
+	@Label("Turn Serialization")
+	@Description("the turn is serialized for the turn hash")
+	public static final class Serialize extends TurnPhaseEvent {}
+	
+	/**
+	 * the entity turns are executed
+	 * 
+	 * @author Patrick Hechler
+	 */
+	@Name("de.hechler.patrick.games.sc.TurnExecute")
+	@Label("Entity Execution")
+	@Description("the entity turns are executed")
+	public static final class Execute extends TurnPhaseEvent {}
+	
+	/**
+	 * the world things are notified about the next turn
+	 * 
+	 * @author Patrick Hechler
+	 */
+	@Name("de.hechler.patrick.games.sc.TurnNotify")
+	@Label("Next Turn Notify")
+	@Description("the active world things are notified about the next turn")
+	public static final class Notify extends TurnPhaseEvent {}
+	
+	/**
+	 * the world hash and the turn hash are calculated
+	 * 
+	 * @author Patrick Hechler
+	 */
+	@Name("de.hechler.patrick.games.sc.TurnHash")
+	@Label("Hashing")
+	@Description("the world hash and the turn hash are calculated")
+	public static final class Hash extends TurnPhaseEvent {}
+	
+	/**
+	 * the snapshot of the world is created
+	 * 
+	 * @author Patrick Hechler
+	 */
+	@Name("de.hechler.patrick.games.sc.TurnSnapshot")
+	@Label("Snapshot")
+	@Description("the snapshot for the readers of the world is created")
+	public static final class Snapshot extends TurnPhaseEvent {}
+	
+	/**
+	 * the next turn listeners are notified
+	 * 
+	 * @author Patrick Hechler
+	 */
+	@Name("de.hechler.patrick.games.sc.TurnFanOut")
+	@Label("Listener Fan-Out")
+	@Description("the next turn listeners are notified")
+	public static final class FanOut extends TurnPhaseEvent {}
+	
+}
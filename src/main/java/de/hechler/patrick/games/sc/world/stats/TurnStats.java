@@ -0,0 +1,358 @@
+// This file is part of the Square Conquerer Project
+// DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+// Copyright (C) 2023 Patrick Hechler
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Affero General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Affero General Public License for more details.
+//
+// You should have received a copy of the GNU Affero General Public License
+// along with this program. If not, see <https://www.gnu.org/licenses/>.
+package de.hechler.patrick.games.sc.world.stats;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import de.hechler.patrick.games.sc.error.ErrorType;
+import jdk.jfr.EventType;
+
+/**
+ * collects statistics about the executed turns
+ * <p>
+ * the statistics are exposed as {@link TurnStatsMXBean} under the name {@value #OBJECT_NAME}.<br>
+ * the turns are measured with a {@link Probe}, which additionally emits a {@link TurnPhaseEvent} for every phase if the event is enabled in a running JFR
+ * recording.<br>
+ * a turn costs only a few {@link System#nanoTime()} calls and one short lock of the statistics, so the probes can always be used
+ * 
+ * @author Patrick Hechler
+ */
+public final class TurnStats implements TurnStatsMXBean {
+	
+	/**
+	 * the name under which the statistics are registered in the platform MBean server
+	 */
+	public static final String OBJECT_NAME = "de.hechler.patrick.games.sc:type=TurnStats"; //$NON-NLS-1$
+	/**
+	 * the number of turns used to calculate the percentiles
+	 */
+	public static final int    WINDOW      = 1024;
+	
+	/**
+	 * the phases of a turn execution
+	 * 
+	 * @author Patrick Hechler
+	 */
+	public enum Phase {
+		
+		/** the turn is serialized */
+		SERIALIZE(TurnPhaseEvent.Serialize.class, TurnPhaseEvent.Serialize::new),
+		/** the entity turns are executed */
+		EXECUTE(TurnPhaseEvent.Execute.class, TurnPhaseEvent.Execute::new),
+		/** the world things are notified about the next turn */
+		NOTIFY(TurnPhaseEvent.Notify.class, TurnPhaseEvent.Notify::new),
+		/** the hashes are calculated */
+		HASH(TurnPhaseEvent.Hash.class, TurnPhaseEvent.Hash::new),
+		/** the snapshot is created */
+		SNAPSHOT(TurnPhaseEvent.Snapshot.class, TurnPhaseEvent.Snapshot::new),
+		/** the listeners are notified */
+		FAN_OUT(TurnPhaseEvent.FanOut.class, TurnPhaseEvent.FanOut::new),
+		
+		;
+		
+		private final EventType                type;
+		private final Supplier<TurnPhaseEvent> event;
+		
+		private Phase(Class<? extends TurnPhaseEvent> cls, Supplier<TurnPhaseEvent> event) {
+			this.type  = EventType.getEventType(cls);
+			this.event = event;
+		}
+		
+	}
+	
+	private static final Phase[]      PHASES  = Phase.values();
+	private static final ErrorType[]  ERRORS  = ErrorType.values();
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+	private static final Probe        NOP     = new Probe(null);
+	
+	private static final class Holder {
+		
+		private static final TurnStats INSTANCE = register(new TurnStats());
+		
+		private static TurnStats register(TurnStats stats) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(stats, new ObjectName(OBJECT_NAME));
+			} catch (JMException e) {
+				System.err.println("could not register the turn statistics: " + e);
+			}
+			return stats;
+		}
+		
+	}
+	
+	private final AtomicLongArray failures  = new AtomicLongArray(ERRORS.length);
+	private final long[]          durations = new long[WINDOW];
+	private final long[]          allocated = new long[WINDOW];
+	private final long[][]        phases    = new long[PHASES.length][WINDOW];
+	private long                  count;
+	private long                  allocCount;
+	
+	private TurnStats() {}
+	
+	/**
+	 * returns the statistics of this JVM, on the first call the statistics are registered in the platform MBean server
+	 * 
+	 * @return the statistics of this JVM
+	 */
+	public static TurnStats instance() {
+		return Holder.INSTANCE;
+	}
+	
+	/**
+	 * creates a new probe, which records its turns in this statistics
+	 * <p>
+	 * a probe must not be used by multiple threads concurrently
+	 * 
+	 * @return the new probe
+	 */
+	public Probe probe() {
+		return new Probe(this);
+	}
+	
+	/**
+	 * returns a probe, which records nothing
+	 * <p>
+	 * this probe is used for turns, which are only executed again (for example to restore an older turn), so they do not distort the statistics of the
+	 * executed turns.<br>
+	 * the returned probe can be used by multiple threads concurrently
+	 * 
+	 * @return a probe, which records nothing
+	 */
+	public static Probe nop() {
+		return NOP;
+	}
+	
+	/*
+	 * the allocated bytes can not be measured on virtual threads, so turns which are not executed on a platform thread do not record their allocations
+	 */
+	private static long allocatedBytes() {
+		if (Thread.currentThread().isVirtual()) return -1L;
+		if (THREADS instanceof com.sun.management.ThreadMXBean t && t.isThreadAllocatedMemoryEnabled()) {
+			return t.getCurrentThreadAllocatedBytes();
+		}
+		return -1L;
+	}
+	
+	private synchronized void record(long duration, long alloc, long[] phaseDurations) {
+		int i = (int) (this.count++ % WINDOW);
+		this.durations[i] = duration;
+		if (alloc >= 0L) {
+			this.allocated[(int) (this.allocCount++ % WINDOW)] = alloc;
+		}
+		for (int p = 0; p < phaseDurations.length; p++) {
+			this.phases[p][i] = phaseDurations[p];
+		}
+	}
+	
+	private synchronized long percentile(long[] ring, double p) {
+		return percentile(ring, this.count, p);
+	}
+	
+	private static long percentile(long[] ring, long count, double p) {
+		int len = (int) Math.min(count, WINDOW);
+		if (len == 0) return 0L;
+		long[] sorted = Arrays.copyOf(ring, len);
+		Arrays.sort(sorted);
+		return sorted[(int) Math.ceil(p * len) - 1];
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public synchronized long getTurnCount() {
+		return this.count;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public long getDurationP50Nanos() {
+		return percentile(this.durations, 0.5D);
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public long getDurationP90Nanos() {
+		return percentile(this.durations, 0.9D);
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public long getDurationP99Nanos() {
+		return percentile(this.durations, 0.99D);
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public long getDurationMaxNanos() {
+		return percentile(this.durations, 1D);
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public Map<String, Long> getPhaseP99Nanos() {
+		Map<String, Long> result = new LinkedHashMap<>();
+		for (Phase p : PHASES) {
+			result.put(p.name(), Long.valueOf(percentile(this.phases[p.ordinal()], 0.99D)));
+		}
+		return result;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public synchronized long getAllocatedBytesP50() {
+		if (this.allocCount == 0L) return -1L;
+		return percentile(this.allocated, this.allocCount, 0.5D);
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public synchronized long getAllocatedBytesP99() {
+		if (this.allocCount == 0L) return -1L;
+		return percentile(this.allocated, this.allocCount, 0.99D);
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public Map<String, Long> getFailures() {
+		Map<String, Long> result = new LinkedHashMap<>();
+		for (ErrorType t : ERRORS) {
+			result.put(t.name(), Long.valueOf(this.failures.get(t.ordinal())));
+		}
+		return result;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public synchronized void reset() {
+		this.count      = 0L;
+		this.allocCount = 0L;
+		for (int i = 0; i < ERRORS.length; i++) {
+			this.failures.set(i, 0L);
+		}
+	}
+	
+	/**
+	 * measures the phases of turn executions
+	 * <ol>
+	 * <li>{@link #beginTurn(int, String, int)}</li>
+	 * <li>for every phase: {@link #begin(Phase)} and {@link #end(Phase, long)}</li>
+	 * <li>{@link #endTurn()}</li>
+	 * </ol>
+	 * 
+	 * @author Patrick Hechler
+	 */
+	public static final class Probe {
+		
+		private final TurnStats stats;
+		private final long[]    phaseDurations = new long[PHASES.length];
+		private int             turn;
+		private String          user;
+		private int             entityTurns;
+		private long            start;
+		private long            startAlloc;
+		private long            phaseStart;
+		private TurnPhaseEvent  event;
+		
+		private Probe(TurnStats stats) {
+			this.stats = stats;
+		}
+		
+		/**
+		 * starts the measurement of a turn
+		 * 
+		 * @param turn        the number of the turn
+		 * @param user        the name of the user, whose turn is executed or <code>null</code> if the turns of multiple users are executed
+		 * @param entityTurns the number of entity turns
+		 */
+		public void beginTurn(int turn, String user, int entityTurns) {
+			if (this.stats == null) return;
+			this.turn        = turn;
+			this.user        = user;
+			this.entityTurns = entityTurns;
+			Arrays.fill(this.phaseDurations, 0L);
+			this.startAlloc = allocatedBytes();
+			this.start      = System.nanoTime();
+		}
+		
+		/**
+		 * starts the given phase of the current turn
+		 * 
+		 * @param p the phase
+		 */
+		public void begin(Phase p) {
+			if (this.stats == null) return;
+			if (p.type.isEnabled()) {
+				TurnPhaseEvent e = p.event.get();
+				e.begin();
+				this.event = e;
+			}
+			this.phaseStart = System.nanoTime();
+		}
+		
+		/**
+		 * ends the given phase of the current turn
+		 * 
+		 * @param p           the phase
+		 * @param bytesHashed the number of bytes hashed in the phase
+		 */
+		public void end(Phase p, long bytesHashed) {
+			if (this.stats == null) return;
+			this.phaseDurations[p.ordinal()] += System.nanoTime() - this.phaseStart;
+			TurnPhaseEvent e = this.event;
+			if (e == null) return;
+			this.event = null;
+			e.end();
+			if (e.shouldCommit()) {
+				e.turn        = this.turn;
+				e.user        = this.user;
+				e.entityTurns = this.entityTurns;
+				e.bytesHashed = bytesHashed;
+				e.commit();
+			}
+		}
+		
+		/**
+		 * records a failed entity turn
+		 * 
+		 * @param type the type of the failure
+		 */
+		public void failed(ErrorType type) {
+			if (this.stats == null) return;
+			this.stats.failures.incrementAndGet(type.ordinal());
+		}
+		
+		/**
+		 * ends the measurement of the current turn and records it in the statistics
+		 */
+		public void endTurn() {
+			if (this.stats == null) return;
+			long duration = System.nanoTime() - this.start;
+			long alloc    = this.startAlloc < 0L ? -1L : allocatedBytes() - this.startAlloc;
+			this.stats.record(duration, alloc, this.phaseDurations);
+		}
+		
+	}
+	
+}
@@ -0,0 +1,98 @@
+// This file is part of the Square Conquerer Project
+// DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+// Copyright (C) 2023 Patrick Hechler
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Affero General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Affero General Public License for more details.
+//
+// You should have received a copy of the GNU Affero General Public License
+// along with this program. If not, see <https://www.gnu.org/licenses/>.
+package de.hechler.patrick.games.sc.world.stats;
+
+import java.util.Map;
+
+/**
+ * the management interface of the {@link TurnStats}
+ * <p>
+ * all percentiles are calculated over the last {@value TurnStats#WINDOW} executed turns
+ * 
+ * @author Patrick Hechler
+ */
+public interface TurnStatsMXBean {
+	
+	/**
+	 * returns the number of executed turns
+	 * 
+	 * @return the number of executed turns
+	 */
+	long getTurnCount();
+	
+	/**
+	 * returns the median of the turn execution time in nanoseconds
+	 * 
+	 * @return the median of the turn execution time in nanoseconds
+	 */
+	long getDurationP50Nanos();
+	
+	/**
+	 * returns the 90th percentile of the turn execution time in nanoseconds
+	 * 
+	 * @return the 90th percentile of the turn execution time in nanoseconds
+	 */
+	long getDurationP90Nanos();
+	
+	/**
+	 * returns the 99th percentile of the turn execution time in nanoseconds
+	 * 
+	 * @return the 99th percentile of the turn execution time in nanoseconds
+	 */
+	long getDurationP99Nanos();
+	
+	/**
+	 * returns the maximum turn execution time in nanoseconds
+	 * 
+	 * @return the maximum turn execution time in nanoseconds
+	 */
+	long getDurationMaxNanos();
+	
+	/**
+	 * returns the 99th percentile of the execution time of each phase in nanoseconds
+	 * 
+	 * @return the 99th percentile of the execution time of each phase in nanoseconds
+	 */
+	Map<String, Long> getPhaseP99Nanos();
+	
+	/**
+	 * returns the median of the bytes allocated by the executing thread per turn or <code>-1</code> if this is not supported
+	 * 
+	 * @return the median of the bytes allocated per turn
+	 */
+	long getAllocatedBytesP50();
+	
+	/**
+	 * returns the 99th percentile of the bytes allocated by the executing thread per turn or <code>-1</code> if this is not supported
+	 * 
+	 * @return the 99th percentile of the bytes allocated per turn
+	 */
+	long getAllocatedBytesP99();
+	
+	/**
+	 * returns the number of failed entity turns for each {@link de.hechler.patrick.games.sc.error.ErrorType ErrorType}
+	 * 
+	 * @return the number of failed entity turns for each error type
+	 */
+	Map<String, Long> getFailures();
+	
+	/**
+	 * resets all statistics
+	 */
+	void reset();
+	
+}
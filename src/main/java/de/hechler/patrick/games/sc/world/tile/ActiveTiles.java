@@ -0,0 +1,73 @@
+// This file is part of the Square Conquerer Project
+// DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+// Copyright (C) 2023 Patrick Hechler
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Affero General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Affero General Public License for more details.
+//
+// You should have received a copy of the GNU Affero General Public License
+// along with this program. If not, see <https://www.gnu.org/licenses/>.
+package de.hechler.patrick.games.sc.world.tile;
+
+import java.util.BitSet;
+
+import de.hechler.patrick.games.sc.addons.addable.AddableType;
+
+/**
+ * this class knows all tiles of a world, which contain at least one thing, which {@link AddableType#needsNextTurnNotify() needs to be notified} after a
+ * turn
+ * <p>
+ * the tiles are iterated in the same order as a full sweep over the world would visit them (first x then y)
+ * 
+ * @author Patrick Hechler
+ */
+public final class ActiveTiles {
+	
+	private final int    ylen;
+	private final BitSet active;
+	
+	/**
+	 * creates a new empty set of active tiles
+	 * 
+	 * @param xlen the x-len of the world
+	 * @param ylen the y-len of the world
+	 */
+	public ActiveTiles(int xlen, int ylen) {
+		this.ylen   = ylen;
+		this.active = new BitSet(xlen * ylen);
+	}
+	
+	void set(int x, int y, boolean isActive) {
+		this.active.set(x * this.ylen + y, isActive);
+	}
+	
+	/**
+	 * returns the number of active tiles
+	 * 
+	 * @return the number of active tiles
+	 */
+	public int count() {
+		return this.active.cardinality();
+	}
+	
+	/**
+	 * returns the index of the next active tile, which is greater or equal to the given index or <code>-1</code> if there is no such tile
+	 * <p>
+	 * the x coordinate of the returned index is <code>index / ylen</code> and the y coordinate is <code>index % ylen</code>
+	 * 
+	 * @param index the start index
+	 * 
+	 * @return the index of the next active tile or <code>-1</code>
+	 */
+	public int next(int index) {
+		return this.active.nextSetBit(index);
+	}
+	
+}
@@ -26,6 +26,7 @@ import java.util.Map.Entry;
 import java.util.NavigableMap;
 import java.util.Objects;
 import java.util.TreeMap;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 import de.hechler.patrick.games.sc.addons.addable.ResourceType;
@@ -33,6 +34,7 @@ import de.hechler.patrick.games.sc.error.ErrorType;
 import de.hechler.patrick.games.sc.error.TurnExecutionException;
 import de.hechler.patrick.games.sc.world.CompleteWorld;
 import de.hechler.patrick.games.sc.world.UserWorld;
+import de.hechler.patrick.games.sc.world.WorldThing;
 import de.hechler.patrick.games.sc.world.entity.Build;
 import de.hechler.patrick.games.sc.world.entity.Entity;
 import de.hechler.patrick.games.sc.world.entity.Unit;
@@ -50,11 +52,16 @@ public final class Tile {
 	private Ground           ground;
 	private Build            build;
 	private final List<Unit> units;
+	private int              activeCount;
+	private ActiveTiles      activeTiles;
+	private int              x;
+	private int              y;
 	
 	public Tile(Ground ground) {
 		this.ground       = Objects.requireNonNull(ground, "ground is null");
 		this.units        = new ArrayList<>();
 		this.lastTimeSeen = -1;
+		this.activeCount  = active(ground);
 	}
 	
 	public Tile(Ground ground, Map<ResourceType, Resource> resources, Build build, List<Unit> units, int lastSeen) {
@@ -67,6 +74,48 @@ public final class Tile {
 		this.units = new ArrayList<>(units);
 		this.units.sort(null);
 		this.lastTimeSeen = lastSeen;
+		int ac = active(ground) + active(build);
+		for (Resource r : this.resources.values()) {
+			ac += active(r);
+		}
+		for (Unit u : this.units) {
+			ac += active(u);
+		}
+		this.activeCount = ac;
+	}
+	
+	private static int active(WorldThing<?, ?> t) {
+		return t != null && t.type().needsNextTurnNotify() ? 1 : 0;
+	}
+	
+	private void activeChanged(int diff) {
+		this.activeCount += diff;
+		if (diff != 0 && this.activeTiles != null) {
+			this.activeTiles.set(this.x, this.y, this.activeCount > 0);
+		}
+	}
+	
+	public void activeTiles(ActiveTiles at, int x, int y) {
+		Class<?> caller = StackWalker.getInstance(Option.RETAIN_CLASS_REFERENCE).getCallerClass();
+		if (caller != CompleteWorld.class) {
+			throw new IllegalCallerException(String.format("illegal caller: %s/%s", caller.getModule(), caller.getName()));
+		}
+		this.activeTiles = at;
+		this.x           = x;
+		this.y           = y;
+		at.set(x, y, this.activeCount > 0);
+	}
+	
+	public void forEachActive(Consumer<? super WorldThing<?, ?>> c) {
+		if (this.activeCount <= 0) return;
+		if (active(this.ground) != 0) c.accept(this.ground);
+		if (active(this.build) != 0) c.accept(this.build);
+		for (Resource r : this.resources.values()) {
+			if (active(r) != 0) c.accept(r);
+		}
+		for (Unit u : this.units) {
+			if (active(u) != 0) c.accept(u);
+		}
 	}
 	
 	public boolean visible() {
@@ -150,6 +199,16 @@ public final class Tile {
 		return new Tile(this.ground, this.resources, this.build, this.units, this.lastTimeSeen);
 	}
 	
+	public Tile deepCopy() {
+		Map<ResourceType, Resource> res = new HashMap<>();
+		this.resources.forEach((t, r) -> res.put(t, r.copy()));
+		List<Unit> us = new ArrayList<>(this.units.size());
+		for (Unit u : this.units) {
+			us.add(u.copy());
+		}
+		return new Tile(this.ground.copy(), res, this.build == null ? null : this.build.copy(), us, this.lastTimeSeen);
+	}
+	
 	public Stream<Entity<?,?>> entitiesStream() {
 		return Stream.of(entities());
 	}
@@ -198,6 +257,7 @@ public final class Tile {
 		}
 		this.units.add(u);
 		this.units.sort(null);
+		activeChanged(active(u));
 	}
 	
 	public void removeUnit(Unit u) throws TurnExecutionException {
@@ -210,6 +270,7 @@ public final class Tile {
 		if (!this.units.remove(u)) {
 			throw new AssertionError("did not found my unit");
 		}
+		activeChanged(-active(u));
 	}
 	
 	public void setGround(Ground g) {
@@ -219,7 +280,9 @@ public final class Tile {
 				throw new IllegalCallerException(String.format("illegal caller: %s/%s", caller.getModule(), caller.getName()));
 			}
 		}
+		int diff = active(g) - active(this.ground);
 		this.ground = Objects.requireNonNull(g, "ground");
+		activeChanged(diff);
 	}
 	
 	public void removeBuild(Build expect) throws TurnExecutionException {
@@ -232,6 +295,7 @@ public final class Tile {
 		if (!this.build.equals(expect)) {
 			throw new TurnExecutionException(ErrorType.UNKNOWN);
 		}
+		activeChanged(-active(this.build));
 		this.build = null;
 	}
 	
@@ -242,7 +306,9 @@ public final class Tile {
 				throw new IllegalCallerException(String.format("illegal caller: %s/%s", caller.getModule(), caller.getName()));
 			}
 		}
+		int diff = active(b) - active(this.build);
 		this.build = b;
+		activeChanged(diff);
 	}
 	
 	public void addResource(Resource r) {
@@ -252,10 +318,12 @@ public final class Tile {
 				throw new IllegalCallerException(String.format("illegal caller: %s/%s", caller.getModule(), caller.getName()));
 			}
 		}
+		boolean added = !this.resources.containsKey(r.type());
 		this.resources.merge(r.type(), r, (a, b) -> {
 			a.add(b);
 			return a;
 		});
+		if (added) activeChanged(active(r));
 	}
 	
 	public Resource removeResource(Resource r, ACORNRandom rnd) throws TurnExecutionException {
@@ -272,6 +340,7 @@ public final class Tile {
 		Resource result = old.sub(r, rnd);
 		if (old.amount() <= 0) {
 			this.resources.remove(r.type());
+			activeChanged(-active(old));
 		}
 		return result;
 	}
@@ -0,0 +1,163 @@
+// This file is part of the Square Conquerer Project
+// DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+// Copyright (C) 2023 Patrick Hechler
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Affero General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Affero General Public License for more details.
+//
+// You should have received a copy of the GNU Affero General Public License
+// along with this program. If not, see <https://www.gnu.org/licenses/>.
+package de.hechler.patrick.utils.objects;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+
+/**
+ * a fast non cryptographic 256 bit hash function
+ * <p>
+ * this hash uses four independent 64 bit lanes, which are mixed like the lanes of the xxHash64 algorithm.<br>
+ * it can be used as a {@link MessageDigest}, but it should only be used when no attacker can choose the hashed data (for example trusted LAN games)
+ * 
+ * @author Patrick Hechler
+ */
+public final class FastHash256 extends MessageDigest {
+	
+	/**
+	 * the {@link MessageDigest#getAlgorithm() algorithm name} of this hash
+	 */
+	public static final String NAME = "SC-FAST-256";
+	
+	/**
+	 * the length of the digest in bytes
+	 */
+	public static final int DIGEST_LENGTH = 32;
+	
+	private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+	
+	private static final long P1 = 0x9E3779B185EBCA87L;
+	private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long P3 = 0x165667B19E3779F9L;
+	private static final long P4 = 0x85EBCA77C2B2AE63L;
+	private static final long P5 = 0x27D4EB2F165667C5L;
+	
+	private final byte[] buf = new byte[DIGEST_LENGTH];
+	private int          bufLen;
+	private long         total;
+	private long         v0;
+	private long         v1;
+	private long         v2;
+	private long         v3;
+	
+	/**
+	 * creates a new {@link FastHash256} instance
+	 */
+	public FastHash256() {
+		super(NAME);
+		engineReset();
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	protected int engineGetDigestLength() {
+		return DIGEST_LENGTH;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	protected void engineReset() {
+		this.v0     = P1 + P2;
+		this.v1     = P2;
+		this.v2     = 0L;
+		this.v3     = -P1;
+		this.bufLen = 0;
+		this.total  = 0L;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	protected void engineUpdate(byte input) {
+		this.buf[this.bufLen++] = input;
+		this.total++;
+		if (this.bufLen == DIGEST_LENGTH) {
+			stripe(this.buf, 0);
+			this.bufLen = 0;
+		}
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	protected void engineUpdate(byte[] input, int offset, int len) {
+		this.total += len;
+		if (this.bufLen != 0) {
+			int cpy = Math.min(len, DIGEST_LENGTH - this.bufLen);
+			System.arraycopy(input, offset, this.buf, this.bufLen, cpy);
+			this.bufLen += cpy;
+			offset      += cpy;
+			len         -= cpy;
+			if (this.bufLen < DIGEST_LENGTH) return;
+			stripe(this.buf, 0);
+			this.bufLen = 0;
+		}
+		for (; len >= DIGEST_LENGTH; len -= DIGEST_LENGTH, offset += DIGEST_LENGTH) {
+			stripe(input, offset);
+		}
+		if (len > 0) {
+			System.arraycopy(input, offset, this.buf, 0, len);
+			this.bufLen = len;
+		}
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	protected byte[] engineDigest() {
+		if (this.bufLen != 0) { // pad with zeros, the total length is mixed in later
+			for (int i = this.bufLen; i < DIGEST_LENGTH; i++) {
+				this.buf[i] = 0;
+			}
+			stripe(this.buf, 0);
+		}
+		long   len = this.total * P5;
+		long   a   = avalanche(this.v0 ^ Long.rotateLeft(this.v1, 17) ^ len);
+		long   b   = avalanche(this.v1 ^ Long.rotateLeft(this.v2, 23) ^ (len + P3));
+		long   c   = avalanche(this.v2 ^ Long.rotateLeft(this.v3, 29) ^ (len + P4));
+		long   d   = avalanche(this.v3 ^ Long.rotateLeft(this.v0, 31) ^ (len + P1));
+		byte[] res = new byte[DIGEST_LENGTH];
+		LONG.set(res, 0, a ^ d);
+		LONG.set(res, 8, b ^ a);
+		LONG.set(res, 16, c ^ b);
+		LONG.set(res, 24, d ^ c);
+		engineReset();
+		return res;
+	}
+	
+	private void stripe(byte[] b, int off) {
+		this.v0 = round(this.v0, (long) LONG.get(b, off));
+		this.v1 = round(this.v1, (long) LONG.get(b, off + 8));
+		this.v2 = round(this.v2, (long) LONG.get(b, off + 16));
+		this.v3 = round(this.v3, (long) LONG.get(b, off + 24));
+	}
+	
+	private static long round(long acc, long input) {
+		acc += input * P2;
+		acc  = Long.rotateLeft(acc, 31);
+		return acc * P1;
+	}
+	
+	private static long avalanche(long h) {
+		h ^= h >>> 33;
+		h *= P2;
+		h ^= h >>> 29;
+		h *= P3;
+		return h ^ (h >>> 32);
+	}
+	
+}
@@ -33,6 +33,8 @@ module de.hechler.patrick.games.squareconqerer {
 	
 	requires transitive java.desktop;
 	requires jdk.incubator.concurrent;
+	requires transitive jdk.jfr;
+	requires jdk.management;
 	
 	
 	exports de.hechler.patrick.games.sc;
@@ -57,6 +59,7 @@ module de.hechler.patrick.games.squareconqerer {
 	exports de.hechler.patrick.games.sc.world.ground;
 	exports de.hechler.patrick.games.sc.world.init;
 	exports de.hechler.patrick.games.sc.world.resource;
+	exports de.hechler.patrick.games.sc.world.stats;
 	exports de.hechler.patrick.games.sc.world.tile;
 	
 	exports de.hechler.patrick.utils.interfaces;
@@ -0,0 +1,145 @@
+// This file is part of the Square Conquerer Project
+// DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+// Copyright (C) 2023 Patrick Hechler
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Affero General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Affero General Public License for more details.
+//
+// You should have received a copy of the GNU Affero General Public License
+// along with this program. If not, see <https://www.gnu.org/licenses/>.
+package de.hechler.patrick.games.sc.world;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+import de.hechler.patrick.games.sc.connect.Connection;
+import de.hechler.patrick.games.sc.error.TurnExecutionException;
+import de.hechler.patrick.games.sc.ui.players.User;
+import de.hechler.patrick.games.sc.values.IntValue;
+import de.hechler.patrick.games.sc.values.MapValue;
+import de.hechler.patrick.games.sc.values.UserValue;
+import de.hechler.patrick.games.sc.values.Value;
+import de.hechler.patrick.games.sc.values.WorldThingValue;
+import de.hechler.patrick.games.sc.world.entity.Entity;
+import de.hechler.patrick.games.sc.world.entity.Unit;
+import de.hechler.patrick.games.sc.world.resource.Resource;
+import de.hechler.patrick.games.sc.world.tile.Tile;
+
+/**
+ * tests the {@link CompactWorldFormat version 2} world format
+ * 
+ * @author Patrick Hechler
+ */
+class CompactWorldFormatTest {
+	
+	@Test
+	void decodeRestoresTheEncodedWorld() throws StreamCorruptedException {
+		TestWorld  w   = new TestWorld();
+		byte[]     enc = CompactWorldFormat.encode(TestWorld.XLEN, TestWorld.YLEN, w.world::tile, true);
+		ByteBuffer buf = ByteBuffer.wrap(enc);
+		Tile[][]   dec = CompactWorldFormat.decode(buf, w.root, uuid -> null);
+		assertFalse(buf.hasRemaining());
+		assertEquals(TestWorld.XLEN, dec.length);
+		assertEquals(TestWorld.YLEN, dec[0].length);
+		assertArrayEquals(enc, CompactWorldFormat.encode(TestWorld.XLEN, TestWorld.YLEN, (x, y) -> dec[x][y], true));
+		for (int i = 0; i < w.users.size(); i++) {
+			User usr = w.users.get(i);
+			Unit u   = dec[TestWorld.startX(i)][TestWorld.startY(i)].unitsStream().findFirst().orElseThrow();
+			assertEquals(w.worker(usr).uuid, u.uuid);
+			assertSame(usr, u.owner());
+			assertEquals(TestWorld.startX(i), u.x());
+			assertEquals(TestWorld.startY(i), u.y());
+		}
+		Resource r = dec[3][4].resourcesStream().findFirst().orElseThrow();
+		assertSame(TestAddon.STONE, r.type());
+		assertEquals(8, r.amount());
+		assertEquals(w.world.tile(0, 0).ground().uuid, dec[0][0].ground().uuid);
+	}
+	
+	@Test
+	void readRestoresTheWrittenWorld() throws IOException {
+		TestWorld             w    = new TestWorld();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try (Connection conn = Connection.createUnsecure(w.root, baos, null)) {
+			OpenWorld.saveWorld(w.world, conn);
+		}
+		Tile[][] tiles;
+		try (Connection conn = Connection.createUnsecure(w.root, new ByteArrayInputStream(baos.toByteArray()), null)) {
+			tiles = OpenWorld.loadWorld(null, conn);
+		}
+		byte[] expected = CompactWorldFormat.encode(TestWorld.XLEN, TestWorld.YLEN, w.world::tile, true);
+		assertArrayEquals(expected, CompactWorldFormat.encode(TestWorld.XLEN, TestWorld.YLEN, (x, y) -> tiles[x][y], true));
+	}
+	
+	@Test
+	void worldThingValuesAreResolved() throws StreamCorruptedException, TurnExecutionException {
+		User     root    = User.createUser("root", "root".toCharArray());
+		User     usr     = root.addUser(TestWorld.name(0), TestWorld.password(0));
+		Resource inside  = TestAddon.stone(new UUID(5L, 1L), 7);
+		Resource outside = TestAddon.stone(new UUID(5L, 2L), 9);
+		// the stone and the worker are in different content sections
+		Tile[][] tiles   = new Tile[CompactWorldFormat.BLOCK_LEN + 4][4];
+		for (int x = 0; x < tiles.length; x++) {
+			for (int y = 0; y < tiles[x].length; y++) {
+				tiles[x][y] = new Tile(TestAddon.GRASS.newInstance(new UUID(0L, x * 4L + y)));
+			}
+		}
+		int sx = CompactWorldFormat.BLOCK_LEN + 2;
+		tiles[sx][3] = new Tile(tiles[sx][3].ground(), Map.of(TestAddon.STONE, inside), null, List.of(), -1);
+		Map<String, Value> carry = Map.of("inside", new WorldThingValue("inside", inside), "outside", new WorldThingValue("outside", outside));
+		Unit               u     = TestAddon.WORKER.withValues(Map.of(Entity.OWNER, new UserValue(Entity.OWNER, usr), Entity.X, new IntValue(Entity.X, 1),
+			Entity.Y, new IntValue(Entity.Y, 1), Unit.CARRY, new MapValue<>(Unit.CARRY, carry)), new UUID(5L, 3L));
+		tiles[1][1] = new Tile(tiles[1][1].ground(), Map.of(), null, List.of(u), -1);
+		byte[]          enc = CompactWorldFormat.encode(tiles.length, 4, (x, y) -> tiles[x][y], true);
+		Tile[][]        dec = CompactWorldFormat.decode(ByteBuffer.wrap(enc), root, uuid -> null);
+		WorldThingValue in  = carried(dec, "inside");
+		WorldThingValue out = carried(dec, "outside");
+		assertSame(dec[sx][3].resourcesStream().findFirst().orElseThrow(), in.value());
+		assertFalse(out.hasValue());
+		assertEquals(outside.uuid, out.uuid());
+		assertSame(TestAddon.STONE, out.type());
+		// unresolved references are written again unchanged
+		assertArrayEquals(enc, CompactWorldFormat.encode(tiles.length, 4, (x, y) -> dec[x][y], true));
+		// references to things outside of the world are resolved with the given function
+		Tile[][] dec2 = CompactWorldFormat.decode(ByteBuffer.wrap(enc), root, uuid -> outside.uuid.equals(uuid) ? outside : null);
+		assertSame(outside, carried(dec2, "outside").value());
+	}
+	
+	@Test
+	void corruptSectionsAreRejected() {
+		TestWorld w   = new TestWorld();
+		byte[]    enc = CompactWorldFormat.encode(TestWorld.XLEN, TestWorld.YLEN, w.world::tile, true);
+		enc[enc.length - 1] ^= 1; // the check sum of the last content section
+		assertThrows(StreamCorruptedException.class, () -> CompactWorldFormat.decode(ByteBuffer.wrap(enc), w.root, uuid -> null));
+		byte[] cut = new byte[enc.length / 2];
+		System.arraycopy(enc, 0, cut, 0, cut.length);
+		assertThrows(StreamCorruptedException.class, () -> CompactWorldFormat.decode(ByteBuffer.wrap(cut), w.root, uuid -> null));
+	}
+	
+	private static WorldThingValue carried(Tile[][] tiles, String name) {
+		Unit u = tiles[1][1].unitsStream().findFirst().orElseThrow();
+		return (WorldThingValue) u.carry().get(name);
+	}
+	
+}
@@ -0,0 +1,83 @@
+// This file is part of the Square Conquerer Project
+// DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+// Copyright (C) 2023 Patrick Hechler
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Affero General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Affero General Public License for more details.
+//
+// You should have received a copy of the GNU Affero General Public License
+// along with this program. If not, see <https://www.gnu.org/licenses/>.
+package de.hechler.patrick.games.sc.world;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import de.hechler.patrick.games.sc.connect.Connection;
+import de.hechler.patrick.games.sc.ui.players.User;
+
+/**
+ * tests the {@link Connection#compressed() compressed} connections
+ * 
+ * @author Patrick Hechler
+ */
+class CompressionTest {
+	
+	@Test
+	void compressedSavesCanBeLoaded() throws IOException {
+		TestWorld w    = new TestWorld();
+		byte[]    hash = w.world.snapshot().worldHash();
+		int[]     size = new int[2];
+		for (int i = 0; i < 2; i++) {
+			boolean               compress = i == 1;
+			ByteArrayOutputStream baos     = new ByteArrayOutputStream();
+			try (Connection conn = Connection.OneWayAccept.acceptWriteOnly(baos, w.root, null, compress)) {
+				assertEquals(compress, conn.compressed());
+				w.world.saveEverything(conn);
+			}
+			size[i] = baos.size();
+			try (Connection conn = Connection.OneWayAccept.acceptReadOnly(new ByteArrayInputStream(baos.toByteArray()), w.root, null)) {
+				// the reader detects the compression from the header
+				assertEquals(compress, conn.compressed());
+				CompleteWorld loaded = CompleteWorld.loadEverything(conn);
+				assertEquals(w.world.turn(), loaded.turn());
+				assertArrayEquals(hash, loaded.snapshot().worldHash());
+			}
+		}
+		assertTrue(size[1] < size[0], "the compressed save is not smaller: " + size[1] + " >= " + size[0]);
+	}
+	
+	@Test
+	void theClientDecidesAboutTheCompression() throws IOException {
+		TestWorld w = new TestWorld();
+		w.rounds(1);
+		try (TestServer server = new TestServer(w.world)) {
+			for (boolean compress : new boolean[] { false, true }) {
+				User       usr  = User.createUser(TestWorld.name(0), TestWorld.password(0));
+				Connection conn = server.connect(usr, compress);
+				try {
+					assertEquals(compress, conn.compressed());
+					assertEquals(compress, server.accepted().compressed());
+					// a request and its response use the negotiated connection
+					assertEquals(w.world.turn(), conn.world().turn());
+				} finally {
+					conn.logOut();
+				}
+			}
+		}
+	}
+	
+}
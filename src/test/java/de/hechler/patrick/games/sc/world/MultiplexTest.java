@@ -0,0 +1,104 @@
+// This file is part of the Square Conquerer Project
+// DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+// Copyright (C) 2023 Patrick Hechler
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Affero General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Affero General Public License for more details.
+//
+// You should have received a copy of the GNU Affero General Public License
+// along with this program. If not, see <https://www.gnu.org/licenses/>.
+package de.hechler.patrick.games.sc.world;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+
+import de.hechler.patrick.games.sc.connect.Connection;
+import de.hechler.patrick.games.sc.ui.players.User;
+
+/**
+ * tests the {@link OpenWorld#MUX_HELLO multiplexed} protocol of the {@link RemoteWorld}
+ * 
+ * @author Patrick Hechler
+ */
+class MultiplexTest {
+	
+	private static final int THREADS  = 4;
+	private static final int REQUESTS = 64;
+	
+	@Test
+	void concurrentRequestsGetTheirResponses() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+		TestWorld w       = new TestWorld();
+		UUID      known   = w.worker(w.users.get(0)).uuid;
+		UUID      unknown = new UUID(7L, 7L);
+		try (TestServer server = new TestServer(w.world); RemoteWorld rw = connect(server)) {
+			rw.multiplex();
+			assertEquals(w.world.turn(), rw.turn());
+			List<CompletableFuture<Void>> threads = new ArrayList<>();
+			for (int t = 0; t < THREADS; t++) {
+				threads.add(CompletableFuture.runAsync(() -> {
+					List<CompletableFuture<WorldThing<?, ?>>> fs = new ArrayList<>();
+					// all requests are send before the first response is read
+					for (int i = 0; i < REQUESTS; i++) {
+						fs.add(rw.fetch((i & 1) == 0 ? known : unknown));
+					}
+					for (int i = 0; i < REQUESTS; i++) {
+						WorldThing<?, ?> thing = fs.get(i).join();
+						if ((i & 1) == 0) {
+							assertNotNull(thing);
+							assertEquals(known, thing.uuid);
+						} else {
+							assertNull(thing);
+						}
+					}
+				}));
+			}
+			for (CompletableFuture<Void> t : threads) {
+				t.get(30L, TimeUnit.SECONDS);
+			}
+			List<WorldThing<?, ?>> things = rw.fetchAll(List.of(known, unknown, known)).get(10L, TimeUnit.SECONDS);
+			assertEquals(3, things.size());
+			assertEquals(known, things.get(0).uuid);
+			assertNull(things.get(1));
+			assertEquals(known, things.get(2).uuid);
+		}
+	}
+	
+	@Test
+	void theNextTurnIsPushed() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+		TestWorld w = new TestWorld();
+		try (TestServer server = new TestServer(w.world); RemoteWorld rw = connect(server)) {
+			rw.multiplex();
+			CompletableFuture<Integer> pushed = new CompletableFuture<>();
+			rw.addNextTurnListener((turn, worldHash, turnHash) -> pushed.complete(Integer.valueOf(turn)));
+			w.round();
+			assertEquals(w.world.turn(), pushed.get(10L, TimeUnit.SECONDS).intValue());
+			// the listener may send requests, which are answered while the connection is multiplexed
+			assertEquals(w.world.turn(), rw.turn());
+		}
+	}
+	
+	private static RemoteWorld connect(TestServer server) throws IOException {
+		Connection conn = server.connect(User.createUser(TestWorld.name(0), TestWorld.password(0)), false);
+		return (RemoteWorld) conn.world();
+	}
+	
+}
@@ -0,0 +1,369 @@
+// This file is part of the Square Conquerer Project
+// DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+// Copyright (C) 2023 Patrick Hechler
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Affero General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Affero General Public License for more details.
+//
+// You should have received a copy of the GNU Affero General Public License
+// along with this program. If not, see <https://www.gnu.org/licenses/>.
+package de.hechler.patrick.games.sc.world;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import de.hechler.patrick.games.sc.addons.Addon;
+import de.hechler.patrick.games.sc.addons.AddonProvider;
+import de.hechler.patrick.games.sc.addons.addable.AddableType;
+import de.hechler.patrick.games.sc.addons.addable.ResourceType;
+import de.hechler.patrick.games.sc.addons.addable.UnitType;
+import de.hechler.patrick.games.sc.ui.pages.Page;
+import de.hechler.patrick.games.sc.ui.pages.TextOnlyPage;
+import de.hechler.patrick.games.sc.ui.players.User;
+import de.hechler.patrick.games.sc.values.IntValue;
+import de.hechler.patrick.games.sc.values.MapValue;
+import de.hechler.patrick.games.sc.values.UserValue;
+import de.hechler.patrick.games.sc.values.Value;
+import de.hechler.patrick.games.sc.values.spec.IntSpec;
+import de.hechler.patrick.games.sc.values.spec.MapSpec;
+import de.hechler.patrick.games.sc.values.spec.UserSpec;
+import de.hechler.patrick.games.sc.values.spec.ValueSpec;
+import de.hechler.patrick.games.sc.world.entity.Entity;
+import de.hechler.patrick.games.sc.world.entity.Unit;
+import de.hechler.patrick.games.sc.world.ground.Ground;
+import de.hechler.patrick.games.sc.world.ground.SimpleGroundType;
+import de.hechler.patrick.games.sc.world.resource.Resource;
+import de.hechler.patrick.games.sc.world.tile.NeigbourTiles;
+import de.hechler.patrick.utils.objects.ACORNRandom;
+import de.hechler.patrick.utils.objects.Version;
+
+/**
+ * the addon used by the tests, the game itself only has the not explored ground
+ * <p>
+ * it adds the {@link #GRASS grass} ground, the {@link #STONE stone} resource and the {@link #WORKER worker} unit
+ * 
+ * @author Patrick Hechler
+ */
+public class TestAddon extends Addon {
+	
+	/**
+	 * the name of the test addon
+	 */
+	public static final String NAME = "test.SquareConquerer";
+	
+	/**
+	 * the only ground of the test addon
+	 */
+	public static final SimpleGroundType GRASS = new SimpleGroundType("test:grass", "grass",
+		Map.of(WorldThing.VIEW_BLOCK, new IntSpec(WorldThing.VIEW_BLOCK, WorldThing.VIEW_BLOCK_LOC, 0, 0)),
+		Map.of(WorldThing.VIEW_BLOCK, new IntValue(WorldThing.VIEW_BLOCK, 0))) {
+		
+		@Override
+		protected Image loadImage() {
+			return new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+		}
+		
+		@Override
+		public int propability(World world, int x, int y, NeigbourTiles neigbours) {
+			return 1;
+		}
+		
+		@Override
+		public Ground withNeigbours(World world, int x, int y, NeigbourTiles neigbours) {
+			return newInstance(new UUID(x, y));
+		}
+		
+	};
+	
+	/**
+	 * the only resource of the test addon
+	 */
+	public static final ResourceType STONE = new StoneType();
+	
+	/**
+	 * the only unit of the test addon
+	 */
+	public static final UnitType WORKER = new WorkerType();
+	
+	/**
+	 * the test addon
+	 */
+	public static final TestAddon ADDON = new TestAddon();
+	
+	private TestAddon() {
+		super(NAME, "Test", new String[0], new Version(1, 0, 0), Map.of(GRASS.name, GRASS, STONE.name, STONE, WORKER.name, WORKER), "AGPL v3+");
+	}
+	
+	/**
+	 * creates a stone resource
+	 * 
+	 * @param uuid   the uuid of the stone
+	 * @param amount the amount of the stone
+	 * 
+	 * @return the new stone
+	 */
+	public static Resource stone(UUID uuid, int amount) {
+		return new Stone(uuid, Map.of(Resource.AMOUNT, new IntValue(Resource.AMOUNT, amount)));
+	}
+	
+	/**
+	 * creates a worker unit
+	 * 
+	 * @param uuid  the uuid of the worker
+	 * @param owner the owner of the worker
+	 * @param x     the x coordinate of the worker
+	 * @param y     the y coordinate of the worker
+	 * 
+	 * @return the new worker
+	 */
+	public static Unit worker(UUID uuid, User owner, int x, int y) {
+		return new Worker(uuid, Map.of(Entity.OWNER, new UserValue(Entity.OWNER, owner), Entity.X, new IntValue(Entity.X, x), Entity.Y,
+			new IntValue(Entity.Y, y)));
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	protected TextOnlyPage loadLicense() {
+		return new TextOnlyPage("AGPL v3+", "the test addon is part of the Square Conquerer tests");
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public boolean hasCredits() {
+		return false;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	protected Page loadCredits() {
+		throw new UnsupportedOperationException("the test addon has no credits");
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public boolean hasHelp() {
+		return false;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	protected Page loadHelp() {
+		throw new UnsupportedOperationException("the test addon has no help");
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public void checkDependencies(Map<String, Addon> addons, Map<String, AddableType<?, ?>> added) {/**/}
+	
+	/**
+	 * provides the {@link TestAddon#ADDON test addon}, it is registered in the service file of the tests
+	 * 
+	 * @author Patrick Hechler
+	 */
+	public static class Provider extends AddonProvider {
+		
+		private static final List<Addon> LIST = List.of(ADDON);
+		
+		/** {@inheritDoc} */
+		@Override
+		public Iterable<Addon> addons() {
+			return LIST;
+		}
+		
+	}
+	
+	private static final class StoneType extends ResourceType {
+		
+		private static final Map<String, Value> DEFAULTS = Map.of(Resource.AMOUNT, new IntValue(Resource.AMOUNT, 1), WorldThing.VIEW_BLOCK,
+			new IntValue(WorldThing.VIEW_BLOCK, 0));
+		
+		private StoneType() {
+			super("test:stone", "stone", specs(new IntSpec(Resource.AMOUNT, Resource.AMOUNT_LOC, 1, Integer.MAX_VALUE),
+				new IntSpec(WorldThing.VIEW_BLOCK, WorldThing.VIEW_BLOCK_LOC, 0, 0)));
+		}
+		
+		@Override
+		public Resource withValues(Map<String, Value> values, UUID uuid) {
+			return new Stone(uuid, values);
+		}
+		
+		@Override
+		public Resource withDefaultValues(World w, ACORNRandom r, int x, int y) {
+			return new Stone(r.nextUUID(), DEFAULTS);
+		}
+		
+		@Override
+		public Resource withRandomValues(World w, ACORNRandom r, int x, int y) {
+			return new Stone(r.nextUUID(), DEFAULTS);
+		}
+		
+		@Override
+		public int propability(World world, int x, int y, NeigbourTiles neigbours) {
+			return 0;
+		}
+		
+		@Override
+		public Resource withNeigbours(World world, int x, int y, NeigbourTiles neigbours) {
+			throw new AssertionError("withNeigbours called, but my probability is zero!");
+		}
+		
+	}
+	
+	private static final class WorkerType extends UnitType {
+		
+		private static final Map<String, Value> DEFAULTS = Map.of(Entity.LIVES, new IntValue(Entity.LIVES, 10), Entity.VIEW_RANGE,
+			new IntValue(Entity.VIEW_RANGE, 3), Unit.MOVE_RANGE, new IntValue(Unit.MOVE_RANGE, 2), Unit.WORK_EFFICIENCY,
+			new IntValue(Unit.WORK_EFFICIENCY, 1), Unit.CARRY, new MapValue<>(Unit.CARRY, Map.of()), WorldThing.VIEW_BLOCK,
+			new IntValue(WorldThing.VIEW_BLOCK, 0), Entity.X, new IntValue(Entity.X, 0), Entity.Y, new IntValue(Entity.Y, 0));
+		
+		private WorkerType() {
+			super("test:worker", "worker", specs(new IntSpec(Entity.X, Entity.X_LOC, 0, Integer.MAX_VALUE),
+				new IntSpec(Entity.Y, Entity.Y_LOC, 0, Integer.MAX_VALUE), new UserSpec(Entity.OWNER, Entity.OWNER_LOC),
+				new IntSpec(Entity.LIVES, Entity.LIVES_LOC, 0, 10), new IntSpec(Entity.VIEW_RANGE, Entity.VIEW_RANGE_LOC, 3, 3),
+				new IntSpec(Unit.MOVE_RANGE, Unit.MOVE_RANGE_LOC, 2, 2), new IntSpec(Unit.WORK_EFFICIENCY, Unit.WORK_EFFICIENCY_LOC, 1, 1),
+				new MapSpec(Unit.CARRY, Unit.CARRY_LOC), new IntSpec(WorldThing.VIEW_BLOCK, WorldThing.VIEW_BLOCK_LOC, 0, 0)));
+		}
+		
+		@Override
+		public Unit withValues(Map<String, Value> values, UUID uuid) {
+			return new Worker(uuid, values);
+		}
+		
+		@Override
+		public Unit withDefaultValues(World w, ACORNRandom r, int x, int y) {
+			return new Worker(r.nextUUID(), Map.of(Entity.OWNER, new UserValue(Entity.OWNER, w.user()), Entity.X, new IntValue(Entity.X, x), Entity.Y,
+				new IntValue(Entity.Y, y)));
+		}
+		
+		@Override
+		public Unit withRandomValues(World w, ACORNRandom r, int x, int y) {
+			return withDefaultValues(w, r, x, y);
+		}
+		
+		@Override
+		public List<Map<String, Value>> startEntities() {
+			return List.of();
+		}
+		
+	}
+	
+	private static Map<String, ValueSpec> specs(ValueSpec... specs) {
+		Map<String, ValueSpec> res = new TreeMap<>();
+		for (ValueSpec s : specs) {
+			res.put(s.name(), s);
+		}
+		return res;
+	}
+	
+	/* the values are sorted by their name, so the encoding of a thing does not depend on the order in which its values were given */
+	private static NavigableMap<String, Value> sorted(Map<String, Value> defaults, Map<String, Value> values) {
+		NavigableMap<String, Value> res = new TreeMap<>(defaults);
+		res.putAll(values);
+		return res;
+	}
+	
+	private static Value value(Map<String, Value> values, String name) {
+		Value val = values.get(name);
+		if (val == null) {
+			throw new IllegalArgumentException("I could not find any value with the name '" + name + "'");
+		}
+		return val;
+	}
+	
+	private static void value(WorldThing<?, ?> wt, Map<String, Value> values, Value newValue) {
+		if (!values.containsKey(newValue.name())) {
+			throw new IllegalArgumentException("I could not find any value with the name '" + newValue.name() + "'");
+		}
+		values.put(newValue.name(), newValue);
+		wt.resetHash();
+	}
+	
+	private static final class Stone extends Resource {
+		
+		private final NavigableMap<String, Value> vals;
+		
+		private Stone(UUID uuid, Map<String, Value> vals) {
+			super(uuid);
+			this.vals = sorted(StoneType.DEFAULTS, vals);
+		}
+		
+		@Override
+		public ResourceType type() {
+			return STONE;
+		}
+		
+		@Override
+		public Map<String, Value> values() {
+			return Collections.unmodifiableNavigableMap(this.vals);
+		}
+		
+		@Override
+		public Value value(String name) {
+			return TestAddon.value(this.vals, name);
+		}
+		
+		@Override
+		public void value(Value newValue) {
+			TestAddon.value(this, this.vals, newValue);
+		}
+		
+		@Override
+		public Image image(int width, int height) {
+			return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		}
+		
+	}
+	
+	private static final class Worker extends Unit {
+		
+		private final NavigableMap<String, Value> vals;
+		
+		private Worker(UUID uuid, Map<String, Value> vals) {
+			super(uuid);
+			this.vals = sorted(WorkerType.DEFAULTS, vals);
+			if (!this.vals.containsKey(OWNER)) {
+				throw new IllegalArgumentException("the owner of the worker is missing");
+			}
+		}
+		
+		@Override
+		public UnitType type() {
+			return WORKER;
+		}
+		
+		@Override
+		public Map<String, Value> values() {
+			return Collections.unmodifiableNavigableMap(this.vals);
+		}
+		
+		@Override
+		public Value value(String name) {
+			return TestAddon.value(this.vals, name);
+		}
+		
+		@Override
+		public void value(Value newValue) {
+			TestAddon.value(this, this.vals, newValue);
+		}
+		
+		@Override
+		public Image image(int width, int height) {
+			return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		}
+		
+	}
+	
+}
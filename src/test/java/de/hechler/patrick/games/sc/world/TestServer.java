@@ -0,0 +1,128 @@
+// This file is part of the Square Conquerer Project
+// DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+// Copyright (C) 2023 Patrick Hechler
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Affero General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Affero General Public License for more details.
+//
+// You should have received a copy of the GNU Affero General Public License
+// along with this program. If not, see <https://www.gnu.org/licenses/>.
+package de.hechler.patrick.games.sc.world;
+
+import java.io.Closeable;
+import java.io.IOError;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import de.hechler.patrick.games.sc.connect.Connection;
+import de.hechler.patrick.games.sc.ui.players.User;
+
+/**
+ * a server, which {@link Connection.ServerAccept#accept(ServerSocket, CompleteWorld, de.hechler.patrick.utils.interfaces.ThrowBiConsumer, Map, char[])
+ * accepts} connections to a world on a free port of the loopback address
+ * 
+ * @author Patrick Hechler
+ */
+final class TestServer implements Closeable {
+	
+	private final ServerSocket              ss;
+	private final Thread                    thread;
+	private final BlockingQueue<Connection> accepted;
+	
+	/**
+	 * starts the server
+	 * 
+	 * @param world the world of the server
+	 * 
+	 * @throws IOException if an IO error occurs
+	 */
+	TestServer(CompleteWorld world) throws IOException {
+		this.ss       = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		this.accepted = new LinkedBlockingQueue<>();
+		Map<User, Connection> connects = new ConcurrentHashMap<>();
+		this.thread = Thread.ofPlatform().name("test-server").daemon(true).start(() -> {
+			try {
+				Connection.ServerAccept.accept(this.ss, world, (conn, sok) -> {
+					if (sok != null) this.accepted.add(conn);
+				}, connects, null);
+			} catch (@SuppressWarnings("unused") IOException e) {
+				// the server was stopped
+			}
+		});
+	}
+	
+	/**
+	 * connects the given user to this server
+	 * 
+	 * @param usr      the user, which has the name and password of a user of the world
+	 * @param compress if the connection should be compressed
+	 * 
+	 * @return the connection of the client
+	 * 
+	 * @throws IOException if an IO error occurs
+	 */
+	Connection connect(User usr, boolean compress) throws IOException {
+		Socket sok = new Socket(this.ss.getInetAddress(), this.ss.getLocalPort());
+		try {
+			return Connection.ClientConnect.connect(sok.getInputStream(), sok.getOutputStream(), to -> {
+				try {
+					sok.setSoTimeout(to);
+				} catch (SocketException e) {
+					throw new IOError(e);
+				}
+			}, usr, compress);
+		} catch (Throwable t) {
+			sok.close();
+			throw t;
+		}
+	}
+	
+	/**
+	 * waits until the server accepted the next connection and returns the connection of the server
+	 * 
+	 * @return the connection of the server
+	 * 
+	 * @throws InterruptedIOException if no connection was accepted within ten seconds
+	 */
+	Connection accepted() throws InterruptedIOException {
+		try {
+			Connection conn = this.accepted.poll(10L, TimeUnit.SECONDS);
+			if (conn == null) throw new InterruptedIOException("the server accepted no connection");
+			return conn;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.toString());
+		}
+	}
+	
+	/**
+	 * stops the server and closes all accepted connections
+	 */
+	@Override
+	public void close() throws IOException {
+		this.thread.interrupt();
+		try {
+			this.thread.join(10_000L);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.ss.close();
+	}
+	
+}
@@ -0,0 +1,196 @@
+// This file is part of the Square Conquerer Project
+// DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+// Copyright (C) 2023 Patrick Hechler
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Affero General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Affero General Public License for more details.
+//
+// You should have received a copy of the GNU Affero General Public License
+// along with this program. If not, see <https://www.gnu.org/licenses/>.
+package de.hechler.patrick.games.sc.world;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import de.hechler.patrick.games.sc.addons.addable.ResourceType;
+import de.hechler.patrick.games.sc.turn.Direction;
+import de.hechler.patrick.games.sc.turn.MoveTurn;
+import de.hechler.patrick.games.sc.turn.Turn;
+import de.hechler.patrick.games.sc.ui.players.User;
+import de.hechler.patrick.games.sc.world.entity.Unit;
+import de.hechler.patrick.games.sc.world.ground.Ground;
+import de.hechler.patrick.games.sc.world.init.DefaultUserPlacer;
+import de.hechler.patrick.games.sc.world.resource.Resource;
+import de.hechler.patrick.games.sc.world.tile.Tile;
+
+/**
+ * a started {@link CompleteWorld} of the {@link TestAddon}
+ * <p>
+ * the world has a stone on every seventh diagonal and every user has one worker, the workers are placed in different
+ * {@link WorldSnapshot#chunk(int, int, int) chunks}.<br>
+ * everything is created from fixed values, so every instance is the same world
+ * 
+ * @author Patrick Hechler
+ */
+final class TestWorld {
+	
+	/** the x-len of the world */
+	static final int XLEN = 32;
+	/** the y-len of the world */
+	static final int YLEN = 32;
+	
+	/** the root user of the world */
+	final User          root;
+	/** the users of the world */
+	final List<User>    users;
+	/** the world */
+	final CompleteWorld world;
+	
+	/**
+	 * creates and starts a world with two users
+	 */
+	TestWorld() {
+		this(2);
+	}
+	
+	/**
+	 * creates and starts a world with the given number of users
+	 * 
+	 * @param userCount the number of users (without the root), at most four
+	 */
+	TestWorld(int userCount) {
+		this.root  = User.createUser("root", "root".toCharArray());
+		this.users = new ArrayList<>(userCount);
+		for (int i = 0; i < userCount; i++) {
+			this.users.add(this.root.addUser(name(i), password(i)));
+		}
+		Tile[][] tiles = new Tile[XLEN][YLEN];
+		for (int x = 0; x < XLEN; x++) {
+			for (int y = 0; y < YLEN; y++) {
+				Ground g = TestAddon.GRASS.newInstance(new UUID(0L, x * YLEN + y));
+				if ((x + y) % 7 == 0) {
+					Map<ResourceType, Resource> res = Map.of(TestAddon.STONE, TestAddon.stone(new UUID(1L, x * YLEN + y), x + y + 1));
+					tiles[x][y] = new Tile(g, res, null, List.of(), -1);
+				} else {
+					tiles[x][y] = new Tile(g);
+				}
+			}
+		}
+		for (int i = 0; i < userCount; i++) {
+			int  x = startX(i);
+			int  y = startY(i);
+			Unit u = TestAddon.worker(new UUID(2L, i), this.users.get(i), x, y);
+			tiles[x][y] = new Tile(tiles[x][y].ground(), Map.of(), null, List.of(u), -1);
+		}
+		this.world = CompleteWorld.Builder.create(this.root, tiles, new DefaultUserPlacer(0));
+		byte[] seed = new byte[16 * 15];
+		for (int i = 0; i < seed.length; i++) {
+			seed[i] = (byte) (i * 31 + 7);
+		}
+		this.world.startGame(seed);
+	}
+	
+	/**
+	 * returns the name of the user with the given index
+	 * 
+	 * @param index the index of the user
+	 * 
+	 * @return the name of the user
+	 */
+	static String name(int index) {
+		return String.format("user%03d", Integer.valueOf(index));
+	}
+	
+	/**
+	 * returns a new array with the password of the user with the given index
+	 * 
+	 * @param index the index of the user
+	 * 
+	 * @return the password of the user
+	 */
+	static char[] password(int index) {
+		return ("pw" + index).toCharArray();
+	}
+	
+	/**
+	 * returns the x coordinate at which the worker of the user with the given index starts
+	 * 
+	 * @param index the index of the user
+	 * 
+	 * @return the start x coordinate
+	 */
+	static int startX(int index) {
+		return 2 + (index & 1) * WorldHashTree.CHUNK_LEN;
+	}
+	
+	/**
+	 * returns the y coordinate at which the worker of the user with the given index starts
+	 * 
+	 * @param index the index of the user
+	 * 
+	 * @return the start y coordinate
+	 */
+	static int startY(int index) {
+		return 2 + (index >>> 1) * WorldHashTree.CHUNK_LEN;
+	}
+	
+	/**
+	 * returns the worker of the given user in the world
+	 * 
+	 * @param usr the user
+	 * 
+	 * @return the worker of the user
+	 */
+	Unit worker(User usr) {
+		return (Unit) this.world.entities().get(usr).get(0);
+	}
+	
+	/**
+	 * submits a turn for every user and waits until all turns are executed
+	 * <p>
+	 * the worker of the user with index <code>i</code> moves in the direction <code>moves[i]</code>, if the array is too short or the element is
+	 * <code>null</code> the user submits an empty turn
+	 * 
+	 * @param moves the directions of the workers
+	 */
+	void round(Direction... moves) {
+		CompletableFuture<?>[] done = new CompletableFuture<?>[this.users.size()];
+		for (int i = 0; i < done.length; i++) {
+			User usr = this.users.get(i);
+			Turn t   = new Turn(this.world.of(usr, 0));
+			if (i < moves.length && moves[i] != null) {
+				Unit u = worker(usr);
+				t.put(u, new MoveTurn(u, moves[i]));
+			}
+			done[i] = this.world.submit(t);
+		}
+		CompletableFuture.allOf(done).join();
+	}
+	
+	/**
+	 * executes the given number of rounds, in which the workers move forth and back
+	 * 
+	 * @param count the number of rounds
+	 */
+	void rounds(int count) {
+		for (int i = 0; i < count; i++) {
+			Direction   dir   = (i & 1) == 0 ? Direction.X_ADD : Direction.X_SUB;
+			Direction[] moves = new Direction[this.users.size()];
+			for (int u = 0; u < moves.length; u++) {
+				moves[u] = dir;
+			}
+			round(moves);
+		}
+	}
+	
+}
@@ -0,0 +1,117 @@
+// This file is part of the Square Conquerer Project
+// DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+// Copyright (C) 2023 Patrick Hechler
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Affero General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Affero General Public License for more details.
+//
+// You should have received a copy of the GNU Affero General Public License
+// along with this program. If not, see <https://www.gnu.org/licenses/>.
+package de.hechler.patrick.games.sc.world;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * tests the append, recover and checkpoint cycle of the {@link TurnJournal}
+ * 
+ * @author Patrick Hechler
+ */
+class TurnJournalTest {
+	
+	@Test
+	void attachReplaysTheJournaledTurns(@TempDir Path dir) throws IOException {
+		TestWorld w       = new TestWorld();
+		Path      save    = dir.resolve("world.save");
+		Path      journal = TurnJournal.journalFile(save);
+		w.world.saveEverything(Files.newOutputStream(save));
+		int savedTurn = w.world.turn();
+		try (TurnJournal j = TurnJournal.attach(journal, w.world)) {
+			assertSame(j, w.world.journal());
+			w.rounds(4);
+		}
+		assertNull(w.world.journal());
+		CompleteWorld loaded = CompleteWorld.loadEverything(Files.newInputStream(save), w.root);
+		assertEquals(savedTurn, loaded.turn());
+		try (TurnJournal j = TurnJournal.attach(journal, loaded)) {
+			assertSame(j, loaded.journal());
+			assertEquals(w.world.turn(), loaded.turn());
+			assertArrayEquals(w.world.snapshot().worldHash(), loaded.snapshot().worldHash());
+		}
+	}
+	
+	@Test
+	void attachRemovesAnIncompleteEntry(@TempDir Path dir) throws IOException {
+		TestWorld w       = new TestWorld();
+		Path      save    = dir.resolve("world.save");
+		Path      journal = TurnJournal.journalFile(save);
+		w.world.saveEverything(Files.newOutputStream(save));
+		try (TurnJournal j = TurnJournal.attach(journal, w.world)) {
+			w.rounds(2);
+			j.flush();
+		}
+		long size = Files.size(journal);
+		// the start of an entry, which was not completely written before a crash
+		Files.write(journal, new byte[] { 0, 0, 1, 0, 42 }, StandardOpenOption.APPEND);
+		CompleteWorld loaded = CompleteWorld.loadEverything(Files.newInputStream(save), w.root);
+		try (TurnJournal j = TurnJournal.attach(journal, loaded)) {
+			assertSame(j, loaded.journal());
+			assertEquals(w.world.turn(), loaded.turn());
+			assertArrayEquals(w.world.snapshot().worldHash(), loaded.snapshot().worldHash());
+		}
+		assertEquals(size, Files.size(journal));
+	}
+	
+	@Test
+	void checkpointRemovesTheSavedTurns(@TempDir Path dir) throws IOException {
+		TestWorld w       = new TestWorld();
+		Path      save    = dir.resolve("world.save");
+		Path      first   = dir.resolve("first.save");
+		Path      journal = TurnJournal.journalFile(save);
+		w.world.saveEverything(Files.newOutputStream(save));
+		Files.copy(save, first, StandardCopyOption.REPLACE_EXISTING);
+		int savedTurn;
+		try (TurnJournal j = TurnJournal.attach(journal, w.world)) {
+			w.rounds(3);
+			WorldSnapshot snap = w.world.saveEverything(Files.newOutputStream(save), w.world.snapshot());
+			savedTurn = snap.turn();
+			long size = Files.size(journal);
+			j.checkpoint(snap);
+			assertTrue(Files.size(journal) < size);
+			w.rounds(2);
+		}
+		CompleteWorld loaded = CompleteWorld.loadEverything(Files.newInputStream(save), w.root);
+		assertEquals(savedTurn, loaded.turn());
+		try (TurnJournal j = TurnJournal.attach(journal, loaded)) {
+			assertSame(j, loaded.journal());
+			assertEquals(w.world.turn(), loaded.turn());
+			assertArrayEquals(w.world.snapshot().worldHash(), loaded.snapshot().worldHash());
+		}
+		// the turns of the first save were removed by the checkpoint
+		CompleteWorld old = CompleteWorld.loadEverything(Files.newInputStream(first), w.root);
+		assertThrows(StreamCorruptedException.class, () -> TurnJournal.attach(journal, old));
+		assertNull(old.journal());
+	}
+	
+}
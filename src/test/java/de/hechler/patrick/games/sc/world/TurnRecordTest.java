@@ -0,0 +1,145 @@
+// This file is part of the Square Conquerer Project
+// DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+// Copyright (C) 2023 Patrick Hechler
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Affero General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Affero General Public License for more details.
+//
+// You should have received a copy of the GNU Affero General Public License
+// along with this program. If not, see <https://www.gnu.org/licenses/>.
+package de.hechler.patrick.games.sc.world;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+import de.hechler.patrick.games.sc.connect.Connection;
+import de.hechler.patrick.games.sc.turn.Attack;
+import de.hechler.patrick.games.sc.turn.CarryTurn;
+import de.hechler.patrick.games.sc.turn.Direction;
+import de.hechler.patrick.games.sc.turn.EntityTurn;
+import de.hechler.patrick.games.sc.turn.MineTurn;
+import de.hechler.patrick.games.sc.turn.MoveTurn;
+import de.hechler.patrick.games.sc.turn.StoreTurn;
+import de.hechler.patrick.games.sc.turn.WorkTurn;
+import de.hechler.patrick.games.sc.ui.players.User;
+import de.hechler.patrick.games.sc.world.entity.Unit;
+import de.hechler.patrick.games.sc.world.resource.Resource;
+
+/**
+ * tests the encoding of the executed turns in {@link TurnRecord}s
+ * 
+ * @author Patrick Hechler
+ */
+class TurnRecordTest {
+	
+	@Test
+	void decodeRestoresTheEntityTurns() {
+		TestWorld                   w     = new TestWorld();
+		Map<User, List<EntityTurn>> turns = turns(w);
+		TurnRecord                  rec   = TurnRecord.encode(turns);
+		assertTurns(turns, rec.decode(w.world));
+		// the resources are created new on every invocation, so a record can be decoded more than once
+		assertTurns(turns, rec.decode(w.world));
+	}
+	
+	@Test
+	void readRestoresTheWrittenRecord() throws IOException {
+		TestWorld                   w     = new TestWorld();
+		Map<User, List<EntityTurn>> turns = turns(w);
+		TurnRecord                  rec   = TurnRecord.encode(turns);
+		ByteArrayOutputStream       baos  = new ByteArrayOutputStream();
+		try (Connection conn = Connection.createUnsecure(w.root, baos, null)) {
+			rec.write(conn);
+		}
+		TurnRecord read;
+		try (Connection conn = Connection.createUnsecure(w.root, new ByteArrayInputStream(baos.toByteArray()), null)) {
+			read = TurnRecord.read(conn);
+		}
+		assertEquals(rec.length(), read.length());
+		assertTurns(turns, read.decode(w.world));
+	}
+	
+	@Test
+	void decodeFailsForUnknownEntities() {
+		TestWorld  w       = new TestWorld();
+		User       usr     = w.users.get(0);
+		Unit       unknown = TestAddon.worker(new UUID(3L, 0L), usr, 5, 5);
+		TurnRecord rec     = TurnRecord.encode(Map.of(usr, List.of(new WorkTurn(unknown))));
+		assertThrows(IllegalStateException.class, () -> rec.decode(w.world));
+	}
+	
+	/* every kind of entity turn and move act, the users are encoded in the order of the map */
+	private static Map<User, List<EntityTurn>> turns(TestWorld w) {
+		User                        u0    = w.users.get(0);
+		User                        u1    = w.users.get(1);
+		Unit                        w0    = w.worker(u0);
+		Unit                        w1    = w.worker(u1);
+		Map<User, List<EntityTurn>> turns = new LinkedHashMap<>();
+		turns.put(u1, List.of(new MoveTurn(w1, Direction.X_ADD, Direction.Y_SUB), new WorkTurn(w1)));
+		turns.put(u0, List.of(new MoveTurn(w0, Direction.Y_ADD, new Attack(w1), Direction.X_SUB), //
+			new CarryTurn(w0, TestAddon.stone(new UUID(4L, 1L), 3)), //
+			new StoreTurn(w0, TestAddon.stone(new UUID(4L, 2L), 300)), //
+			new MineTurn(w0, TestAddon.stone(new UUID(4L, 3L), 1 << 20))));
+		return turns;
+	}
+	
+	@SuppressWarnings("preview")
+	private static void assertTurns(Map<User, List<EntityTurn>> expected, Map<User, List<EntityTurn>> actual) {
+		assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(actual.keySet()));
+		for (User usr : expected.keySet()) {
+			List<EntityTurn> exp = expected.get(usr);
+			List<EntityTurn> act = actual.get(usr);
+			assertEquals(exp.size(), act.size());
+			for (int i = 0; i < exp.size(); i++) {
+				EntityTurn e = exp.get(i);
+				EntityTurn a = act.get(i);
+				assertEquals(e.getClass(), a.getClass());
+				// the entities of the expected turns are the entities of the world
+				assertSame(e.entity(), a.entity());
+				switch (e) {
+				case MoveTurn mt -> {
+					List<?> acts = ((MoveTurn) a).acts();
+					assertEquals(mt.acts().size(), acts.size());
+					for (int ai = 0; ai < acts.size(); ai++) {
+						if (mt.acts().get(ai) instanceof Attack(var enemy)) {
+							assertSame(enemy, ((Attack) acts.get(ai)).target());
+						} else {
+							assertSame(mt.acts().get(ai), acts.get(ai));
+						}
+					}
+				}
+				case CarryTurn ct -> assertResource(ct.res(), ((CarryTurn) a).res());
+				case StoreTurn st -> assertResource(st.resource(), ((StoreTurn) a).resource());
+				case MineTurn mt -> assertResource(mt.resource(), ((MineTurn) a).resource());
+				case WorkTurn wt -> {/**/}
+				}
+			}
+		}
+	}
+	
+	private static void assertResource(Resource expected, Resource actual) {
+		assertSame(expected.type(), actual.type());
+		assertEquals(expected.uuid, actual.uuid);
+		assertEquals(expected.amount(), actual.amount());
+	}
+	
+}
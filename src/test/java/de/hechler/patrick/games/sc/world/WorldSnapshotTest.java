@@ -0,0 +1,95 @@
+// This file is part of the Square Conquerer Project
+// DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+// Copyright (C) 2023 Patrick Hechler
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Affero General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Affero General Public License for more details.
+//
+// You should have received a copy of the GNU Affero General Public License
+// along with this program. If not, see <https://www.gnu.org/licenses/>.
+package de.hechler.patrick.games.sc.world;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+import de.hechler.patrick.games.sc.connect.Connection;
+import de.hechler.patrick.games.sc.turn.Direction;
+import de.hechler.patrick.games.sc.world.tile.Tile;
+
+/**
+ * tests the {@link WorldSnapshot#writeDelta(WorldSnapshot, Connection) delta} of two snapshots
+ * 
+ * @author Patrick Hechler
+ */
+class WorldSnapshotTest {
+	
+	@Test
+	void applyRestoresTheWrittenSnapshot() throws IOException {
+		TestWorld     w    = new TestWorld();
+		WorldSnapshot prev = w.world.snapshot();
+		// only the worker of the first user moves, it stays in the first chunk
+		w.round(Direction.X_ADD);
+		WorldSnapshot next     = w.world.snapshot();
+		WorldSnapshot restored = transfer(w, prev, next).apply(prev);
+		assertArrayEquals(encode(next), encode(restored));
+		assertFalse(next.sharesChunk(prev, 0));
+		for (int i = 0; i < WorldSnapshot.chunkCount(TestWorld.XLEN, TestWorld.YLEN); i++) {
+			// the unchanged chunks are not transferred and shared with the base
+			assertEquals(next.sharesChunk(prev, i), restored.sharesChunk(prev, i));
+		}
+	}
+	
+	@Test
+	void theDeltaOfEqualSnapshotsIsEmpty() throws IOException {
+		TestWorld           w     = new TestWorld();
+		WorldSnapshot       snap  = w.world.snapshot();
+		WorldSnapshot.Delta delta = transfer(w, snap, snap);
+		assertEquals(0, delta.indices().length);
+		WorldSnapshot restored = delta.apply(snap);
+		for (int i = 0; i < WorldSnapshot.chunkCount(TestWorld.XLEN, TestWorld.YLEN); i++) {
+			assertTrue(restored.sharesChunk(snap, i));
+		}
+	}
+	
+	@Test
+	void snapshotsOfDifferentSizesAreRejected() throws IOException {
+		TestWorld     w     = new TestWorld();
+		WorldSnapshot snap  = w.world.snapshot();
+		WorldSnapshot other = WorldSnapshot.of(new Tile[][] { { new Tile(TestAddon.GRASS.newInstance(new UUID(9L, 9L))) } });
+		try (Connection conn = Connection.createUnsecure(w.root, new ByteArrayOutputStream(), null)) {
+			assertThrows(IllegalArgumentException.class, () -> snap.writeDelta(other, conn));
+		}
+	}
+	
+	private static WorldSnapshot.Delta transfer(TestWorld w, WorldSnapshot base, WorldSnapshot snap) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try (Connection conn = Connection.createUnsecure(w.root, baos, null)) {
+			snap.writeDelta(base, conn);
+		}
+		try (Connection conn = Connection.createUnsecure(w.root, new ByteArrayInputStream(baos.toByteArray()), null)) {
+			return WorldSnapshot.readDelta(conn);
+		}
+	}
+	
+	private static byte[] encode(WorldSnapshot snap) {
+		return CompactWorldFormat.encode(snap.xlen(), snap.ylen(), snap::tile, true);
+	}
+	
+}